@@ -19,7 +19,6 @@ import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 import com.dji.sdk.sample.R;
 import com.dji.sdk.sample.demo.camera.adapter.MediaFileRecyclerAdapter;
 import com.dji.sdk.sample.internal.controller.DJISampleApplication;
-import com.dji.sdk.sample.internal.utils.DownloadHandler;
 import com.dji.sdk.sample.internal.utils.ModuleVerificationUtil;
 import com.dji.sdk.sample.internal.utils.ToastUtils;
 import com.dji.sdk.sample.internal.view.BaseThreeBtnView;
@@ -41,7 +40,9 @@ import dji.sdk.media.order.MediaSizeOrder;
 import dji.sdk.media.order.MediaTimeOrder;
 
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Class for fetching the media.
@@ -51,6 +52,8 @@ import java.util.List;
 public class FetchMediaView extends BaseThreeBtnView {
 
     private MediaFile media;
+    private List<MediaFile> mediaList;
+    private MediaDownloadManager downloadManager;
     private MediaManager mediaManager;
     private FetchMediaTaskScheduler taskScheduler;
     private FetchMediaTask.Callback fetchMediaFileTaskCallback;
@@ -146,6 +149,11 @@ public class FetchMediaView extends BaseThreeBtnView {
                     .getCamera().exitPlayback(null);
         }
         mFileBeginIndex = 1;
+        MediaThumbnailCache.getInstance(getContext()).detach();
+        if (downloadManager != null) {
+            downloadManager.release();
+            downloadManager = null;
+        }
     }
 
     @Override
@@ -207,7 +215,31 @@ public class FetchMediaView extends BaseThreeBtnView {
                 && mediaManager != null) {
             File destDir = new File(Environment.getExternalStorageDirectory().
                     getPath() + "/Dji_Sdk_Test/");
-            media.fetchFileData(destDir, "testName", new DownloadHandler<String>());
+            if (downloadManager == null) {
+                downloadManager = new MediaDownloadManager(destDir, 2, new MediaDownloadManager.Listener() {
+                    @Override
+                    public void onFileDone(MediaFile file, File saved, String sha256) {
+                    }
+
+                    @Override
+                    public void onFileFailed(MediaFile file, String reason) {
+                        ToastUtils.setResultToToast(file.getFileName() + ": " + reason);
+                    }
+
+                    @Override
+                    public void onRateUpdate(long total, long current, long bytesPerSecond) {
+                        changeDescription(String.format(Locale.US, "Downloading: %.1f of %.1f MB, %.1f MB/s",
+                                                        current / 1e6, total / 1e6, bytesPerSecond / 1e6));
+                    }
+
+                    @Override
+                    public void onQueueDrained() {
+                        changeDescription("The media files have been stored in " + destDir.getPath());
+                    }
+                });
+            }
+            // The whole card, not just the first file
+            downloadManager.enqueue(mediaList != null ? mediaList : Collections.singletonList(media));
         }
     }
 
@@ -246,6 +278,7 @@ public class FetchMediaView extends BaseThreeBtnView {
                             if (null != djiMedias) {
                                 if (!djiMedias.isEmpty()) {
                                     media = djiMedias.get(0);
+                                    mediaList = djiMedias;
                                     str = "Total Media files:" + djiMedias.size() + "\n" + "Media 1: " +
                                             djiMedias.get(0).getFileName();
                                     changeDescription(str);
@@ -286,6 +319,12 @@ public class FetchMediaView extends BaseThreeBtnView {
 
         mRecycler.addItemDecoration(new DividerItemDecoration(getContext(), DividerItemDecoration.VERTICAL));
         mRecycler.setAdapter(mAdapter = new MediaFileRecyclerAdapter(getContext()));
+        MediaThumbnailCache.getInstance(getContext()).attach(taskScheduler, new MediaThumbnailCache.Listener() {
+            @Override
+            public void onLoaded(String fileKey, MediaFile file, FetchMediaTaskContent content, Bitmap bitmap) {
+                mAdapter.onThumbnailLoaded(file);
+            }
+        });
         mSwipeRefreshLayout.setOnRefreshListener(()->{ mSwipeRefreshLayout.setRefreshing(false);});
 
 
@@ -303,11 +342,19 @@ public class FetchMediaView extends BaseThreeBtnView {
             public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
                 super.onScrolled(recyclerView, dx, dy);
                 mLastVisibleItem = mLinearLayoutManager.findLastVisibleItemPosition();
+                updateVisibleRange();
             }
         });
     }
 
 
+    private void updateVisibleRange() {
+        // The footer row is not a file
+        MediaThumbnailCache.getInstance(getContext()).setVisibleRange(mAdapter.getMediaFileList(),
+                mLinearLayoutManager.findFirstVisibleItemPosition(),
+                Math.min(mLinearLayoutManager.findLastVisibleItemPosition(), mAdapter.getItemCount() - 2));
+    }
+
     private void getFileWithMediaRequest() {
         mAdapter.changeLoadStatus(MediaFileRecyclerAdapter.LOADING);
         MediaRequest.Builder builder = MediaRequest.Builder.aMediaRequest();
@@ -332,6 +379,7 @@ public class FetchMediaView extends BaseThreeBtnView {
                             post(()->{
                                 mAdapter.addMoreItem(mediaFiles);
                                 mAdapter.changeLoadStatus(MediaFileRecyclerAdapter.PULL_UP_LOADMORE);
+                                post(()->{ updateVisibleRange();});
                             });
                         } else {
                             post(()->{mAdapter.changeLoadStatus(MediaFileRecyclerAdapter.LOAD_FINISH);});
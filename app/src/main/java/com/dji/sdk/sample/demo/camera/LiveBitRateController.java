@@ -0,0 +1,165 @@
+package com.dji.sdk.sample.demo.camera;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Closed-loop bitrate and resolution control for the live stream, from the encoder's own
+ * statistics sampled a few times a second.
+ * <p>
+ * The frames waiting in the live stream cache, divided by the frame rate, are how long the
+ * newest frame waits to go out: the uplink's share of the stream latency. While that stays short
+ * the bitrate creeps up additively; once it grows past a threshold the bitrate is cut
+ * multiplicatively, to a fraction of what actually got through. After a cut, increases wait for
+ * a while so a fading link is not probed again at once. Resolution steps follow the bitrate, with
+ * a wider band and longer dwell, so it does not flip back and forth.
+ * <p>
+ * Knows nothing about the SDK: decisions go to an {@link Actuator}. Not thread-safe.
+ */
+public class LiveBitRateController {
+
+    public interface Actuator {
+        void setBitRate(int kbps);
+
+        /**
+         * @param level index into {@link #LEVEL_MIN_KBPS}, lowest resolution first
+         */
+        void setResolution(int level);
+    }
+
+    public static final int MIN_KBPS = 384;
+    public static final int MAX_KBPS = 8192;
+    // Least bitrate each resolution looks acceptable at: 480x360, 960x540, 1280x720, 1920x1080
+    public static final int[] LEVEL_MIN_KBPS = {0, 800, 1600, 3500};
+
+    // Queueing delay that triggers a cut, and under which increases are allowed
+    private static final float HIGH_DELAY_S  = 0.8f;
+    private static final float LOW_DELAY_S   = 0.25f;
+    private static final float DECREASE      = 0.7f;
+    private static final float DRAIN_S       = 3f;
+    private static final int   INCREASE_KBPS = 200;
+    private static final long  INCREASE_EVERY_MS   = 1000;
+    // After a cut: no further cut until the queue has had time to drain, no increase for longer
+    private static final long  DECREASE_GAP_MS     = 1500;
+    private static final long  HOLD_AFTER_CUT_MS   = 5000;
+    // Resolution moves up only with this much headroom, and either way only after the dwell
+    private static final float LEVEL_UP_MARGIN     = 1.3f;
+    private static final long  LEVEL_DWELL_MS      = 6000;
+    private static final int   LOG_LINES = 8;
+
+    private final Actuator mActuator;
+    private int  mTargetKbps;
+    private int  mLevel;
+    private long mLastCutMs = Long.MIN_VALUE / 2;
+    private long mLastIncreaseMs = Long.MIN_VALUE / 2;
+    private long mLevelPressureSinceMs = -1;
+    private int  mLevelPressure;
+    private float mDelayS;
+    private final ArrayDeque<String> mLog = new ArrayDeque<>();
+
+    /**
+     * Starts at the highest resolution level the bitrate allows; the caller applies both.
+     */
+    public LiveBitRateController(Actuator actuator, int startKbps) {
+        mActuator = actuator;
+        mTargetKbps = clamp(startKbps);
+        while (mLevel + 1 < LEVEL_MIN_KBPS.length && LEVEL_MIN_KBPS[mLevel + 1] <= mTargetKbps) mLevel++;
+    }
+
+    public int getTargetKbps() {
+        return mTargetKbps;
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Queueing delay at the last sample, in seconds.
+     */
+    public float getDelaySeconds() {
+        return mDelayS;
+    }
+
+    /**
+     * The decision just passed to the {@link Actuator}, or null before the first.
+     */
+    public String getLastDecision() {
+        return mLog.peekLast();
+    }
+
+    /**
+     * The latest decisions, oldest first, one per line.
+     */
+    public String getRecentDecisions() {
+        StringBuilder sb = new StringBuilder();
+        for (String line : mLog) sb.append(line).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * One sample of the stream statistics.
+     *
+     * @param sentKbps    bitrate actually going out
+     * @param cacheFrames frames waiting to be sent
+     */
+    public void onSample(long nowMs, int sentKbps, float fps, int cacheFrames) {
+        mDelayS = cacheFrames / Math.max(fps, 1f);
+        if (mDelayS > HIGH_DELAY_S) {
+            if (nowMs - mLastCutMs >= DECREASE_GAP_MS) {
+                // Below what got through, and by enough that the backlog drains in a few seconds
+                // rather than just stops growing
+                int base = sentKbps > 0 ? Math.min(mTargetKbps, sentKbps) : mTargetKbps;
+                int drainKbps = (int) (mDelayS * mTargetKbps / DRAIN_S);
+                setTarget(nowMs, Math.min((int) (base * DECREASE), base - drainKbps), "cut");
+                mLastCutMs = nowMs;
+            }
+        } else if (mDelayS < LOW_DELAY_S
+                   && nowMs - mLastCutMs >= HOLD_AFTER_CUT_MS
+                   && nowMs - mLastIncreaseMs >= INCREASE_EVERY_MS
+                   && mTargetKbps < MAX_KBPS) {
+            setTarget(nowMs, mTargetKbps + INCREASE_KBPS, "probe");
+            mLastIncreaseMs = nowMs;
+        }
+        updateLevel(nowMs);
+    }
+
+    private void setTarget(long nowMs, int kbps, String why) {
+        kbps = clamp(kbps);
+        if (kbps == mTargetKbps) return;
+        log(nowMs, String.format(Locale.US, "%s %d -> %d kbps (queue %.2f s)", why, mTargetKbps, kbps, mDelayS));
+        mTargetKbps = kbps;
+        mActuator.setBitRate(kbps);
+    }
+
+    // Steps the resolution once the bitrate has stayed outside the current level's band long enough
+    private void updateLevel(long nowMs) {
+        int pressure = 0;
+        if (mLevel > 0 && mTargetKbps < LEVEL_MIN_KBPS[mLevel]) {
+            pressure = -1;
+        } else if (mLevel + 1 < LEVEL_MIN_KBPS.length
+                   && mTargetKbps >= LEVEL_MIN_KBPS[mLevel + 1] * LEVEL_UP_MARGIN) {
+            pressure = 1;
+        }
+        if (pressure != mLevelPressure) {
+            mLevelPressure = pressure;
+            mLevelPressureSinceMs = nowMs;
+            return;
+        }
+        if (pressure == 0 || nowMs - mLevelPressureSinceMs < LEVEL_DWELL_MS) return;
+        log(nowMs, String.format(Locale.US, "resolution level %d -> %d at %d kbps",
+            mLevel, mLevel + pressure, mTargetKbps));
+        mLevel += pressure;
+        mLevelPressureSinceMs = nowMs;
+        mActuator.setResolution(mLevel);
+    }
+
+    private void log(long nowMs, String decision) {
+        if (mLog.size() == LOG_LINES) mLog.removeFirst();
+        mLog.addLast(String.format(Locale.US, "%d.%03d %s", nowMs / 1000 % 100000, nowMs % 1000, decision));
+    }
+
+    private static int clamp(int kbps) {
+        return Math.max(MIN_KBPS, Math.min(MAX_KBPS, kbps));
+    }
+}
@@ -4,8 +4,11 @@ import android.app.AlertDialog;
 import android.app.Service;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
@@ -62,8 +65,34 @@ public class LiveStreamView extends LinearLayout implements PresentableView, Vie
     private Button showCurrentVideoSourceBtn;
     private Button changeVideoSourceBtn;
     private Button startAutoBitBtn;
-    private boolean firstTimetoStartAutoBitRate = true;
     private int lastBitRate = 2048;
+    private LiveVideoResolution lastResolution;
+
+    private static final String TAG = "LiveStreamView";
+    private static final long BIT_RATE_SAMPLE_MS = 250;
+    // Resolutions the bitrate controller steps between, by LiveBitRateController level
+    private static final LiveVideoResolution[] BIT_RATE_RESOLUTIONS = {
+        LiveVideoResolution.VIDEO_RESOLUTION_480_360,
+        LiveVideoResolution.VIDEO_RESOLUTION_960_540,
+        LiveVideoResolution.VIDEO_RESOLUTION_1280_720,
+        LiveVideoResolution.VIDEO_RESOLUTION_1920_1080
+    };
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private LiveBitRateController bitRateController;
+    private final Runnable bitRateSampler = new Runnable() {
+        @Override
+        public void run() {
+            LiveStreamManager manager = DJISDKManager.getInstance().getLiveStreamManager();
+            if (bitRateController == null || manager == null) {
+                return;
+            }
+            if (manager.isStreaming()) {
+                bitRateController.onSample(System.currentTimeMillis(), (int) manager.getLiveVideoBitRate(),
+                                           manager.getLiveVideoFps(), (int) manager.getLiveVideoCacheSize());
+            }
+            handler.postDelayed(this, BIT_RATE_SAMPLE_MS);
+        }
+    };
 
     private LiveStreamManager.OnLiveChangeListener listener;
     private LiveStreamManager.LiveStreamVideoSource currentVideoSource = LiveStreamManager.LiveStreamVideoSource.Primary;
@@ -166,6 +195,7 @@ public class LiveStreamView extends LinearLayout implements PresentableView, Vie
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
+        stopBitRateControl();
         if (isLiveStreamManagerOn()){
             DJISDKManager.getInstance().getLiveStreamManager().unregisterListener(listener);
         }
@@ -262,8 +292,13 @@ public class LiveStreamView extends LinearLayout implements PresentableView, Vie
         sb.append("Video BitRate:").append(DJISDKManager.getInstance().getLiveStreamManager().getLiveVideoBitRate()).append(" kpbs\n");
         sb.append("Audio BitRate:").append(DJISDKManager.getInstance().getLiveStreamManager().getLiveAudioBitRate()).append(" kpbs\n");
         sb.append("Video FPS:").append(DJISDKManager.getInstance().getLiveStreamManager().getLiveVideoFps()).append("\n");
-        sb.append("Video Cache size:").append(DJISDKManager.getInstance().getLiveStreamManager().getLiveVideoCacheSize()).append(" frame");
+        sb.append("Video Cache size:").append(DJISDKManager.getInstance().getLiveStreamManager().getLiveVideoCacheSize()).append(" frame\n");
         sb.append("Video Resolution:").append(DJISDKManager.getInstance().getLiveStreamManager().getLiveVideoResolution());
+        if (bitRateController != null) {
+            sb.append("\nAuto bit rate: ").append(bitRateController.getTargetKbps()).append(" kbps, queue ")
+              .append(String.format(Locale.US, "%.2f", bitRateController.getDelaySeconds())).append(" s\n");
+            sb.append(bitRateController.getRecentDecisions());
+        }
 
         ToastUtils.setResultToToast(sb.toString());
     }
@@ -321,23 +356,48 @@ public class LiveStreamView extends LinearLayout implements PresentableView, Vie
         return true;
     }
 
+    // Our own controller rather than the SDK's AUTO mode, which only looks at the bitrate and never
+    // drops the resolution, so the stream falls minutes behind when the cellular link sags
     private void startOrStopAutoBitRate() {
-        if (firstTimetoStartAutoBitRate) {
-            DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoBitRateMode(LiveVideoBitRateMode.AUTO);
-            showToast("Start Auto Video Bit Rate Success!!!");
-            startAutoBitBtn.setText("StopAutoBitRate");
-            firstTimetoStartAutoBitRate = false;
+        if (!isLiveStreamManagerOn()) {
             return;
         }
-        if (!startAutoBitBtn.getText().toString().contains("Start")) {
-            DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoBitRateMode(LiveVideoBitRateMode.MANUAL);
+        if (bitRateController != null) {
+            stopBitRateControl();
             DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoBitRate(lastBitRate);
+            if (lastResolution != null) {
+                DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoResolution(lastResolution);
+            }
             showToast("Stop Auto Video Bit Rate Success!!!");
+            return;
+        }
+        DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoBitRateMode(LiveVideoBitRateMode.MANUAL);
+        lastResolution = DJISDKManager.getInstance().getLiveStreamManager().getLiveVideoResolution();
+        bitRateController = new LiveBitRateController(new LiveBitRateController.Actuator() {
+            @Override
+            public void setBitRate(int kbps) {
+                DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoBitRate(kbps);
+                Log.i(TAG, bitRateController.getLastDecision());
+            }
+
+            @Override
+            public void setResolution(int level) {
+                DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoResolution(BIT_RATE_RESOLUTIONS[level]);
+                Log.i(TAG, bitRateController.getLastDecision());
+            }
+        }, lastBitRate);
+        DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoBitRate(bitRateController.getTargetKbps());
+        DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoResolution(BIT_RATE_RESOLUTIONS[bitRateController.getLevel()]);
+        handler.post(bitRateSampler);
+        showToast("Start Auto Video Bit Rate Success!!!");
+        startAutoBitBtn.setText("StopAutoBitRate");
+    }
+
+    private void stopBitRateControl() {
+        handler.removeCallbacks(bitRateSampler);
+        if (bitRateController != null) {
+            bitRateController = null;
             startAutoBitBtn.setText("StartAutoBitRate");
-        } else {
-            DJISDKManager.getInstance().getLiveStreamManager().setLiveVideoBitRateMode(LiveVideoBitRateMode.AUTO);
-            showToast("Start Auto Video Bit Rate Success!!!");
-            startAutoBitBtn.setText("StopAutoBitRate");
         }
     }
 
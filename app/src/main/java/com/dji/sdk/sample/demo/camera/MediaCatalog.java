@@ -0,0 +1,358 @@
+package com.dji.sdk.sample.demo.camera;
+
+import android.media.ExifInterface;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.recyclerview.widget.DiffUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import dji.sdk.media.MediaFile;
+
+/**
+ * The camera's file list as a gallery shows it, newest first, kept up to date from successive
+ * snapshots without rebuilding the list each time.
+ * <p>
+ * Each snapshot is compared with the last one by the files' stable identity (name, creation
+ * time and size; the {@link MediaFile} objects are new every refresh) on a background thread,
+ * and the {@link DiffUtil} result is handed to the main thread to dispatch to an adapter, along
+ * with the files that are new. The main thread only does work in proportion to what changed, so
+ * a refresh after a few shots does not cost like the whole card.
+ * <p>
+ * Given a {@link MediaCatalogStore}, the list can be shown from the phone with {@link #load}
+ * before the camera is asked, and each snapshot is written back to it. Until the camera has
+ * listed a file its {@link Item} has no {@link MediaFile}.
+ */
+public class MediaCatalog {
+    private static final String TAG = "MediaCatalog";
+
+    public interface Listener {
+        /**
+         * Called on the main thread.
+         *
+         * @param items the new list; the caller's to keep, not to change
+         * @param diff  from the previous list, or null if that list is the start of this one and
+         *              the rest was only appended
+         * @param added files not in the previous list, newest first
+         */
+        void onCatalogChanged(List<Item> items, DiffUtil.DiffResult diff, List<MediaFile> added);
+    }
+
+    /**
+     * One file, as the camera last listed it or as the phone remembers it.
+     */
+    public static final class Item {
+        private final String mKey;
+        private final String mFileName;
+        private final long mTimeCreated;
+        private final long mFileSize;
+        private final String mType;
+        private final float mDurationInSeconds;
+        private final int mIndex;
+        private final double mLatitude;
+        private final double mLongitude;
+        private final String mLocalPath;
+        private final MediaFile mFile;
+
+        Item(String key, String fileName, long timeCreated, long fileSize, String type, float durationInSeconds,
+             int index, double latitude, double longitude, String localPath, MediaFile file) {
+            mKey = key;
+            mFileName = fileName;
+            mTimeCreated = timeCreated;
+            mFileSize = fileSize;
+            mType = type;
+            mDurationInSeconds = durationInSeconds;
+            mIndex = index;
+            mLatitude = latitude;
+            mLongitude = longitude;
+            mLocalPath = localPath;
+            mFile = file;
+        }
+
+        // A file the camera listed, with what the phone knew about it
+        Item(MediaFile file, Item known) {
+            this(keyOf(file), file.getFileName(), file.getTimeCreated(), file.getFileSize(),
+                 file.getMediaType() != null ? file.getMediaType().name() : null, file.getDurationInSeconds(),
+                 file.getIndex(), known != null ? known.mLatitude : Double.NaN,
+                 known != null ? known.mLongitude : Double.NaN, known != null ? known.mLocalPath : null, file);
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        public String getFileName() {
+            return mFileName;
+        }
+
+        public long getTimeCreated() {
+            return mTimeCreated;
+        }
+
+        public long getFileSize() {
+            return mFileSize;
+        }
+
+        /**
+         * The {@link MediaFile.MediaType} name, or null.
+         */
+        public String getType() {
+            return mType;
+        }
+
+        public boolean isVideo() {
+            return MediaFile.MediaType.MOV.name().equals(mType) || MediaFile.MediaType.MP4.name().equals(mType);
+        }
+
+        public float getDurationInSeconds() {
+            return mDurationInSeconds;
+        }
+
+        public int getIndex() {
+            return mIndex;
+        }
+
+        /**
+         * Where it was taken, from the downloaded file; NaN if not known.
+         */
+        public double getLatitude() {
+            return mLatitude;
+        }
+
+        public double getLongitude() {
+            return mLongitude;
+        }
+
+        /**
+         * The downloaded copy, or null.
+         */
+        public String getLocalPath() {
+            return mLocalPath;
+        }
+
+        /**
+         * The camera's file, or null if the camera has not listed it since the gallery opened.
+         */
+        public MediaFile getFile() {
+            return mFile;
+        }
+    }
+
+    // Rows published before the rest of a stored catalog, enough to fill a screen
+    private static final int FIRST_PAGE = 64;
+
+    private static final Comparator<Item> NEWEST_FIRST = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            int byTime = Long.compare(b.mTimeCreated, a.mTimeCreated);
+            return byTime != 0 ? byTime : a.mFileName.compareTo(b.mFileName);
+        }
+    };
+
+    private final MediaCatalogStore mStore;
+    private final Listener mListener;
+    // One thread at most, and none while idle, so a view can simply drop its catalog
+    private final ExecutorService mExecutor = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS,
+                                                                     new LinkedBlockingQueue<Runnable>());
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Executor thread: the list the last result was worked out to
+    private List<Item> mItems = new ArrayList<>();
+    private List<String> mKeys = new ArrayList<>();
+
+    public MediaCatalog(Listener listener) {
+        this(null, listener);
+    }
+
+    /**
+     * @param store where the catalog is kept between sessions, or null for none
+     */
+    public MediaCatalog(MediaCatalogStore store, Listener listener) {
+        mStore = store;
+        mListener = listener;
+    }
+
+    /**
+     * What identifies a file on the card across refreshes.
+     */
+    public static String keyOf(MediaFile file) {
+        return file.getFileName() + "_" + file.getTimeCreated() + "_" + file.getFileSize();
+    }
+
+    /**
+     * Publishes the stored catalog: the first screenful, then the rest. Call before the first
+     * {@link #update}; does nothing without a store.
+     */
+    public void load() {
+        if (mStore == null) return;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Item> first = mStore.loadNewest(0, FIRST_PAGE);
+                publish(first, false);
+                if (first.size() < FIRST_PAGE) return;
+                List<Item> items = new ArrayList<>(first);
+                items.addAll(mStore.loadNewest(FIRST_PAGE, 0));
+                publish(items, true);
+            }
+        });
+    }
+
+    /**
+     * Brings the list in line with a new snapshot of the card, and the store with it. From any
+     * thread.
+     */
+    public void update(List<MediaFile> snapshot) {
+        final List<MediaFile> files = new ArrayList<>(snapshot);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, Item> known = new HashMap<>(mItems.size() * 2);
+                for (Item item : mItems) known.put(item.mKey, item);
+                List<Item> items = new ArrayList<>(files.size());
+                for (MediaFile file : files) items.add(new Item(file, known.get(keyOf(file))));
+                Collections.sort(items, NEWEST_FIRST);
+                if (mStore != null) save(items);
+                publish(items, false);
+            }
+        });
+    }
+
+    /**
+     * Takes deleted files out of the list without asking the camera again. From any thread.
+     */
+    public void remove(Collection<MediaFile> deleted) {
+        final Set<String> keys = new HashSet<>();
+        for (MediaFile file : deleted) keys.add(keyOf(file));
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Item> items = new ArrayList<>(mItems.size());
+                for (Item item : mItems) {
+                    if (!keys.contains(item.mKey)) items.add(item);
+                }
+                if (mStore != null) mStore.apply(Collections.<MediaFile>emptyList(), keys);
+                publish(items, false);
+            }
+        });
+    }
+
+    /**
+     * Records a downloaded copy of a file, and where it was taken if the copy says. From any
+     * thread.
+     */
+    public void setDownloaded(final MediaFile file, final File saved) {
+        final String key = keyOf(file);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                double[] position = readPosition(saved);
+                if (mStore != null) mStore.setDownloaded(key, saved.getPath(), position[0], position[1]);
+                int i = mKeys.indexOf(key);
+                if (i < 0) return;
+                Item old = mItems.get(i);
+                List<Item> items = new ArrayList<>(mItems);
+                items.set(i, new Item(old.mKey, old.mFileName, old.mTimeCreated, old.mFileSize, old.mType,
+                                      old.mDurationInSeconds, old.mIndex, position[0], position[1],
+                                      saved.getPath(), old.mFile));
+                publish(items, false);
+            }
+        });
+    }
+
+    // Executor thread; the camera's list does not carry the position, a photo's EXIF does
+    private static double[] readPosition(File saved) {
+        double[] position = {Double.NaN, Double.NaN};
+        String name = saved.getName().toLowerCase();
+        if (!name.endsWith(".jpg") && !name.endsWith(".jpeg") && !name.endsWith(".dng")) return position;
+        try {
+            float[] latLong = new float[2];
+            if (new ExifInterface(saved.getPath()).getLatLong(latLong)) {
+                position[0] = latLong[0];
+                position[1] = latLong[1];
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read EXIF of " + saved, e);
+        }
+        return position;
+    }
+
+    // Executor thread; writes only what differs from the store
+    private void save(List<Item> items) {
+        Set<String> stored = mStore.loadKeys();
+        List<MediaFile> added = new ArrayList<>();
+        for (Item item : items) {
+            if (!stored.remove(item.mKey)) added.add(item.mFile);
+        }
+        mStore.apply(added, stored);
+    }
+
+    // Executor thread
+    private void publish(final List<Item> items, boolean appended) {
+        final List<String> oldKeys = mKeys;
+        final List<Item> oldItems = mItems;
+        final List<String> keys = new ArrayList<>(items.size());
+        for (Item item : items) keys.add(item.mKey);
+
+        Set<String> known = new HashSet<>(oldKeys);
+        final List<MediaFile> added = new ArrayList<>();
+        for (Item item : items) {
+            if (item.mFile != null && !known.contains(item.mKey)) added.add(item.mFile);
+        }
+
+        // Appending needs no diff, and a diff of a few rows against a whole card would take long
+        final DiffUtil.DiffResult diff = appended ? null : DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldKeys.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return keys.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldKeys.get(oldPosition).equals(keys.get(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                // Same file; its place in the camera's numbering, whether the camera has listed
+                // it and its local copy are what can have changed
+                Item before = oldItems.get(oldPosition);
+                Item after = items.get(newPosition);
+                return before.mIndex == after.mIndex
+                       && (before.mFile == null) == (after.mFile == null)
+                       && (before.mLocalPath == null ? after.mLocalPath == null
+                                                     : before.mLocalPath.equals(after.mLocalPath));
+            }
+        }, false);
+        mItems = items;
+        mKeys = keys;
+        final List<Item> copy = new ArrayList<>(items);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onCatalogChanged(copy, diff, added);
+            }
+        });
+    }
+}
@@ -0,0 +1,177 @@
+package com.dji.sdk.sample.demo.camera;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import dji.sdk.media.MediaFile;
+
+/**
+ * What is on the camera's card, kept on the phone so a gallery can show it before the camera
+ * has been asked, and searched by time and place without the camera at all.
+ * <p>
+ * One row per file, keyed by {@link MediaCatalog#keyOf}, in a SQLite table indexed by creation
+ * time and by position. Position and the local copy are filled in once a file has been
+ * downloaded; the camera's list does not carry them. The thumbnail cache entry for a row is found
+ * from its key. Calls do disk I/O, so keep them off the main thread; SQLite makes them safe from
+ * any thread.
+ */
+public class MediaCatalogStore extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "media_catalog.db";
+    private static final int DB_VERSION = 1;
+    private static final String TABLE = "media";
+
+    private static MediaCatalogStore instance;
+
+    private static final String COLUMNS = "key, name, time_ms, size, type, duration_s, camera_index, lat, lon, local_path";
+
+    public static synchronized MediaCatalogStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaCatalogStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MediaCatalogStore(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                   + "key TEXT PRIMARY KEY NOT NULL, "
+                   + "name TEXT NOT NULL, "
+                   + "time_ms INTEGER NOT NULL, "
+                   + "size INTEGER NOT NULL, "
+                   + "type TEXT, "
+                   + "duration_s REAL, "
+                   + "camera_index INTEGER, "
+                   + "lat REAL, "
+                   + "lon REAL, "
+                   + "local_path TEXT"
+                   + ") WITHOUT ROWID");
+        db.execSQL("CREATE INDEX media_time ON " + TABLE + " (time_ms DESC, name)");
+        db.execSQL("CREATE INDEX media_position ON " + TABLE + " (lat, lon) WHERE lat IS NOT NULL");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only a cache of the card; rebuilt from the camera
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Newest first, in the gallery's order.
+     *
+     * @param offset rows to skip
+     * @param limit  most rows, or 0 for all the rest
+     */
+    public List<MediaCatalog.Item> loadNewest(int offset, int limit) {
+        return query(null, null, "time_ms DESC, name", offset + "," + (limit > 0 ? limit : -1));
+    }
+
+    /**
+     * Files created in {@code [fromMs, toMs)}, newest first.
+     */
+    public List<MediaCatalog.Item> queryTimeRange(long fromMs, long toMs) {
+        return query("time_ms >= ? AND time_ms < ?",
+                     new String[]{Long.toString(fromMs), Long.toString(toMs)}, "time_ms DESC, name", null);
+    }
+
+    /**
+     * Downloaded files taken inside a box, newest first.
+     */
+    public List<MediaCatalog.Item> queryArea(double minLat, double maxLat, double minLon, double maxLon) {
+        return query("lat IS NOT NULL AND lat BETWEEN ? AND ? AND lon BETWEEN ? AND ?",
+                     new String[]{Double.toString(minLat), Double.toString(maxLat),
+                                  Double.toString(minLon), Double.toString(maxLon)},
+                     "time_ms DESC, name", null);
+    }
+
+    public Set<String> loadKeys() {
+        Set<String> keys = new HashSet<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, new String[]{"key"}, null, null, null, null, null)) {
+            while (cursor.moveToNext()) keys.add(cursor.getString(0));
+        }
+        return keys;
+    }
+
+    /**
+     * Adds files the store does not have and drops the ones gone from the card, in one transaction.
+     */
+    public void apply(Collection<MediaFile> added, Collection<String> removed) {
+        if (added.isEmpty() && removed.isEmpty()) return;
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement("INSERT OR IGNORE INTO " + TABLE
+                + " (key, name, time_ms, size, type, duration_s, camera_index) VALUES (?, ?, ?, ?, ?, ?, ?)");
+            for (MediaFile file : added) {
+                insert.clearBindings();
+                insert.bindString(1, MediaCatalog.keyOf(file));
+                insert.bindString(2, file.getFileName());
+                insert.bindLong(3, file.getTimeCreated());
+                insert.bindLong(4, file.getFileSize());
+                if (file.getMediaType() != null) insert.bindString(5, file.getMediaType().name());
+                insert.bindDouble(6, file.getDurationInSeconds());
+                insert.bindLong(7, file.getIndex());
+                insert.executeInsert();
+            }
+            SQLiteStatement delete = db.compileStatement("DELETE FROM " + TABLE + " WHERE key = ?");
+            for (String key : removed) {
+                delete.bindString(1, key);
+                delete.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Records where a file was downloaded to, and where it was taken if it says.
+     *
+     * @param latitude NaN if unknown; likewise {@code longitude}
+     */
+    public void setDownloaded(String key, String localPath, double latitude, double longitude) {
+        ContentValues values = new ContentValues();
+        values.put("local_path", localPath);
+        if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+            values.put("lat", latitude);
+            values.put("lon", longitude);
+        }
+        getWritableDatabase().update(TABLE, values, "key = ?", new String[]{key});
+    }
+
+    private List<MediaCatalog.Item> query(String where, String[] args, String orderBy, String limit) {
+        List<MediaCatalog.Item> items = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMNS + " FROM " + TABLE
+                + (where != null ? " WHERE " + where : "") + " ORDER BY " + orderBy
+                + (limit != null ? " LIMIT " + limit : ""), args)) {
+            while (cursor.moveToNext()) {
+                items.add(new MediaCatalog.Item(cursor.getString(0), cursor.getString(1), cursor.getLong(2),
+                    cursor.getLong(3), cursor.getString(4), cursor.getFloat(5), cursor.getInt(6),
+                    cursor.isNull(7) ? Double.NaN : cursor.getDouble(7),
+                    cursor.isNull(8) ? Double.NaN : cursor.getDouble(8),
+                    cursor.getString(9), null));
+            }
+        }
+        return items;
+    }
+}
@@ -0,0 +1,489 @@
+package com.dji.sdk.sample.demo.camera;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import dji.common.error.DJIError;
+import dji.sdk.media.DownloadListener;
+import dji.sdk.media.MediaFile;
+
+/**
+ * Downloads media files from the camera in the background, photos before videos, so the many
+ * small files a search turns up are on the phone long before the few big ones.
+ * <p>
+ * Each file is fetched with {@link MediaFile#fetchFileByteData} into a {@code .part} file next
+ * to where it ends up, so a download cut off by a disconnect (or by the app going away) carries
+ * on from the bytes already on disk. The data is written and hashed through a
+ * {@link MediaFileSink} on a writer thread; if storage falls behind, the fetch is stopped and
+ * picked up again from where the sink got to. A finished file is checked against the size the
+ * camera reported, and a JPEG for its end marker, before it is renamed into place. Failed files
+ * are retried with a growing delay. Queueing does no disk I/O: a file queued twice is caught by
+ * its {@link MediaCatalog#keyOf key}, and one that is on the phone already is found on the
+ * writer thread when its turn comes.
+ * <p>
+ * How many files are fetched at once adapts to the link: one more after a run of clean
+ * downloads, up to the given maximum, and half as many after a failure. Progress for the whole
+ * queue is reported about once a second through {@link Listener#onRateUpdate}. Listener methods
+ * are called on an internal thread.
+ */
+public class MediaDownloadManager {
+    private static final String TAG = "MediaDownloadManager";
+
+    public enum Priority {
+        PHOTO, VIDEO
+    }
+
+    public interface Listener {
+        /**
+         * @param sha256 of the file as written, in hex, or null if it was on the phone already
+         */
+        void onFileDone(MediaFile file, File saved, String sha256);
+
+        /**
+         * The file was given up on; its partial download is kept for next time.
+         */
+        void onFileFailed(MediaFile file, String reason);
+
+        /**
+         * @param total   bytes in every file queued since the last time the queue drained
+         * @param current bytes of them on the phone
+         */
+        void onRateUpdate(long total, long current, long bytesPerSecond);
+
+        void onQueueDrained();
+    }
+
+    private static final String PART_SUFFIX = ".part";
+    private static final int  MAX_ATTEMPTS      = 5;
+    private static final long RETRY_BASE_MS     = 2000;
+    // Clean downloads in a row before trying one more at once
+    private static final int  RAISE_AFTER       = 3;
+    private static final long RATE_INTERVAL_MS  = 1000;
+    private static final float RATE_SMOOTHING   = 0.3f;
+
+    private final File mDir;
+    private final int mMaxConcurrent;
+    private final Listener mListener;
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor();
+    // Every file's writes, in order; the SDK's callback thread only hands data over
+    private final ExecutorService mWriter = Executors.newSingleThreadExecutor();
+
+    // Guarded by this
+    private final PriorityQueue<Task> mQueue = new PriorityQueue<>(16, new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            if (a.mPriority != b.mPriority) return a.mPriority.compareTo(b.mPriority);
+            return Long.compare(a.mSeq, b.mSeq);
+        }
+    });
+    private final List<Task> mActive = new ArrayList<>();
+    // MediaCatalog keys of the files queued, under way or waiting to be retried
+    private final Set<String> mKeys = new HashSet<>();
+    private int  mRetrying;
+    // Bumped by cancel(), so retries already scheduled come to nothing
+    private int  mGeneration;
+    private int  mLimit = 1;
+    private int  mCleanRun;
+    private long mNextSeq;
+    private long mTotalBytes;
+
+    private final AtomicLong mDoneBytes = new AtomicLong();
+    // Guarded by this
+    private long  mLastDoneBytes;
+    private float mBytesPerSecond;
+
+    public MediaDownloadManager(File dir, int maxConcurrent, Listener listener) {
+        mDir = dir;
+        mMaxConcurrent = Math.max(1, maxConcurrent);
+        mListener = listener;
+        mTimer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                reportRate();
+            }
+        }, RATE_INTERVAL_MS, RATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues a file as a photo or a video, by its type.
+     */
+    public void enqueue(MediaFile file) {
+        enqueue(file, priorityOf(file));
+    }
+
+    /**
+     * Queues a batch, so the first files fetched are the most important of all of them.
+     */
+    public void enqueue(List<MediaFile> files) {
+        synchronized (this) {
+            for (MediaFile file : files) add(file, priorityOf(file));
+        }
+        pump();
+    }
+
+    public void enqueue(MediaFile file, Priority priority) {
+        synchronized (this) {
+            add(file, priority);
+        }
+        pump();
+    }
+
+    private static Priority priorityOf(MediaFile file) {
+        MediaFile.MediaType type = file.getMediaType();
+        return type == MediaFile.MediaType.MOV || type == MediaFile.MediaType.MP4 ? Priority.VIDEO : Priority.PHOTO;
+    }
+
+    // Guarded by this; called on the caller's thread, so whether the file is here already is
+    // left to the writer thread when its turn comes
+    private void add(MediaFile file, Priority priority) {
+        if (!mKeys.add(MediaCatalog.keyOf(file))) return;
+        mQueue.add(new Task(file, priority, mNextSeq++));
+        mTotalBytes += file.getFileSize();
+    }
+
+    /**
+     * Drops everything queued and stops the downloads under way, keeping what they have fetched
+     * so far for next time.
+     */
+    public void cancel() {
+        List<Task> active;
+        synchronized (this) {
+            mGeneration++;
+            mRetrying = 0;
+            mQueue.clear();
+            mKeys.clear();
+            active = new ArrayList<>(mActive);
+            mActive.clear();
+        }
+        for (Task task : active) {
+            if (task.cancel()) task.mFile.stopFetchingFileData(null);
+        }
+        pump();
+    }
+
+    /**
+     * Cancels and stops reporting; the manager cannot be used after.
+     */
+    public void release() {
+        cancel();
+        mTimer.shutdownNow();
+        // After what is queued, so the files are cut back to what was written
+        mWriter.shutdown();
+    }
+
+    private void pump() {
+        List<Task> starting = new ArrayList<>();
+        boolean drained;
+        synchronized (this) {
+            while (mActive.size() < mLimit && !mQueue.isEmpty()) {
+                Task task = mQueue.poll();
+                mActive.add(task);
+                starting.add(task);
+            }
+            drained = mActive.isEmpty() && mQueue.isEmpty() && mRetrying == 0 && mTotalBytes > 0;
+            if (drained) {
+                mTotalBytes = 0;
+                mDoneBytes.set(0);
+                mLastDoneBytes = 0;
+                mBytesPerSecond = 0;
+            }
+        }
+        for (Task task : starting) task.start();
+        if (drained) mListener.onQueueDrained();
+    }
+
+    private void onDone(Task task, File saved, String sha256) {
+        synchronized (this) {
+            if (!mActive.remove(task)) return;
+            mKeys.remove(task.mKey);
+            // A file that was here already says nothing about the link
+            if (sha256 != null && ++mCleanRun >= RAISE_AFTER && mLimit < mMaxConcurrent) {
+                mLimit++;
+                mCleanRun = 0;
+                Log.i(TAG, "Fetching up to " + mLimit + " files at once");
+            }
+        }
+        mListener.onFileDone(task.mFile, saved, sha256);
+        pump();
+    }
+
+    private void onFailed(final Task task, String reason) {
+        boolean retry;
+        final int generation;
+        synchronized (this) {
+            generation = mGeneration;
+            if (!mActive.remove(task)) return;
+            mCleanRun = 0;
+            if (mLimit > 1) {
+                mLimit /= 2;
+                Log.i(TAG, "Fetching up to " + mLimit + " files at once");
+            }
+            retry = ++task.mAttempts < MAX_ATTEMPTS;
+            if (retry) {
+                mRetrying++;
+            } else {
+                mKeys.remove(task.mKey);
+            }
+            // What it fetched stays in the total; a retry only counts new bytes
+        }
+        Log.w(TAG, task.mFile.getFileName() + ": " + reason + (retry ? ", retrying" : ", giving up"));
+        if (retry) {
+            mTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (MediaDownloadManager.this) {
+                        if (generation != mGeneration) return;
+                        mRetrying--;
+                        mQueue.add(task);
+                    }
+                    pump();
+                }
+            }, RETRY_BASE_MS << (task.mAttempts - 1), TimeUnit.MILLISECONDS);
+        } else {
+            mListener.onFileFailed(task.mFile, reason);
+        }
+        pump();
+    }
+
+    // Timer thread
+    private void reportRate() {
+        long total;
+        long done;
+        long rate;
+        synchronized (this) {
+            if (mActive.isEmpty()) return;
+            total = mTotalBytes;
+            done = mDoneBytes.get();
+            mBytesPerSecond += RATE_SMOOTHING * ((done - mLastDoneBytes) * 1000f / RATE_INTERVAL_MS - mBytesPerSecond);
+            mLastDoneBytes = done;
+            rate = (long) mBytesPerSecond;
+        }
+        mListener.onRateUpdate(total, done, rate);
+    }
+
+    private final class Task implements MediaFileSink.Listener {
+        private final MediaFile mFile;
+        private final String mKey;
+        private final Priority mPriority;
+        private final long mSeq;
+        private final long mSize;
+        private final File mPart;
+        private final File mDest;
+        private int mAttempts;
+
+        // Guarded by this; mSink is null unless a download is under way, and mFetch unless the
+        // camera is sending
+        private MediaFileSink mSink;
+        private Fetch mFetch;
+        private boolean mCancelled;
+        // Of the file, how much is in mDoneBytes
+        private long mCounted;
+
+        Task(MediaFile file, Priority priority, long seq) {
+            mFile = file;
+            mKey = MediaCatalog.keyOf(file);
+            mPriority = priority;
+            mSeq = seq;
+            mSize = file.getFileSize();
+            mDest = new File(mDir, file.getFileName());
+            mPart = new File(mDir, file.getFileName() + PART_SUFFIX);
+        }
+
+        void start() {
+            mWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    open();
+                }
+            });
+        }
+
+        // Writer thread
+        private void open() {
+            synchronized (this) {
+                if (mCancelled) return;
+            }
+            if (!mDir.exists() && !mDir.mkdirs()) Log.e(TAG, "Cannot create " + mDir);
+            if (mDest.length() == mSize) {
+                Log.i(TAG, mFile.getFileName() + " is already here");
+                count(mSize);
+                onDone(this, mDest, null);
+                return;
+            }
+            synchronized (this) {
+                if (mCancelled) return;
+                mSink = new MediaFileSink(mPart, mSize, mWriter, this);
+            }
+        }
+
+        // For good: a start() still on its way to the writer comes to nothing
+        synchronized boolean cancel() {
+            mCancelled = true;
+            return end();
+        }
+
+        // Stops writing, keeping what is on disk; false if it already was stopped
+        synchronized boolean end() {
+            if (mSink == null) return false;
+            mSink.abort();
+            mSink = null;
+            mFetch = null;
+            return true;
+        }
+
+        private synchronized void count(long bytes) {
+            mDoneBytes.addAndGet(bytes - mCounted);
+            mCounted = bytes;
+        }
+
+        private void fetch(long offset) {
+            Fetch fetch;
+            synchronized (this) {
+                if (mSink == null || mFetch != null) return;
+                fetch = mFetch = new Fetch();
+            }
+            mFile.fetchFileByteData(offset, fetch);
+        }
+
+        @Override
+        public void onOpened(long offset) {
+            if (offset > 0) Log.i(TAG, mFile.getFileName() + ": resuming at " + offset + " of " + mSize);
+            count(offset);
+            fetch(offset);
+        }
+
+        @Override
+        public void onDrained() {
+            long offset;
+            synchronized (this) {
+                if (mSink == null) return;
+                offset = mSink.getAcceptedBytes();
+            }
+            fetch(offset);
+        }
+
+        @Override
+        public void onError(IOException e) {
+            if (!end()) return;
+            mFile.stopFetchingFileData(null);
+            onFailed(this, "writing failed: " + e.getMessage());
+        }
+
+        // The camera's data, from whichever fetch is current
+        private void onData(Fetch fetch, byte[] bytes, boolean isLastPack) {
+            boolean paused;
+            long accepted;
+            synchronized (this) {
+                if (fetch != mFetch) return;
+                paused = !mSink.offer(bytes);
+                // Storage is behind: the camera stops, and starts again from here once the sink
+                // has caught up
+                if (paused) mFetch = null;
+                accepted = mSink.getAcceptedBytes();
+            }
+            if (paused) {
+                mFile.stopFetchingFileData(null);
+                return;
+            }
+            count(accepted);
+            if (isLastPack) finish(fetch);
+        }
+
+        private void onFetchFailed(Fetch fetch, DJIError djiError) {
+            synchronized (this) {
+                if (fetch != mFetch) return;
+            }
+            if (end()) onFailed(this, djiError != null ? djiError.getDescription() : "fetch failed");
+        }
+
+        private void finish(Fetch fetch) {
+            MediaFileSink sink;
+            synchronized (this) {
+                if (fetch != mFetch) return;
+                sink = mSink;
+                mFetch = null;
+            }
+            sink.finish();
+        }
+
+        @Override
+        public void onFinished(long written, String sha256) {
+            synchronized (this) {
+                mSink = null;
+            }
+            if (written < mSize) {
+                onFailed(this, "ended at " + written + " of " + mSize + " bytes");
+                return;
+            }
+            if (written > mSize || !looksComplete()) {
+                // Resuming would only add to the damage; start this one over
+                mPart.delete();
+                count(0);
+                onFailed(this, written > mSize ? "got " + written + " of " + mSize + " bytes" : "truncated JPEG");
+                return;
+            }
+            if (!mPart.renameTo(mDest)) {
+                onFailed(this, "cannot rename " + mPart);
+                return;
+            }
+            Log.i(TAG, mFile.getFileName() + ": SHA-256 " + sha256);
+            onDone(this, mDest, sha256);
+        }
+
+        // The camera gives no checksum; a JPEG at least has to end with its EOI marker
+        private boolean looksComplete() {
+            String name = mDest.getName().toLowerCase();
+            if (!name.endsWith(".jpg") && !name.endsWith(".jpeg")) return true;
+            try (RandomAccessFile in = new RandomAccessFile(mPart, "r")) {
+                in.seek(mSize - 2);
+                return in.read() == 0xFF && in.read() == 0xD9;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        // One call to fetchFileByteData; what a stopped one still sends is ignored
+        private final class Fetch implements DownloadListener<String> {
+            @Override
+            public void onRealtimeDataUpdate(byte[] bytes, long position, boolean isLastPack) {
+                onData(this, bytes, isLastPack);
+            }
+
+            @Override
+            public void onSuccess(String s) {
+                finish(this);
+            }
+
+            @Override
+            public void onFailure(DJIError djiError) {
+                onFetchFailed(this, djiError);
+            }
+
+            @Override
+            public void onStart() {
+            }
+
+            @Override
+            public void onRateUpdate(long total, long current, long persize) {
+            }
+
+            @Override
+            public void onProgress(long total, long current) {
+            }
+        }
+    }
+}
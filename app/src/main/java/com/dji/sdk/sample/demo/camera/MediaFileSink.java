@@ -0,0 +1,367 @@
+package com.dji.sdk.sample.demo.camera;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes a file as it streams in from the camera, without the thread that delivers the data ever
+ * waiting on storage.
+ * <p>
+ * {@link #offer} copies each chunk into a pooled direct buffer and queues it for a writer thread,
+ * which writes it through a {@link FileChannel} and adds it to a SHA-256 of the file. Space for
+ * the rest of the file is reserved up front, so a long video is written into one extent rather
+ * than grown a chunk at a time. Only so much may wait to be written: past that, {@code offer}
+ * refuses the chunk, and the sender is expected to stop and start again from
+ * {@link #getAcceptedBytes} once {@link Listener#onDrained} says there is room.
+ * <p>
+ * A file is resumed from what is already on disk. Since reserving space makes the file as long as
+ * it will be, how much of it was written is kept apart in a small {@code .len} file beside it,
+ * synced every few megabytes after the data it counts, so a file left at full length by a killed
+ * session resumes from the last checkpoint. Stopping with {@link #abort} cuts the file back to
+ * what was written, so it can be resumed from there.
+ */
+public class MediaFileSink {
+    private static final String TAG = "MediaFileSink";
+
+    /**
+     * Called on the writer thread.
+     */
+    public interface Listener {
+        /**
+         * Opened; data is wanted from {@code offset} on.
+         */
+        void onOpened(long offset);
+
+        /**
+         * There is room again after {@link #offer} refused a chunk.
+         */
+        void onDrained();
+
+        /**
+         * Everything offered is on disk and the file is closed.
+         */
+        void onFinished(long size, String sha256);
+
+        /**
+         * The file could not be written; it is closed, and what made it to disk is kept.
+         */
+        void onError(IOException e);
+    }
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Bytes that may wait for the writer before offer() refuses more
+    private static final int MAX_QUEUED  = 32 * BUFFER_SIZE;
+    private static final int MAX_POOLED  = 64;
+    // Written bytes between syncs of the length file; at most this much is fetched again after a kill
+    private static final long CHECKPOINT_BYTES = 8L << 20;
+    private static final String LENGTH_SUFFIX = ".len";
+    private static final Queue<ByteBuffer> FREE_BUFFERS = new ConcurrentLinkedQueue<>();
+
+    private final File mFile;
+    private final File mLengthFile;
+    private final long mSize;
+    private final Executor mWriter;
+    private final Listener mListener;
+
+    // Writer thread
+    private RandomAccessFile mOut;
+    private FileChannel mChannel;
+    private MessageDigest mDigest;
+    private boolean mOpened;
+    private long mCheckpointed;
+    private volatile long mWritten;
+
+    // Guarded by this
+    private long mAccepted;
+    private long mQueued;
+    private boolean mStarved;
+    private boolean mClosed;
+    private boolean mFailed;
+
+    /**
+     * Opens the file on the writer thread; {@link Listener#onOpened} follows.
+     *
+     * @param size   how long the file will be
+     * @param writer runs one task at a time, in order; may be shared by several sinks
+     */
+    public MediaFileSink(File file, long size, Executor writer, Listener listener) {
+        mFile = file;
+        mLengthFile = new File(file.getPath() + LENGTH_SUFFIX);
+        mSize = size;
+        mWriter = writer;
+        mListener = listener;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                open();
+            }
+        });
+    }
+
+    /**
+     * Takes a chunk to write after everything before it. Does not block.
+     *
+     * @return false if too much is waiting to be written already, or the sink is closed
+     */
+    public boolean offer(byte[] bytes) {
+        synchronized (this) {
+            if (mClosed || mFailed) return false;
+            // A chunk bigger than the limit has to go through on its own
+            if (mQueued > 0 && mQueued + bytes.length > MAX_QUEUED) {
+                mStarved = true;
+                return false;
+            }
+            mQueued += bytes.length;
+            mAccepted += bytes.length;
+        }
+        final List<ByteBuffer> buffers = new ArrayList<>(bytes.length / BUFFER_SIZE + 1);
+        for (int offset = 0; offset < bytes.length; offset += BUFFER_SIZE) {
+            ByteBuffer buffer = takeBuffer();
+            buffer.clear();
+            buffer.put(bytes, offset, Math.min(BUFFER_SIZE, bytes.length - offset));
+            buffer.flip();
+            buffers.add(buffer);
+        }
+        final int length = bytes.length;
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(buffers, length);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Bytes offered so far, counting what was on disk already: where the data should carry on
+     * from.
+     */
+    public synchronized long getAcceptedBytes() {
+        return mAccepted;
+    }
+
+    /**
+     * Bytes at the start of the file that are on disk, and can be read while the rest arrives.
+     */
+    public long getWrittenBytes() {
+        return mWritten;
+    }
+
+    /**
+     * Writes what is left, syncs and closes the file; {@link Listener#onFinished} follows.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (failed()) return;
+                try {
+                    mChannel.force(false);
+                    mChannel.truncate(mWritten);
+                    mOut.close();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                // The file is as long as what was written again
+                mLengthFile.delete();
+                mListener.onFinished(mWritten, toHex(mDigest.digest()));
+            }
+        });
+    }
+
+    /**
+     * Drops what has not been written and closes the file at what has, with no further calls to
+     * the listener.
+     */
+    public void abort() {
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            mFailed = true;
+        }
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+    }
+
+    // Writer thread
+    private void open() {
+        if (failed()) return;
+        try {
+            mDigest = MessageDigest.getInstance("SHA-256");
+            mOut = new RandomAccessFile(mFile, "rw");
+            mChannel = mOut.getChannel();
+            long offset = resumeOffset(mChannel.size());
+            mChannel.truncate(offset);
+            if (offset > 0) hashExisting(offset);
+            // On disk before the file is made longer than what is written
+            writeLength(offset);
+            mCheckpointed = offset;
+            if (mSize > offset) {
+                try {
+                    Os.posix_fallocate(mOut.getFD(), offset, mSize - offset);
+                } catch (ErrnoException e) {
+                    // Not every file system can; the file just grows as it is written
+                    Log.i(TAG, "Cannot reserve space for " + mFile + ": " + e.getMessage());
+                }
+            }
+            mWritten = offset;
+            mOpened = true;
+            synchronized (this) {
+                mAccepted = offset;
+            }
+        } catch (IOException | NoSuchAlgorithmException e) {
+            fail(e instanceof IOException ? (IOException) e : new IOException(e));
+            return;
+        }
+        mListener.onOpened(mWritten);
+    }
+
+    // Writer thread
+    private long resumeOffset(long size) throws IOException {
+        long written = readLength();
+        if (written >= 0) return Math.min(written, size);
+        // Never reserved, so all of it was written, unless it is somehow too long to be this file
+        return size < mSize ? size : 0;
+    }
+
+    // Writer thread; -1 if there is no usable length file
+    private long readLength() {
+        if (!mLengthFile.isFile()) return -1;
+        try (RandomAccessFile in = new RandomAccessFile(mLengthFile, "r")) {
+            return in.length() >= 8 ? Math.max(-1, in.readLong()) : -1;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + mLengthFile, e);
+            return -1;
+        }
+    }
+
+    // Writer thread; eight bytes rewritten in place, so a kill leaves the old or the new value
+    private void writeLength(long length) throws IOException {
+        try (RandomAccessFile out = new RandomAccessFile(mLengthFile, "rw")) {
+            out.writeLong(length);
+            out.getFD().sync();
+        }
+    }
+
+    // Writer thread; the data first, so the length file never counts bytes that are not there
+    private void checkpoint() throws IOException {
+        mChannel.force(false);
+        writeLength(mWritten);
+        mCheckpointed = mWritten;
+    }
+
+    // Writer thread; a resumed file's hash has to cover what is there already
+    private void hashExisting(long length) throws IOException {
+        ByteBuffer buffer = takeBuffer();
+        try {
+            for (long position = 0; position < length; ) {
+                buffer.clear();
+                if (length - position < buffer.capacity()) buffer.limit((int) (length - position));
+                int read = mChannel.read(buffer, position);
+                if (read < 0) throw new IOException(mFile + " ended at " + position);
+                buffer.flip();
+                mDigest.update(buffer);
+                position += read;
+            }
+        } finally {
+            giveBuffer(buffer);
+        }
+    }
+
+    // Writer thread
+    private void write(List<ByteBuffer> buffers, int length) {
+        try {
+            if (failed()) return;
+            for (ByteBuffer buffer : buffers) {
+                int start = buffer.position();
+                while (buffer.hasRemaining()) {
+                    mWritten += mChannel.write(buffer, mWritten);
+                }
+                buffer.position(start);
+                mDigest.update(buffer);
+            }
+            if (mWritten - mCheckpointed >= CHECKPOINT_BYTES) checkpoint();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        } finally {
+            for (ByteBuffer buffer : buffers) giveBuffer(buffer);
+        }
+        boolean drained;
+        synchronized (this) {
+            mQueued -= length;
+            drained = mStarved && mQueued <= MAX_QUEUED / 2 && !mFailed;
+            if (drained) mStarved = false;
+        }
+        if (drained) mListener.onDrained();
+    }
+
+    // Writer thread
+    private synchronized boolean failed() {
+        return mFailed;
+    }
+
+    // Writer thread
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (mFailed) return;
+            mFailed = true;
+            mClosed = true;
+        }
+        close();
+        mListener.onError(e);
+    }
+
+    // Writer thread; what was reserved but not written is given back
+    private void close() {
+        if (mOut == null) return;
+        try {
+            // Left alone if it failed to open, so what was there survives
+            if (mOpened) mChannel.truncate(mWritten);
+            mOut.close();
+            // Cut back to what was written, the file's length says it all
+            if (mOpened) mLengthFile.delete();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing " + mFile + " failed", e);
+        }
+        mOut = null;
+    }
+
+    private static ByteBuffer takeBuffer() {
+        ByteBuffer buffer = FREE_BUFFERS.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void giveBuffer(ByteBuffer buffer) {
+        if (FREE_BUFFERS.size() < MAX_POOLED) FREE_BUFFERS.offer(buffer);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
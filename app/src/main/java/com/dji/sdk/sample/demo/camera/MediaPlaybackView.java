@@ -38,14 +38,14 @@ import com.dji.sdk.sample.internal.view.PresentableView;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import dji.common.camera.SettingsDefinitions;
@@ -57,8 +57,6 @@ import dji.log.DJILog;
 import dji.sdk.base.BaseProduct;
 import dji.sdk.camera.Camera;
 import dji.sdk.camera.VideoFeeder;
-import dji.sdk.media.DownloadListener;
-import dji.sdk.media.FetchMediaTask;
 import dji.sdk.media.FetchMediaTaskContent;
 import dji.sdk.media.FetchMediaTaskScheduler;
 import dji.sdk.media.MediaFile;
@@ -80,7 +78,6 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
     private final int SHOW_DOWNLOAD_PROGRESS_DIALOG = 4;
     private final int HIDE_DOWNLOAD_PROGRESS_DIALOG = 5;
     private final int FETCH_FILE_LIST = 6;
-    private final int NEED_REFRESH_FILE_LIST = 7;
     public TextView tv_playbackInfo;
     public Button btnResume;
     public Button btnPause;
@@ -90,11 +87,15 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
     public Button btnDownload;
     private MediaManager mediaManager;
     private FetchMediaTaskScheduler scheduler;
-    private List<MediaFile> DJIMediaList = new ArrayList<>();
+    private List<MediaCatalog.Item> DJIMediaList = new ArrayList<>();
     private boolean isDialogAllowable = false;
     private FileListAdapter listAdapter;
     private ProgressDialog dialog;
     private ProgressDialog mDownloadDialog;
+    private MediaDownloadManager downloadManager;
+    private MediaThumbnailCache thumbnailCache;
+    private MediaCatalog mediaCatalog;
+    private LinearLayoutManager listLayoutManager;
     private Aircraft aircraft;
     private VideoFeedView mBaseCameraView;
     private ImageView mDisplayImageView;
@@ -119,9 +120,6 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
                 case FETCH_FILE_LIST:
                     getFileList();
                     break;
-                case NEED_REFRESH_FILE_LIST:
-                    listAdapter.notifyDataSetChanged();
-                    break;
                 case SHOW_DOWNLOAD_PROGRESS_DIALOG:
                     showDownloadProgressDialog();
                     break;
@@ -173,24 +171,16 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
         mDownloadDialog.setButton(DialogInterface.BUTTON_POSITIVE, "Cancel", new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialogInterface, int i) {
-                if (mediaManager != null) {
-                    mediaManager.exitMediaDownloading();
-                }
-                else
-                {
-                    mediaManager = DJISampleApplication.getAircraftInstance().getCamera().getMediaManager();
+                if (downloadManager != null) {
+                    downloadManager.cancel();
                 }
             }
         });
         mDownloadDialog.setOnCancelListener(new DialogInterface.OnCancelListener() {
             @Override
             public void onCancel(DialogInterface dialog) {
-                if (mediaManager != null) {
-                    mediaManager.exitMediaDownloading();
-                }
-                else
-                {
-                    mediaManager = DJISampleApplication.getAircraftInstance().getCamera().getMediaManager();
+                if (downloadManager != null) {
+                    downloadManager.cancel();
                 }
             }
         });
@@ -229,6 +219,7 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
 
         mediaManager = DJISampleApplication.getProductInstance().getCamera().getMediaManager();
         scheduler = mediaManager.getScheduler();
+        thumbnailCache.attach(scheduler, thumbnailListener);
 
         if (mediaManager != null) {
             mediaManager.refreshFileListOfStorageLocation(storageLocation, new CommonCallbacks.CompletionCallback() {
@@ -245,35 +236,11 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
                         {
                             medias = mediaManager.getInternalStorageFileListSnapshot();
                         }
-                        if (DJIMediaList != null) {
-                            DJIMediaList.clear();
-                        }
-                        for (MediaFile media : medias) {
-                            DJIMediaList.add(media);
-                        }
-
-                        if (DJIMediaList != null) {
-                            Collections.sort(DJIMediaList, (lhs, rhs) -> {
-                                if (lhs.getTimeCreated() < rhs.getTimeCreated()) {
-                                    return 1;
-                                } else if (lhs.getTimeCreated() > rhs.getTimeCreated()) {
-                                    return -1;
-                                }
-                                return 0;
-                            });
-                        }
-
-                        scheduler.resume(new CommonCallbacks.CompletionCallback() {
-                            @Override
-                            public void onResult(DJIError djiError) {
-                                if(djiError == null)
-                                {
-                                    getThumbanils();
-                                }
-                            }
-                        });
+                        // Sorted and diffed against the list shown, off this thread
+                        mediaCatalog.update(medias);
 
-                        handler.sendMessage(handler.obtainMessage(NEED_REFRESH_FILE_LIST, null));
+                        // Thumbnails are fetched as they scroll into view, and only if not cached
+                        scheduler.resume(null);
 
                     } else {
                         handler.sendMessage(handler.obtainMessage(SHOW_TOAST, "Refresh error:"+djiError.getDescription()));
@@ -297,6 +264,7 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
                 Camera camera = aircraft.getCamera();
                 mediaManager = camera.getMediaManager();
                 scheduler = mediaManager.getScheduler();
+                thumbnailCache.attach(scheduler, thumbnailListener);
 
                 mBaseCameraView.registerLiveVideo(VideoFeeder.getInstance().getPrimaryVideoFeed(),true);
 
@@ -363,10 +331,15 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
         layoutInflater.inflate(R.layout.media_playback, this, true);
 
         RecyclerView listView = (RecyclerView) findViewById(R.id.filelistView);
-        LinearLayoutManager layoutManager = new LinearLayoutManager(context, RecyclerView.VERTICAL,false);
+        listLayoutManager = new LinearLayoutManager(context, RecyclerView.VERTICAL,false);
         listAdapter = new FileListAdapter();
         listView.setAdapter(listAdapter);
-        listView.setLayoutManager(layoutManager);
+        listView.setLayoutManager(listLayoutManager);
+        listView.addOnScrollListener(prefetchListener);
+        thumbnailCache = MediaThumbnailCache.getInstance(context);
+        // Shown from the phone at once; the camera's list replaces it when it comes
+        mediaCatalog = new MediaCatalog(MediaCatalogStore.getInstance(context), catalogListener);
+        mediaCatalog.load();
 
         createProgressDialog();
 
@@ -451,15 +424,11 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
             case R.id.btnDelete:
                 if (selected != null &&!selected.isEmpty()) {
 
-                    Iterator iterator = selected.iterator();
-                    List<MediaFile> mediaFiles = new ArrayList<>();
-                    while (iterator.hasNext())
-                    {
-                        Integer index = (Integer) iterator.next();
-                        mediaFiles.add(DJIMediaList.get(index));
-                        iterator.remove();
+                    List<MediaFile> mediaFiles = getSelectedFiles();
+                    if (mediaFiles == null) {
+                        break;
                     }
-
+                    selected.clear();
                     deleteFiles(mediaFiles);
                 }
                 else
@@ -470,12 +439,9 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
             case R.id.btnDownload:
                 if(selected != null &&!selected.isEmpty())
                 {
-                    Iterator iterator = selected.iterator();
-                    if(iterator.hasNext())
-                    {
-                        int index = (Integer) iterator.next();
-                        downloadFiles(iterator,index);
-
+                    List<MediaFile> mediaFiles = getSelectedFiles();
+                    if (mediaFiles != null) {
+                        downloadFiles(mediaFiles);
                     }
                 }
                 else
@@ -488,44 +454,84 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
         }
     }
 
-    private FetchMediaTask.Callback taskCallback = new FetchMediaTask.Callback() {
-        @Override
-        public void onUpdate(MediaFile file, FetchMediaTaskContent option, DJIError error) {
-            if (null == error) {
+    // The camera's files for the selected rows, or null if some are only known from the phone
+    private List<MediaFile> getSelectedFiles() {
+        List<MediaFile> mediaFiles = new ArrayList<>();
+        for (Object index : selected) {
+            MediaFile mediaFile = DJIMediaList.get((Integer) index).getFile();
+            if (mediaFile == null) {
+                handler.sendMessage(handler.obtainMessage(SHOW_TOAST, "The camera has not listed all selected files yet."));
+                return null;
+            }
+            mediaFiles.add(mediaFile);
+        }
+        return mediaFiles;
+    }
 
-                //fetch perview
-                if (option == FetchMediaTaskContent.PREVIEW) {
-                    if (file.getPreview() == null) {
-                        file.fetchPreview(null);
-                    }
-                    if(file.getPreview() != null)
-                    {
-                        handler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                final Bitmap previewBitmap = file.getPreview();
-                                mDisplayImageView.setImageBitmap(previewBitmap);
-                            }
-                        });
-                    }
-                    else {
-                        handler.sendMessage(handler.obtainMessage(SHOW_TOAST,"bitmap is null"));
-                    }
+    private MediaThumbnailCache.Listener thumbnailListener = new MediaThumbnailCache.Listener() {
+        @Override
+        public void onLoaded(String fileKey, MediaFile file, FetchMediaTaskContent content, Bitmap bitmap) {
+            if (content == FetchMediaTaskContent.PREVIEW) {
+                MediaCatalog.Item shown = (MediaCatalog.Item) mDisplayImageView.getTag();
+                if (shown != null && shown.getKey().equals(fileKey)) {
+                    mDisplayImageView.setImageBitmap(bitmap);
                 }
-
-                //fetch thumbnail
-                if (option == FetchMediaTaskContent.THUMBNAIL) {
-                    if(file.getThumbnail() == null)
-                        file.fetchThumbnail(null);
+                return;
+            }
+            // Rows off screen pick the thumbnail up from the cache when bound
+            int first = Math.max(0, listLayoutManager.findFirstVisibleItemPosition());
+            int last = Math.min(DJIMediaList.size() - 1, listLayoutManager.findLastVisibleItemPosition());
+            for (int index = first; index <= last; index++) {
+                if (DJIMediaList.get(index).getKey().equals(fileKey)) {
+                    listAdapter.notifyItemChanged(index);
+                    break;
                 }
+            }
+        }
+    };
 
-                handler.sendMessage(handler.obtainMessage(NEED_REFRESH_FILE_LIST, null));
+    private MediaCatalog.Listener catalogListener = new MediaCatalog.Listener() {
+        @Override
+        public void onCatalogChanged(List<MediaCatalog.Item> items, DiffUtil.DiffResult diff, List<MediaFile> added) {
+            int oldSize = DJIMediaList.size();
+            DJIMediaList = items;
+            if (diff == null) {
+                listAdapter.notifyItemRangeInserted(oldSize, items.size() - oldSize);
             } else {
-                DJILog.e(TAG, "Fetch Media Task Failed" + error.getDescription());
+                // The selection follows its files to wherever they are now
+                Set moved = new HashSet();
+                for (Object index : selected) {
+                    int position = diff.convertOldPositionToNew((Integer) index);
+                    if (position != RecyclerView.NO_POSITION) {
+                        moved.add(position);
+                    }
+                }
+                selected = moved;
+                diff.dispatchUpdatesTo(listAdapter);
             }
+            sendSelectedToText();
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    updateVisibleRange();
+                }
+            });
         }
     };
 
+    private RecyclerView.OnScrollListener prefetchListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+            super.onScrolled(recyclerView, dx, dy);
+            updateVisibleRange();
+        }
+    };
+
+    private void updateVisibleRange() {
+        thumbnailCache.setVisibleItems(DJIMediaList, listLayoutManager.findFirstVisibleItemPosition(),
+                                       listLayoutManager.findLastVisibleItemPosition());
+    }
+
     private RecyclerView.OnScrollListener scrollListener =  new RecyclerView.OnScrollListener() {
         @Override
         public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
@@ -546,76 +552,43 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
         mSelectedNumber.setText("selected:"+String.valueOf(selected.size()));
     }
 
-    private void getThumbanils()
+    private void downloadFiles(List<MediaFile> mediaFiles)
     {
-        if(DJIMediaList!=null)
-        {
-            for (MediaFile item:DJIMediaList) {
-                FetchMediaTask task = new FetchMediaTask(item, FetchMediaTaskContent.THUMBNAIL, taskCallback);
-                scheduler.moveTaskToNext(task);
-            }
-        }
-        else
-        {
-            handler.sendMessage(handler.obtainMessage(SHOW_TOAST,"GET THUMBANIL FAIL"));
-        }
-    }
-
-    private void downloadFiles(Iterator iterator,int index)
-    {
-        if((DJIMediaList.get(index).getMediaType() == MediaFile.MediaType.SHALLOW_FOCUS) && (DJIMediaList.get(index).getMediaType() == MediaFile.MediaType.PANORAMA))
-        {
-            handler.sendMessage(handler.obtainMessage(SHOW_TOAST,"MediaFile.MediaType.SHALLOW_FOCUS or MediaFile.MediaType.PANORAMA"));
-        }
-        else
-        {
-            if(!path.exists())
-            {
-                path.mkdirs();
-            }
-
-            DJIMediaList.get(index).fetchFileData(path, null, new DownloadListener<String>() {
+        if (downloadManager == null) {
+            downloadManager = new MediaDownloadManager(path, 2, new MediaDownloadManager.Listener() {
                 @Override
-                public void onStart() {
-                    handler.sendMessage(handler.obtainMessage(SHOW_DOWNLOAD_PROGRESS_DIALOG,null));
+                public void onFileDone(MediaFile file, File saved, String sha256) {
+                    Log.d(TAG, "Downloaded " + saved);
+                    mediaCatalog.setDownloaded(file, saved);
                 }
 
                 @Override
-                public void onRateUpdate(long total, long current, long l2) {
-                    int tmpProgress = (int) (1.0 * current / total * 100);
-                    mDownloadDialog.setProgress(tmpProgress);
+                public void onFileFailed(MediaFile file, String reason) {
+                    handler.sendMessage(handler.obtainMessage(SHOW_TOAST, file.getFileName() + ": " + reason));
                 }
 
                 @Override
-                public void onRealtimeDataUpdate(byte[] bytes, long l, boolean b) {
-
-                }
-
-                @Override
-                public void onProgress(long l, long l1) {
-
-                }
-
-                @Override
-                public void onSuccess(String s) {
-                    if(iterator.hasNext())
-                    {
-                        int view = (int)iterator.next();
-                        downloadFiles(iterator,view);
-                    }
-                    else
-                    {
-                        handler.sendMessage(handler.obtainMessage(HIDE_DOWNLOAD_PROGRESS_DIALOG,null));
-                    }
+                public void onRateUpdate(long total, long current, long bytesPerSecond) {
+                    final int progress = total > 0 ? (int) (100 * current / total) : 0;
+                    final String message = String.format(Locale.US, "%.1f of %.1f MB, %.1f MB/s",
+                                                         current / 1e6, total / 1e6, bytesPerSecond / 1e6);
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mDownloadDialog.setProgress(progress);
+                            mDownloadDialog.setMessage(message);
+                        }
+                    });
                 }
 
                 @Override
-                public void onFailure(DJIError djiError) {
-                    handler.sendMessage(handler.obtainMessage(HIDE_DOWNLOAD_PROGRESS_DIALOG,null));
-                    handler.sendMessage(handler.obtainMessage(SHOW_TOAST,djiError.getDescription()));
+                public void onQueueDrained() {
+                    handler.sendMessage(handler.obtainMessage(HIDE_DOWNLOAD_PROGRESS_DIALOG, null));
                 }
             });
         }
+        handler.sendMessage(handler.obtainMessage(SHOW_DOWNLOAD_PROGRESS_DIALOG, null));
+        downloadManager.enqueue(mediaFiles);
     }
 
     private void deleteFiles(List<MediaFile> mediaFiles){
@@ -629,8 +602,7 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
                     handler.post(new Runnable() {
                         @Override
                         public void run() {
-                            DJIMediaList.removeAll(mediaFiles);
-                            handler.sendMessage(handler.obtainMessage(NEED_REFRESH_FILE_LIST, null));
+                            mediaCatalog.remove(mediaFiles);
                             handler.sendMessage(handler.obtainMessage(HIDE_PROGRESS_DIALOG,null));
                             sendSelectedToText();
                         }
@@ -709,9 +681,11 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
             }
         }
 
-        if (DJIMediaList != null) {
-            DJIMediaList.clear();
+        if (downloadManager != null) {
+            downloadManager.release();
+            downloadManager = null;
         }
+        thumbnailCache.detach();
         if(selected != null &&!selected.isEmpty())
         {
             selected.clear();
@@ -806,9 +780,9 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
         @Override
         public void onBindViewHolder(ItemHolder mItemHolder, int index) {
 
-            final MediaFile mediaFile = DJIMediaList.get(index);
+            final MediaCatalog.Item mediaFile = DJIMediaList.get(index);
             if (mediaFile != null) {
-                if (mediaFile.getMediaType() != MediaFile.MediaType.MOV && mediaFile.getMediaType() != MediaFile.MediaType.MP4) {
+                if (!mediaFile.isVideo()) {
                     mItemHolder.file_time.setVisibility(View.GONE);
                     mItemHolder.btnPlayVideo.setVisibility(View.GONE);
                 } else {
@@ -818,9 +792,9 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
                 }
                 mItemHolder.btnPlayVideo.setTag(index);
                 mItemHolder.file_name.setText(mediaFile.getFileName());
-                mItemHolder.file_type.setText(mediaFile.getMediaType().name());
+                mItemHolder.file_type.setText(mediaFile.getType());
                 mItemHolder.file_size.setText(mediaFile.getFileSize() + " Bytes");
-                mItemHolder.thumbnail_img.setImageBitmap(mediaFile.getThumbnail());
+                mItemHolder.thumbnail_img.setImageBitmap(thumbnailCache.get(mediaFile.getKey(), FetchMediaTaskContent.THUMBNAIL));
                 mItemHolder.thumbnail_img.setOnClickListener(ImgOnClickListener);
                 mItemHolder.thumbnail_img.setTag(mediaFile);
                 mItemHolder.itemView.setTag(index);
@@ -865,7 +839,12 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
             mBaseCameraView.setVisibility(View.VISIBLE);
 
             int i = (Integer) (v.getTag());
-            mediaManager.playVideoMediaFile(DJIMediaList.get(i), new CommonCallbacks.CompletionCallback() {
+            MediaFile mediaFile = DJIMediaList.get(i).getFile();
+            if (mediaFile == null) {
+                handler.sendMessage(handler.obtainMessage(SHOW_TOAST, "The camera has not listed this file yet."));
+                return;
+            }
+            mediaManager.playVideoMediaFile(mediaFile, new CommonCallbacks.CompletionCallback() {
                 @Override
                 public void onResult(DJIError djiError) {
                     if (null != djiError) {
@@ -883,7 +862,7 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
     private View.OnClickListener ImgOnClickListener = new View.OnClickListener() {
         @Override
         public void onClick(View v) {
-            MediaFile selectedMedia = (MediaFile) v.getTag();
+            MediaCatalog.Item selectedMedia = (MediaCatalog.Item) v.getTag();
             if (selectedMedia != null && DJIMediaList != null) {
 
                 mDisplayImageView.setVisibility(View.VISIBLE);
@@ -895,12 +874,10 @@ public class MediaPlaybackView extends LinearLayout implements PresentableView,V
     };
 
 
-    private void addMediaTask(final MediaFile mediaFile) {
-        mediaManager = DJISampleApplication.getProductInstance().getCamera().getMediaManager();
-        scheduler = mediaManager.getScheduler();
-        final FetchMediaTask task =
-                new FetchMediaTask(mediaFile, FetchMediaTaskContent.PREVIEW, taskCallback);
-        scheduler.moveTaskToNext(task);
+    private void addMediaTask(final MediaCatalog.Item mediaFile) {
+        mDisplayImageView.setTag(mediaFile);
+        mDisplayImageView.setImageBitmap(thumbnailCache.get(mediaFile.getKey(), FetchMediaTaskContent.PREVIEW));
+        thumbnailCache.request(mediaFile, FetchMediaTaskContent.PREVIEW, true);
     }
 }
 
@@ -0,0 +1,328 @@
+package com.dji.sdk.sample.demo.camera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import dji.common.error.DJIError;
+import dji.sdk.media.FetchMediaTask;
+import dji.sdk.media.FetchMediaTaskContent;
+import dji.sdk.media.FetchMediaTaskScheduler;
+import dji.sdk.media.MediaFile;
+
+/**
+ * Thumbnails and previews of the camera's media files, kept so the gallery does not fetch them
+ * over the link again: in memory, in an LRU sized in bytes, and on disk in the app's cache
+ * directory. A {@link MediaFile} is a new object after every file list refresh, so entries are
+ * keyed by what identifies the file on the card: its name, creation time and size.
+ * <p>
+ * A list asks for what it shows with {@link #get} and {@link #request}, and reports its scroll
+ * position with {@link #setVisibleRange}: thumbnails a screen ahead are fetched in the background
+ * and the ones scrolled out of reach are taken back off the fetch queue. A list of
+ * {@link MediaCatalog.Item}s works the same way, except that items without a camera file are only
+ * looked up on disk. Shared by the gallery views; all methods are for the main thread, as are the
+ * {@link Listener} calls.
+ */
+public class MediaThumbnailCache {
+    private static final String TAG = "MediaThumbnailCache";
+
+    public interface Listener {
+        /**
+         * @param fileKey the file's {@link MediaCatalog#keyOf key}
+         * @param file    null if it was asked for by a {@link MediaCatalog.Item} the camera has not
+         *                listed
+         */
+        void onLoaded(String fileKey, MediaFile file, FetchMediaTaskContent content, Bitmap bitmap);
+    }
+
+    private static final long MAX_DISK_BYTES = 48L << 20;
+    private static final int  JPEG_QUALITY   = 85;
+    // Writes between checks of the disk size
+    private static final int  TRIM_EVERY     = 32;
+
+    private static MediaThumbnailCache instance;
+
+    private final LruCache<String, Bitmap> mMemory;
+    private final File mDir;
+    private final ExecutorService mDisk = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Request> mPending = new HashMap<>();
+    private FetchMediaTaskScheduler mScheduler;
+    private Listener mListener;
+    private int mLastFirst;
+    private int mWrites;
+
+    public static synchronized MediaThumbnailCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new MediaThumbnailCache(new File(context.getApplicationContext().getCacheDir(), "media_thumbnails"));
+        }
+        return instance;
+    }
+
+    private MediaThumbnailCache(File dir) {
+        mDir = dir;
+        if (!dir.exists() && !dir.mkdirs()) Log.e(TAG, "Cannot create " + dir);
+        mMemory = new LruCache<String, Bitmap>((int) Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * Starts fetching misses through a camera's scheduler, reporting to a listener.
+     */
+    public void attach(FetchMediaTaskScheduler scheduler, Listener listener) {
+        mScheduler = scheduler;
+        mListener = listener;
+    }
+
+    /**
+     * Stops fetching; what has been fetched stays cached.
+     */
+    public void detach() {
+        for (Request request : mPending.values()) cancel(request);
+        mPending.clear();
+        mScheduler = null;
+        mListener = null;
+    }
+
+    /**
+     * The bitmap if it is in memory, else null; see {@link #request}.
+     */
+    public Bitmap get(MediaFile file, FetchMediaTaskContent content) {
+        return get(MediaCatalog.keyOf(file), content);
+    }
+
+    public Bitmap get(String fileKey, FetchMediaTaskContent content) {
+        return mMemory.get(key(fileKey, content));
+    }
+
+    /**
+     * Loads a bitmap from disk or the camera unless it is on its way already, and hands it to
+     * the listener.
+     *
+     * @param urgent on screen now, so ahead of anything prefetched
+     */
+    public void request(MediaFile file, FetchMediaTaskContent content, boolean urgent) {
+        request(MediaCatalog.keyOf(file), file, content, urgent);
+    }
+
+    /**
+     * As {@link #request(MediaFile, FetchMediaTaskContent, boolean)}; from disk only until the
+     * camera has listed the item.
+     */
+    public void request(MediaCatalog.Item item, FetchMediaTaskContent content, boolean urgent) {
+        request(item.getKey(), item.getFile(), content, urgent);
+    }
+
+    private void request(String fileKey, MediaFile file, final FetchMediaTaskContent content, final boolean urgent) {
+        final String key = key(fileKey, content);
+        if (mMemory.get(key) != null || mPending.containsKey(key)) return;
+        final Request request = new Request(fileKey, file, content);
+        mPending.put(key, request);
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = readDisk(key);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPending.get(key) != request) return;
+                        if (bitmap != null) {
+                            loaded(key, request, bitmap);
+                        } else if (mScheduler != null && request.mFile != null) {
+                            fetch(key, request, urgent);
+                        } else {
+                            mPending.remove(key);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Where a list of files is scrolled to: what is shown is requested first, then the next
+     * screenful in the direction of scrolling; thumbnail requests for anything else are dropped.
+     */
+    public void setVisibleRange(List<MediaFile> files, int first, int last) {
+        setVisible(files, first, last);
+    }
+
+    public void setVisibleItems(List<MediaCatalog.Item> items, int first, int last) {
+        setVisible(items, first, last);
+    }
+
+    // Of MediaFiles or Items
+    private void setVisible(List<?> files, int first, int last) {
+        if (first < 0 || last < first || files.isEmpty()) return;
+        last = Math.min(last, files.size() - 1);
+        int screen = last - first + 1;
+        int from = first;
+        int to = last;
+        if (first >= mLastFirst) {
+            to = Math.min(files.size() - 1, last + screen);
+        } else {
+            from = Math.max(0, first - screen);
+        }
+        mLastFirst = first;
+
+        Set<String> wanted = new HashSet<>();
+        for (int i = from; i <= to; i++) wanted.add(key(fileKeyOf(files.get(i)), FetchMediaTaskContent.THUMBNAIL));
+        Iterator<Map.Entry<String, Request>> it = mPending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Request> entry = it.next();
+            Request request = entry.getValue();
+            if (request.mContent == FetchMediaTaskContent.THUMBNAIL && !wanted.contains(entry.getKey())) {
+                cancel(request);
+                it.remove();
+            }
+        }
+        for (int i = first; i <= last; i++) requestThumbnail(files.get(i), true);
+        for (int i = from; i <= to; i++) {
+            if (i < first || i > last) requestThumbnail(files.get(i), false);
+        }
+    }
+
+    private void requestThumbnail(Object entry, boolean urgent) {
+        if (entry instanceof MediaFile) {
+            request((MediaFile) entry, FetchMediaTaskContent.THUMBNAIL, urgent);
+        } else {
+            request((MediaCatalog.Item) entry, FetchMediaTaskContent.THUMBNAIL, urgent);
+        }
+    }
+
+    private static String fileKeyOf(Object entry) {
+        return entry instanceof MediaFile ? MediaCatalog.keyOf((MediaFile) entry) : ((MediaCatalog.Item) entry).getKey();
+    }
+
+    private void fetch(final String key, final Request request, boolean urgent) {
+        request.mTask = new FetchMediaTask(request.mFile, request.mContent, new FetchMediaTask.Callback() {
+            @Override
+            public void onUpdate(MediaFile file, FetchMediaTaskContent content, DJIError error) {
+                final Bitmap bitmap = error == null
+                                      ? content == FetchMediaTaskContent.PREVIEW ? file.getPreview() : file.getThumbnail()
+                                      : null;
+                if (error != null) Log.w(TAG, "Fetching " + key + " failed: " + error.getDescription());
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPending.get(key) != request) return;
+                        if (bitmap == null) {
+                            mPending.remove(key);
+                            return;
+                        }
+                        loaded(key, request, bitmap);
+                        writeDisk(key, bitmap);
+                    }
+                });
+            }
+        });
+        if (urgent) {
+            mScheduler.moveTaskToNext(request.mTask);
+        } else {
+            mScheduler.moveTaskToEnd(request.mTask);
+        }
+    }
+
+    private void loaded(String key, Request request, Bitmap bitmap) {
+        mPending.remove(key);
+        mMemory.put(key, bitmap);
+        if (mListener != null) mListener.onLoaded(request.mFileKey, request.mFile, request.mContent, bitmap);
+    }
+
+    private void cancel(Request request) {
+        if (request.mTask != null && mScheduler != null) mScheduler.removeTask(request.mTask);
+    }
+
+    // Disk thread
+    private Bitmap readDisk(String key) {
+        File file = new File(mDir, key);
+        if (!file.exists()) return null;
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            file.delete();
+        } else {
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return bitmap;
+    }
+
+    private void writeDisk(final String key, final Bitmap bitmap) {
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                File file = new File(mDir, key);
+                File temp = new File(mDir, key + ".tmp");
+                try (FileOutputStream out = new FileOutputStream(temp)) {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+                } catch (IOException e) {
+                    Log.w(TAG, "Caching " + key + " failed", e);
+                    temp.delete();
+                    return;
+                }
+                if (!temp.renameTo(file)) temp.delete();
+                if (++mWrites % TRIM_EVERY == 0) trimDisk();
+            }
+        });
+    }
+
+    // Disk thread; least recently used first
+    private void trimDisk() {
+        File[] files = mDir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) total += file.length();
+        if (total <= MAX_DISK_BYTES) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES * 3 / 4) break;
+            total -= file.length();
+            file.delete();
+        }
+    }
+
+    // The file's identity on the card; also the disk cache file name
+    static String key(String fileKey, FetchMediaTaskContent content) {
+        String name = fileKey + "_" + content.name();
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private static final class Request {
+        final String mFileKey;
+        final MediaFile mFile;
+        final FetchMediaTaskContent mContent;
+        FetchMediaTask mTask;
+
+        Request(String fileKey, MediaFile file, FetchMediaTaskContent content) {
+            mFileKey = fileKey;
+            mFile = file;
+            mContent = content;
+        }
+    }
+}
@@ -10,6 +10,8 @@ import android.view.View;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 
+import androidx.recyclerview.widget.DiffUtil;
+
 import com.davemorrissey.labs.subscaleview.SubsamplingScaleImageView;
 import com.dji.sdk.sample.R;
 import com.dji.sdk.sample.internal.controller.DJISampleApplication;
@@ -171,19 +173,26 @@ public class ShootSuperResolutionPhotoView extends BaseThreeBtnView implements S
         if (mediaManager != null) {
             mediaManager.refreshFileListOfStorageLocation(SettingsDefinitions.StorageLocation.SDCARD, djiError -> {
                 if (djiError == null) {
-                    List<MediaFile> medias = mediaManager.getSDCardFileListSnapshot();
-                    for (MediaFile mediaFile : medias) {
-                        if (mediaFile.getMediaType() == MediaFile.MediaType.PHOTO_FOLDER) {
-                            initGroupMedia(mediaFile);
-                            break;
-                        }
-                    }
+                    mediaCatalog.update(mediaManager.getSDCardFileListSnapshot());
                 }
             });
         }
 
     }
 
+    // Only the files new since the last refresh are looked through, newest first
+    private MediaCatalog mediaCatalog = new MediaCatalog(new MediaCatalog.Listener() {
+        @Override
+        public void onCatalogChanged(List<MediaCatalog.Item> items, DiffUtil.DiffResult diff, List<MediaFile> added) {
+            for (MediaFile mediaFile : added) {
+                if (mediaFile.getMediaType() == MediaFile.MediaType.PHOTO_FOLDER) {
+                    initGroupMedia(mediaFile);
+                    break;
+                }
+            }
+        }
+    });
+
     private void addHyperAnalyticView() {
         LayoutInflater layoutInflater = (LayoutInflater) getContext().getSystemService(Service.LAYOUT_INFLATER_SERVICE);
         View rootview = layoutInflater.inflate(R.layout.hyperanalytic_layout, this, false);
@@ -4,16 +4,19 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.dji.sdk.sample.R;
+import com.dji.sdk.sample.demo.camera.MediaThumbnailCache;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import dji.sdk.media.FetchMediaTaskContent;
 import dji.sdk.media.MediaFile;
 
 
@@ -30,12 +33,28 @@ public class MediaFileRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.
     private int mLoadStatus = 0;
     private LayoutInflater mInflater;
     private List<MediaFile> mMediaFile = null;
+    private MediaThumbnailCache mThumbnailCache;
     private static final int TYPE_ITEM = 0;
     private static final int TYPE_FOOTER = 1;
 
     public MediaFileRecyclerAdapter(Context context) {
         this.mInflater = LayoutInflater.from(context);
         this.mMediaFile = new ArrayList<>();
+        this.mThumbnailCache = MediaThumbnailCache.getInstance(context);
+    }
+
+    public List<MediaFile> getMediaFileList() {
+        return mMediaFile;
+    }
+
+    /**
+     * Rebinds the row showing a file whose thumbnail has arrived.
+     */
+    public void onThumbnailLoaded(MediaFile file) {
+        int position = mMediaFile.indexOf(file);
+        if (position >= 0) {
+            notifyItemChanged(position);
+        }
     }
 
     public void setMediaFileList(List<MediaFile> pList) {
@@ -61,7 +80,9 @@ public class MediaFileRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.
     @Override
     public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
         if (holder instanceof ItemViewHolder) {
-            ((ItemViewHolder) holder).item_tv.setText(mMediaFile.get(position).getFileName());
+            MediaFile mediaFile = mMediaFile.get(position);
+            ((ItemViewHolder) holder).item_tv.setText(mediaFile.getFileName());
+            ((ItemViewHolder) holder).item_thumbnail.setImageBitmap(mThumbnailCache.get(mediaFile, FetchMediaTaskContent.THUMBNAIL));
             holder.itemView.setTag(position);
         } else if (holder instanceof FootViewHolder) {
             FootViewHolder footViewHolder = (FootViewHolder) holder;
@@ -101,10 +122,12 @@ public class MediaFileRecyclerAdapter extends RecyclerView.Adapter<RecyclerView.
 
     public static class ItemViewHolder extends RecyclerView.ViewHolder {
         public TextView item_tv;
+        public ImageView item_thumbnail;
 
         public ItemViewHolder(View view) {
             super(view);
             item_tv = (TextView) view.findViewById(R.id.item_tv);
+            item_thumbnail = (ImageView) view.findViewById(R.id.item_thumbnail);
         }
     }
 
@@ -0,0 +1,44 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * One small video frame on its way through {@link FrameAnalysisPipeline}: ARGB pixels, the luma
+ * derived from them, and where the drone was and where the gimbal pointed when it was taken.
+ * Frames are pooled by the pipeline and reused, so detectors must not hold on to one after
+ * {@link FrameDetector#detect} returns.
+ */
+public final class AnalysisFrame {
+    public final int width;
+    public final int height;
+    public final int[]  argb;
+    public final byte[] luma;
+
+    public long   timeMs;
+    public boolean hasPosition;
+    public double latitude;
+    public double longitude;
+    public float  altitude;
+    public float  heading;
+    public boolean hasGimbal;
+    // Degrees; pitch -90 is straight down, yaw is relative to true north
+    public float  gimbalPitch;
+    public float  gimbalYaw;
+
+    public AnalysisFrame(int width, int height) {
+        this.width  = width;
+        this.height = height;
+        argb = new int[width * height];
+        luma = new byte[width * height];
+    }
+
+    /**
+     * Fills {@link #luma} from {@link #argb} (BT.601 weights, integer only).
+     */
+    void computeLuma() {
+        int[] px = argb;
+        byte[] y = luma;
+        for (int i = 0; i < px.length; i++) {
+            int c = px[i];
+            y[i] = (byte) ((77 * ((c >> 16) & 0xFF) + 150 * ((c >> 8) & 0xFF) + 29 * (c & 0xFF)) >> 8);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns the flown track into compact chunks for the command post.
+ * <p>
+ * Every {@link #CHUNK_INTERVAL_MS} the new samples in the {@link TelemetryRing} are simplified
+ * with {@link TrackSimplifier} and handed to the listener as encoded polylines: the lat/lng
+ * path plus whole-metre altitudes and epoch seconds as delta-encoded integer streams. The last
+ * point of a chunk is repeated as the first point of the next, so chunks join up into one
+ * continuous path.
+ */
+public class BreadcrumbTrack {
+    private static final String TAG = "BreadcrumbTrack";
+
+    public static final long CHUNK_INTERVAL_MS = 30000;
+
+    // Headroom for a late drain at 10 Hz; a longer gap simply closes the chunk early
+    private static final int CHUNK_MAX_POINTS = 1024;
+
+    // Nadir footprint of a typical 84-degree DJI wide camera; a tenth of its width is tolerated
+    private static final double CAMERA_HFOV_DEG = 84;
+    private static final double TOLERANCE_FRACTION = 0.1;
+    private static final double MIN_TOLERANCE_M = 2;
+    private static final double MAX_TOLERANCE_M = 25;
+
+    public interface ChunkListener {
+        /**
+         * @param path      encoded lat/lng polyline
+         * @param altitudes encoded whole-metre altitudes, one per path point
+         * @param times     encoded epoch seconds, one per path point
+         */
+        void onChunk(int rawPoints, int keptPoints, String path, String altitudes, String times);
+    }
+
+    private final TelemetryRing mRing;
+    private final ChunkListener mListener;
+    private final TrackSimplifier mSimplifier = new TrackSimplifier(CHUNK_MAX_POINTS,
+        CAMERA_HFOV_DEG, TOLERANCE_FRACTION, MIN_TOLERANCE_M, MAX_TOLERANCE_M);
+    private final TelemetryRing.Sample mSample = new TelemetryRing.Sample();
+
+    private final double[] mLat = new double[CHUNK_MAX_POINTS];
+    private final double[] mLng = new double[CHUNK_MAX_POINTS];
+    private final float[]  mAlt = new float[CHUNK_MAX_POINTS];
+    private final long[]   mAltM = new long[CHUNK_MAX_POINTS];
+    private final long[]   mTimeS = new long[CHUNK_MAX_POINTS];
+    private final int[]    mKept = new int[CHUNK_MAX_POINTS];
+    private final StringBuilder mPath = new StringBuilder();
+    private final StringBuilder mAltitudes = new StringBuilder();
+    private final StringBuilder mTimes = new StringBuilder();
+
+    private ScheduledExecutorService mExecutor;
+    private long mCursor;
+    private int  mCount;
+
+    public BreadcrumbTrack(TelemetryRing ring, ChunkListener listener) {
+        mRing = ring;
+        mListener = listener;
+    }
+
+    public synchronized void start() {
+        if (mExecutor != null) return;
+        mCursor = mRing.published();
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, CHUNK_INTERVAL_MS, CHUNK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the timer and emits whatever has been flown since the last chunk.
+     */
+    public void stop() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+            mExecutor = null;
+        }
+        if (executor == null) return;
+        executor.shutdown();
+        drain();
+    }
+
+    private synchronized void drain() {
+        long published = mRing.published();
+        if (mCursor < mRing.oldest()) {
+            Log.w(TAG, "Track lost " + (mRing.oldest() - mCursor) + " samples");
+            mCursor = mRing.oldest();
+        }
+        for (; mCursor < published; mCursor++) {
+            if (!mRing.read(mCursor, mSample) || !hasFix(mSample)) continue;
+            if (mCount == CHUNK_MAX_POINTS) emitChunk();
+            mLat[mCount]   = mSample.latitude;
+            mLng[mCount]   = mSample.longitude;
+            mAlt[mCount]   = mSample.altitude;
+            mAltM[mCount]  = Math.round(mSample.altitude);
+            mTimeS[mCount] = mSample.timeMs / 1000;
+            mCount++;
+        }
+        if (mCount >= 2) emitChunk();
+    }
+
+    private void emitChunk() {
+        int kept = mSimplifier.simplify(mLat, mLng, mAlt, mCount, mKept);
+        mPath.setLength(0);
+        mAltitudes.setLength(0);
+        mTimes.setLength(0);
+        PolylineEncoder.encodePath(mLat, mLng, mKept, kept, mPath);
+        PolylineEncoder.encodeDeltas(mAltM, mKept, kept, mAltitudes);
+        PolylineEncoder.encodeDeltas(mTimeS, mKept, kept, mTimes);
+        mListener.onChunk(mCount, kept, mPath.toString(), mAltitudes.toString(), mTimes.toString());
+
+        // Carry the last point over so the next chunk starts where this one ended
+        int last = mCount - 1;
+        mLat[0]   = mLat[last];
+        mLng[0]   = mLng[last];
+        mAlt[0]   = mAlt[last];
+        mAltM[0]  = mAltM[last];
+        mTimeS[0] = mTimeS[last];
+        mCount = 1;
+    }
+
+    /**
+     * The flight controller reports 0,0 (or NaN) until the aircraft has a GPS fix.
+     */
+    private static boolean hasFix(TelemetryRing.Sample s) {
+        return !Double.isNaN(s.latitude) && !Double.isNaN(s.longitude)
+            && (s.latitude != 0 || s.longitude != 0);
+    }
+}
@@ -0,0 +1,81 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.List;
+
+/**
+ * Groups flagged cells of a coarse grid over a frame into 4-connected clusters and reports each
+ * one of a plausible size as a {@link Detection}. The work arrays are reused between frames.
+ */
+final class CellClusters {
+    private final int mCols;
+    private final int mRows;
+    private final int mCellSize;
+    private final int[] mStack;
+    private final boolean[] mSeen;
+
+    CellClusters(int frameWidth, int frameHeight, int cellSize) {
+        mCellSize = cellSize;
+        mCols = frameWidth / cellSize;
+        mRows = frameHeight / cellSize;
+        mStack = new int[mCols * mRows];
+        mSeen  = new boolean[mCols * mRows];
+    }
+
+    int cols() {
+        return mCols;
+    }
+
+    int rows() {
+        return mRows;
+    }
+
+    int cellSize() {
+        return mCellSize;
+    }
+
+    /**
+     * @param flagged    per cell, row-major
+     * @param cellScores per cell, averaged over a cluster for its score
+     */
+    void collect(boolean[] flagged, float[] cellScores, int minCells, int maxCells,
+                 String detector, List<Detection> out) {
+        int cells = mCols * mRows;
+        for (int i = 0; i < cells; i++) mSeen[i] = false;
+        for (int start = 0; start < cells; start++) {
+            if (!flagged[start] || mSeen[start]) continue;
+            int size = 0;
+            float scoreSum = 0;
+            int minCol = mCols, minRow = mRows, maxCol = -1, maxRow = -1;
+            int top = 0;
+            mStack[top++] = start;
+            mSeen[start] = true;
+            while (top > 0) {
+                int cell = mStack[--top];
+                int col = cell % mCols;
+                int row = cell / mCols;
+                size++;
+                scoreSum += cellScores[cell];
+                minCol = Math.min(minCol, col);
+                maxCol = Math.max(maxCol, col);
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+                if (col > 0)          top = push(flagged, cell - 1, top);
+                if (col < mCols - 1)  top = push(flagged, cell + 1, top);
+                if (row > 0)          top = push(flagged, cell - mCols, top);
+                if (row < mRows - 1)  top = push(flagged, cell + mCols, top);
+            }
+            if (size >= minCells && size <= maxCells) {
+                out.add(new Detection(detector, Math.min(1f, scoreSum / size),
+                    minCol * mCellSize, minRow * mCellSize, (maxCol + 1) * mCellSize, (maxRow + 1) * mCellSize));
+            }
+        }
+    }
+
+    private int push(boolean[] flagged, int cell, int top) {
+        if (flagged[cell] && !mSeen[cell]) {
+            mSeen[cell] = true;
+            mStack[top++] = cell;
+        }
+        return top;
+    }
+}
@@ -0,0 +1,82 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.List;
+
+/**
+ * Flags small patches of saturated colour that are rare in the rest of the frame: a red jacket
+ * on a green hillside, an orange tent in scrub. Colours are binned coarsely per frame, and a
+ * pixel counts as anomalous when its bin holds only a sliver of the frame and it is clearly
+ * coloured rather than grey, so shadows and bright rock do not qualify.
+ */
+public class ColorAnomalyDetector implements FrameDetector {
+
+    private static final int   CELL_SIZE         = 16;
+    // 3 bits per channel
+    private static final int   BINS              = 512;
+    // A bin this rare across the frame is anomalous
+    private static final float RARE_FRACTION     = 0.005f;
+    // max(r,g,b) - min(r,g,b) below this is too grey to count
+    private static final int   MIN_CHROMA        = 60;
+    private static final int   MIN_CELL_PIXELS   = 12;
+    private static final int   MAX_CLUSTER_CELLS = 9;
+
+    private final CellClusters mClusters;
+    private final int[]     mHistogram = new int[BINS];
+    private final int[]     mRare;
+    private final boolean[] mFlagged;
+    private final float[]   mScores;
+
+    public ColorAnomalyDetector(int frameWidth, int frameHeight) {
+        mClusters = new CellClusters(frameWidth, frameHeight, CELL_SIZE);
+        int cells = mClusters.cols() * mClusters.rows();
+        mRare    = new int[cells];
+        mFlagged = new boolean[cells];
+        mScores  = new float[cells];
+    }
+
+    @Override
+    public String getName() {
+        return "colour";
+    }
+
+    @Override
+    public void detect(AnalysisFrame frame, List<Detection> out) {
+        int[] px = frame.argb;
+        int[] hist = mHistogram;
+        for (int i = 0; i < BINS; i++) hist[i] = 0;
+        for (int c : px) hist[bin(c)]++;
+        int rareBelow = Math.max(1, (int) (px.length * RARE_FRACTION));
+
+        int cols = mClusters.cols();
+        int rows = mClusters.rows();
+        int width = frame.width;
+        for (int i = 0; i < mRare.length; i++) mRare[i] = 0;
+        for (int y = 0; y < rows * CELL_SIZE; y++) {
+            int rowBase = (y / CELL_SIZE) * cols;
+            int p = y * width;
+            for (int x = 0; x < cols * CELL_SIZE; x++, p++) {
+                int c = px[p];
+                if (hist[bin(c)] >= rareBelow) continue;
+                int r = (c >> 16) & 0xFF;
+                int g = (c >> 8) & 0xFF;
+                int b = c & 0xFF;
+                int chroma = Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+                if (chroma >= MIN_CHROMA) mRare[rowBase + x / CELL_SIZE]++;
+            }
+        }
+
+        int cellPixels = CELL_SIZE * CELL_SIZE;
+        boolean any = false;
+        for (int i = 0; i < mRare.length; i++) {
+            mFlagged[i] = mRare[i] >= MIN_CELL_PIXELS;
+            // A quarter of the cell in a rare colour already makes a strong hit
+            mScores[i]  = Math.min(1f, 4f * mRare[i] / cellPixels);
+            any |= mFlagged[i];
+        }
+        if (any) mClusters.collect(mFlagged, mScores, 1, MAX_CLUSTER_CELLS, getName(), out);
+    }
+
+    private static int bin(int c) {
+        return ((c >> 15) & 0x1C0) | ((c >> 10) & 0x38) | ((c >> 5) & 0x7);
+    }
+}
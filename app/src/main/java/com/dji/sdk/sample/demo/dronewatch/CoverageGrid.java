@@ -0,0 +1,276 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.Arrays;
+
+/**
+ * Which ground has been seen, as one bit per square cell of a fixed local grid centred on a
+ * chosen point. Rows are stored as runs of 64-bit words, so a 64x64-cell tile is one word from
+ * each of 64 consecutive rows, and marking a strip of a row touches only the words it spans.
+ * <p>
+ * The grid is allocated up front; {@link #markQuad} allocates nothing and costs in proportion to
+ * the rows and words the quad covers. It keeps the covered-cell counts current and flags the tiles
+ * it changed, for {@link #encodeTile} to pick up. An optional area of interest, set with
+ * {@link #setArea}, is kept as a second bitmap of the same shape.
+ * <p>
+ * Positions are metres east and north of the centre; {@link #toLocal} converts. Not thread-safe.
+ */
+public class CoverageGrid {
+    public static final int TILE = 64;
+
+    private static final double EARTH_RADIUS_M = 6371008.8;
+
+    private final double mCentreLat;
+    private final double mCentreLng;
+    private final double mMetresPerDegLng;
+    private final double mCellM;
+    private final int mTilesX;
+    private final int mTilesY;
+    private final int mCols;
+    private final int mRows;
+    private final long[] mSeen;
+    private final long[] mDirty;
+    private long[] mArea;
+
+    private int mSeenCells;
+    private int mAreaCells;
+    private int mSeenAreaCells;
+
+    /**
+     * @param tilesX tiles across; the grid is {@code tilesX * TILE * cellM} metres wide
+     */
+    public CoverageGrid(double centreLat, double centreLng, double cellM, int tilesX, int tilesY) {
+        mCentreLat = centreLat;
+        mCentreLng = centreLng;
+        mMetresPerDegLng = Math.toRadians(1) * EARTH_RADIUS_M * Math.cos(Math.toRadians(centreLat));
+        mCellM  = cellM;
+        mTilesX = tilesX;
+        mTilesY = tilesY;
+        mCols   = tilesX * TILE;
+        mRows   = tilesY * TILE;
+        mSeen   = new long[mRows * tilesX];
+        mDirty  = new long[(tilesX * tilesY + 63) / 64];
+    }
+
+    public double getCentreLatitude() {
+        return mCentreLat;
+    }
+
+    public double getCentreLongitude() {
+        return mCentreLng;
+    }
+
+    public double getCellSize() {
+        return mCellM;
+    }
+
+    public int getTilesX() {
+        return mTilesX;
+    }
+
+    public int getTilesY() {
+        return mTilesY;
+    }
+
+    public int getSeenCells() {
+        return mSeenCells;
+    }
+
+    public int getAreaCells() {
+        return mAreaCells;
+    }
+
+    /**
+     * Share of the area of interest seen so far, 0..1; 0 without an area.
+     */
+    public double getAreaCoverage() {
+        return mAreaCells == 0 ? 0 : (double) mSeenAreaCells / mAreaCells;
+    }
+
+    /**
+     * Metres east ({@code out[0]}) and north ({@code out[1]}) of the centre.
+     */
+    public void toLocal(double latitude, double longitude, double[] out) {
+        out[0] = (longitude - mCentreLng) * mMetresPerDegLng;
+        out[1] = Math.toRadians(latitude - mCentreLat) * EARTH_RADIUS_M;
+    }
+
+    /**
+     * Sets the area of interest to a polygon given as latitude, longitude pairs. The part outside
+     * the grid is left out. Allocates; call once per assignment.
+     */
+    public void setArea(double[] latLng) {
+        int n = latLng.length / 2;
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        double[] local = new double[2];
+        for (int i = 0; i < n; i++) {
+            toLocal(latLng[2 * i], latLng[2 * i + 1], local);
+            xs[i] = toCol(local[0]);
+            ys[i] = toRow(local[1]);
+        }
+        mArea = new long[mSeen.length];
+        double[] crossings = new double[n];
+        for (int row = 0; row < mRows; row++) {
+            // Even-odd rule along the row's centre line
+            double y = row + 0.5;
+            int count = 0;
+            for (int i = 0, j = n - 1; i < n; j = i++) {
+                if ((ys[i] > y) != (ys[j] > y)) {
+                    crossings[count++] = xs[i] + (y - ys[i]) / (ys[j] - ys[i]) * (xs[j] - xs[i]);
+                }
+            }
+            Arrays.sort(crossings, 0, count);
+            for (int k = 0; k + 1 < count; k += 2) {
+                int c0 = Math.max(0, (int) Math.ceil(crossings[k] - 0.5));
+                int c1 = Math.min(mCols - 1, (int) Math.floor(crossings[k + 1] - 0.5));
+                if (c0 <= c1) fillRow(mArea, row, c0, c1);
+            }
+        }
+        mAreaCells = 0;
+        mSeenAreaCells = 0;
+        for (int i = 0; i < mArea.length; i++) {
+            mAreaCells     += Long.bitCount(mArea[i]);
+            mSeenAreaCells += Long.bitCount(mArea[i] & mSeen[i]);
+        }
+    }
+
+    /**
+     * Marks the cells whose centres fall inside a convex quad, corners in order, given as four
+     * east, north pairs in metres from the centre.
+     */
+    public void markQuad(double[] eastNorth) {
+        double minY = Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 1; i < 8; i += 2) {
+            minY = Math.min(minY, toRow(eastNorth[i]));
+            maxY = Math.max(maxY, toRow(eastNorth[i]));
+        }
+        int r0 = Math.max(0, (int) Math.ceil(minY - 0.5));
+        int r1 = Math.min(mRows - 1, (int) Math.floor(maxY - 0.5));
+        for (int row = r0; row <= r1; row++) {
+            double y = row + 0.5;
+            double left = Double.MAX_VALUE;
+            double right = -Double.MAX_VALUE;
+            for (int i = 0, j = 3; i < 4; j = i++) {
+                double yi = toRow(eastNorth[2 * i + 1]);
+                double yj = toRow(eastNorth[2 * j + 1]);
+                if ((yi > y) == (yj > y)) continue;
+                double xi = toCol(eastNorth[2 * i]);
+                double xj = toCol(eastNorth[2 * j]);
+                double x = xi + (y - yi) / (yj - yi) * (xj - xi);
+                left  = Math.min(left, x);
+                right = Math.max(right, x);
+            }
+            if (left > right) continue;
+            int c0 = Math.max(0, (int) Math.ceil(left - 0.5));
+            int c1 = Math.min(mCols - 1, (int) Math.floor(right - 0.5));
+            if (c0 <= c1) markRow(row, c0, c1);
+        }
+    }
+
+    /**
+     * Index of the next changed tile at or after {@code from}, or -1. Tiles are numbered row by
+     * row, {@code ty * tilesX + tx}.
+     */
+    public int nextDirtyTile(int from) {
+        int tiles = mTilesX * mTilesY;
+        for (int t = from; t < tiles; ) {
+            long word = mDirty[t >>> 6] >>> (t & 63);
+            if (word != 0) return t + Long.numberOfTrailingZeros(word);
+            t = (t | 63) + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Seen cells in a tile.
+     */
+    public int tileSeenCells(int tile) {
+        int base = (tile / mTilesX) * TILE * mTilesX + tile % mTilesX;
+        int cells = 0;
+        for (int r = 0; r < TILE; r++) cells += Long.bitCount(mSeen[base + r * mTilesX]);
+        return cells;
+    }
+
+    /**
+     * Run-length encodes a tile and clears its changed flag. The tile is read row by row, cell 0
+     * of a row first, as alternating runs of unseen and seen cells starting with unseen; each run
+     * length is written as an unsigned LEB128 varint.
+     *
+     * @param out at least {@code (TILE * TILE + 1) * 2} bytes
+     * @return bytes written
+     */
+    public int encodeTile(int tile, byte[] out) {
+        mDirty[tile >>> 6] &= ~(1L << (tile & 63));
+        int base = (tile / mTilesX) * TILE * mTilesX + tile % mTilesX;
+        int pos = 0;
+        boolean seen = false;
+        int run = 0;
+        for (int r = 0; r < TILE; r++) {
+            long word = mSeen[base + r * mTilesX];
+            int bit = 0;
+            while (bit < 64) {
+                // Length of the stretch from here that matches the current run's state
+                long rest = (seen ? ~word : word) >>> bit;
+                int same = rest == 0 ? 64 - bit : Long.numberOfTrailingZeros(rest);
+                run += same;
+                bit += same;
+                if (bit < 64) {
+                    pos = writeVarint(out, pos, run);
+                    run = 0;
+                    seen = !seen;
+                }
+            }
+        }
+        return writeVarint(out, pos, run);
+    }
+
+    private static int writeVarint(byte[] out, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private double toCol(double east) {
+        return east / mCellM + mCols / 2.0;
+    }
+
+    private double toRow(double north) {
+        return north / mCellM + mRows / 2.0;
+    }
+
+    private void markRow(int row, int c0, int c1) {
+        int rowBase = row * mTilesX;
+        int w0 = c0 >>> 6;
+        int w1 = c1 >>> 6;
+        for (int w = w0; w <= w1; w++) {
+            long mask = -1L;
+            if (w == w0) mask &= -1L << (c0 & 63);
+            if (w == w1) mask &= -1L >>> (63 - (c1 & 63));
+            int i = rowBase + w;
+            long fresh = mask & ~mSeen[i];
+            if (fresh == 0) continue;
+            mSeen[i] |= fresh;
+            mSeenCells += Long.bitCount(fresh);
+            if (mArea != null) mSeenAreaCells += Long.bitCount(fresh & mArea[i]);
+            // Word w of the row lies in tile column w
+            int tile = (row >>> 6) * mTilesX + w;
+            mDirty[tile >>> 6] |= 1L << (tile & 63);
+        }
+    }
+
+    private void fillRow(long[] bits, int row, int c0, int c1) {
+        int rowBase = row * mTilesX;
+        int w0 = c0 >>> 6;
+        int w1 = c1 >>> 6;
+        for (int w = w0; w <= w1; w++) {
+            long mask = -1L;
+            if (w == w0) mask &= -1L << (c0 & 63);
+            if (w == w1) mask &= -1L >>> (63 - (c1 & 63));
+            bits[rowBase + w] |= mask;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Keeps a {@link CoverageGrid} of the ground the camera has seen. On every telemetry tick the
+ * corners of the frame are projected to the ground with a {@link GroundProjector}; only ground
+ * within {@link #MAX_RANGE_M} of the drone counts, so an oblique view is cut off where a person
+ * would be too few pixels to spot, and the part of the frame above the horizon is dropped.
+ * <p>
+ * The grid is centred on the assignment area if it is known by the first tick, otherwise on the
+ * first position. Ticks allocate nothing. Thread-safe: ticks come from the flight controller
+ * callback, the area from the network and the uploads from the main thread.
+ */
+public class CoverageTracker {
+
+    // Ground further than this from the drone is not counted as seen
+    public static final double MAX_RANGE_M = 120;
+
+    private static final double CELL_M = 5;
+    // 40 x 64 cells of 5 m: 12.8 km square, 800 KiB per bitmap
+    private static final int    TILES  = 40;
+    private static final float  MIN_ALTITUDE_M = 5f;
+    // Steps of the search for the highest image row still on usable ground
+    private static final int    EDGE_SEARCH_STEPS = 8;
+
+    private final GimbalAttitude mGimbal;
+    private volatile GroundProjector mProjector;
+
+    // Guarded by this
+    private CoverageGrid mGrid;
+    private double[] mArea;
+    private final double[] mDrone   = new double[2];
+    private final double[] mOffset  = new double[2];
+    private final double[] mQuad    = new double[8];
+
+    public CoverageTracker(GimbalAttitude gimbal, GroundProjector projector) {
+        mGimbal    = gimbal;
+        mProjector = projector;
+    }
+
+    /**
+     * Switches to the lens now shown, e.g. when the feed changes to the thermal camera.
+     */
+    public void setProjector(GroundProjector projector) {
+        mProjector = projector;
+    }
+
+    /**
+     * The assignment area as latitude, longitude pairs.
+     */
+    public synchronized void setArea(double[] latLng) {
+        mArea = latLng;
+        if (mGrid != null) mGrid.setArea(latLng);
+    }
+
+    /**
+     * The grid, or null before the first tick. Only touch it while holding this tracker's lock.
+     */
+    public synchronized CoverageGrid getGrid() {
+        return mGrid;
+    }
+
+    /**
+     * One telemetry tick. Does nothing until the gimbal has reported, or when too low to see much.
+     */
+    public synchronized void update(double latitude, double longitude, float altitudeM) {
+        long attitude = mGimbal.snapshot();
+        if (attitude == 0 || altitudeM < MIN_ALTITUDE_M) return;
+        if (mGrid == null) createGrid(latitude, longitude);
+
+        GroundProjector projector = mProjector;
+        float pitch = GimbalAttitude.pitch(attitude);
+        float yaw   = GimbalAttitude.yaw(attitude);
+        float width  = projector.getWidth();
+        float height = projector.getHeight();
+
+        // The bottom edge is the nearest ground; if even that is out of reach there is nothing
+        if (!corner(projector, altitudeM, pitch, yaw, 0, height, 6)
+            || !corner(projector, altitudeM, pitch, yaw, width, height, 4)) {
+            return;
+        }
+        float top = 0;
+        if (!corner(projector, altitudeM, pitch, yaw, 0, 0, 0)
+            || !corner(projector, altitudeM, pitch, yaw, width, 0, 2)) {
+            // Lower the top edge to the highest row still on usable ground
+            float reachable = height;
+            float unreachable = 0;
+            for (int i = 0; i < EDGE_SEARCH_STEPS; i++) {
+                float mid = (reachable + unreachable) / 2;
+                if (corner(projector, altitudeM, pitch, yaw, 0, mid, 0)
+                    && corner(projector, altitudeM, pitch, yaw, width, mid, 2)) {
+                    reachable = mid;
+                } else {
+                    unreachable = mid;
+                }
+            }
+            top = reachable;
+            if (top >= height) return;
+            corner(projector, altitudeM, pitch, yaw, 0, top, 0);
+            corner(projector, altitudeM, pitch, yaw, width, top, 2);
+        }
+
+        mGrid.toLocal(latitude, longitude, mDrone);
+        for (int i = 0; i < 8; i += 2) {
+            mQuad[i]     += mDrone[0];
+            mQuad[i + 1] += mDrone[1];
+        }
+        mGrid.markQuad(mQuad);
+    }
+
+    // Projects an image point into mQuad[at], mQuad[at + 1] as east, north metres from the drone
+    private boolean corner(GroundProjector projector, float altitudeM, float pitch, float yaw,
+                           float x, float y, int at) {
+        if (!projector.offset(altitudeM, pitch, yaw, x, y, mOffset)) return false;
+        double north = mOffset[0];
+        double east  = mOffset[1];
+        if (north * north + east * east > MAX_RANGE_M * MAX_RANGE_M) return false;
+        mQuad[at]     = east;
+        mQuad[at + 1] = north;
+        return true;
+    }
+
+    // With the lock held
+    private void createGrid(double latitude, double longitude) {
+        double lat = latitude;
+        double lng = longitude;
+        if (mArea != null && mArea.length >= 2) {
+            // Centre of the area's bounding box
+            double minLat = mArea[0], maxLat = mArea[0], minLng = mArea[1], maxLng = mArea[1];
+            for (int i = 2; i + 1 < mArea.length; i += 2) {
+                minLat = Math.min(minLat, mArea[i]);
+                maxLat = Math.max(maxLat, mArea[i]);
+                minLng = Math.min(minLng, mArea[i + 1]);
+                maxLng = Math.max(maxLng, mArea[i + 1]);
+            }
+            lat = (minLat + maxLat) / 2;
+            lng = (minLng + maxLng) / 2;
+        }
+        mGrid = new CoverageGrid(lat, lng, CELL_M, TILES, TILES);
+        if (mArea != null) mGrid.setArea(mArea);
+    }
+}
@@ -0,0 +1,32 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.Locale;
+
+/**
+ * A region of an {@link AnalysisFrame} a {@link FrameDetector} thinks is worth a look.
+ */
+public final class Detection {
+    public final String detector;
+    // 0..1, only comparable between hits of the same detector
+    public final float score;
+    // In frame pixels, right and bottom exclusive
+    public final int left;
+    public final int top;
+    public final int right;
+    public final int bottom;
+
+    public Detection(String detector, float score, int left, int top, int right, int bottom) {
+        this.detector = detector;
+        this.score    = score;
+        this.left     = left;
+        this.top      = top;
+        this.right    = right;
+        this.bottom   = bottom;
+    }
+
+    @Override
+    public String toString() {
+        return detector + " " + String.format(Locale.US, "%.2f", score)
+            + " [" + left + "," + top + " " + (right - left) + "x" + (bottom - top) + "]";
+    }
+}
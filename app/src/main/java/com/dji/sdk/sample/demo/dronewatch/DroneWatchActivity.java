@@ -2,13 +2,18 @@ package com.dji.sdk.sample.demo.dronewatch;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.TextureView;
 import android.view.KeyEvent;
+import android.view.Surface;
 import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -20,64 +25,146 @@ import com.dji.sdk.sample.internal.controller.DJISampleApplication;
 import com.dji.sdk.sample.internal.utils.ModuleVerificationUtil;
 import com.dji.sdk.sample.internal.utils.ToastUtils;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import dji.common.camera.SettingsDefinitions;
 import dji.common.error.DJIError;
 import dji.common.flightcontroller.FlightControllerState;
+import dji.common.gimbal.Attitude;
 import dji.common.util.CommonCallbacks;
+import dji.keysdk.CameraKey;
+import dji.keysdk.KeyManager;
+import dji.keysdk.callback.GetCallback;
+import dji.keysdk.callback.KeyListener;
 import dji.sdk.base.BaseProduct;
+import dji.sdk.battery.Battery;
 import dji.sdk.camera.Camera;
 import dji.sdk.camera.VideoFeeder;
 import dji.sdk.codec.DJICodecManager;
 import dji.sdk.flightcontroller.FlightController;
+import dji.sdk.gimbal.Gimbal;
 import dji.sdk.products.Aircraft;
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.ByteString;
 
 public class DroneWatchActivity extends Activity implements TextureView.SurfaceTextureListener {
     private static final String TAG = "DroneWatchActivity";
-    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
-
-    // Firestore REST endpoint
-    private static final String FIRESTORE_BASE_URL =
-        "https://firestore.googleapis.com/v1/projects/aeroaid-39329/databases/(default)/documents";
 
     // UI
     private TextureView mVideoSurface;
     private TextView mLocationInfoTv;
     private View mFloatingButton;  // Round floating button
+    private View mLanButton;
+    private TextureView mReplaySurface;
+    private Surface mReplayOutput;
 
     // DJI
     private DJICodecManager mCodecManager;
     private Camera mCamera;
     private FlightController mFlightController;
+    private Battery mBattery;
+    private Gimbal mGimbal;
+    private CameraKey mDisplayModeKey;
 
     // Auth & assignment
-    private String mAuthToken;
     private String mUserId;
     private String mEmergencyId;
     private String mAssignmentId;
+    private String mAssignmentPath;
 
     // Networking
-    private OkHttpClient mOkHttpClient;
+    private FirestoreWriteBatcher mWriteBatcher;
+    private FindingImageUploader mImageUploader;
+    private FrameCapturePipeline mCapturePipeline;
+    private YuvFrameTap mYuvTap;
+    private FrameAnalysisPipeline mAnalysisPipeline;
+    private ViewFrameSampler mFrameSampler;
+    private ThermalHotspotDetector mThermalDetector;
+    private GroundProjector mThermalProjector;
+    private final GroundProjector mVisualProjector =
+        new GroundProjector(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, VISUAL_HFOV_DEG);
+    private final GimbalAttitude mGimbalAttitude = new GimbalAttitude();
+    private final CoverageTracker mCoverage = new CoverageTracker(mGimbalAttitude, mVisualProjector);
+    // Main thread only
+    private final byte[] mTileBuffer = new byte[(CoverageGrid.TILE * CoverageGrid.TILE + 1) * 2];
+    // Analysis thread only
+    private final double[] mProjected = new double[2];
+    private final HashMap<String, Long> mLastSuggestionMs = new HashMap<>();
+    private final FindingDedupIndex mFindingIndex = new FindingDedupIndex(DUPLICATE_MAX_BITS, DUPLICATE_RADIUS_M);
     private Handler mHandler;
-    private Timer mLocationTimer;
+    private final TelemetryUplinkScheduler mUplinkScheduler = new TelemetryUplinkScheduler();
+    private volatile boolean mUplinkEnabled;
+    private ConnectivityManager.NetworkCallback mNetworkCallback;
+
+    // Writes not yet acknowledged by Firestore survive here across dead zones and restarts
+    private static final String OUTBOX_DIR = "dronewatch-outbox";
+    private static final String FINDING_IMAGES_DIR = "finding-images";
+    // A capture takes the sharpest decoded frame from this far back
+    private static final long SHARPEST_FRAME_WINDOW_MS = 1000;
+    // On-board analysis: small frames a few times a second, suggestions rate-limited per detector
+    private static final int  ANALYSIS_WIDTH         = 320;
+    private static final int  ANALYSIS_HEIGHT        = 180;
+    private static final long ANALYSIS_INTERVAL_MS   = 250;
+    private static final long SUGGESTION_COOLDOWN_MS = 15000;
+    private static final float MIN_SUGGESTION_SCORE  = 0.3f;
+    // XT2 thermal camera; the 13 mm lens sees 45 degrees across
+    private static final int   THERMAL_CAMERA_INDEX  = 2;
+    private static final float THERMAL_HFOV_DEG      = 45f;
+    // A typical wide main camera, for the coverage footprint when the lens is not known
+    private static final float VISUAL_HFOV_DEG       = 72f;
+    private static final long  COVERAGE_UPLOAD_MS    = 30000;
+    // Two captures are of the same spot within this many hash bits and metres
+    private static final int    DUPLICATE_MAX_BITS   = 10;
+    private static final double DUPLICATE_RADIUS_M   = 25;
+
+    // Keep sending every sample at the burst rate while a finding is being captured
+    private static final long CAPTURE_BURST_MS = 10000;
+
+    // Telemetry: written at full rate by the FC callback, read by the uplink, overlay and recorder
+    private static final int  TELEMETRY_CAPACITY = 4096;
+    private static final long OVERLAY_REFRESH_MS = 250;
+    private final TelemetryRing mTelemetry = new TelemetryRing(TELEMETRY_CAPACITY);
+    private final TelemetryRing.Sample mOverlaySample = new TelemetryRing.Sample();
+    private final TelemetryRing.Sample mFindingSample = new TelemetryRing.Sample();
+    private final char[] mOverlayChars = new char[64];
+    private TelemetryRecorder mTelemetryRecorder;
+    private StreamRecorder mStreamRecorder;
+    private ReplayPlayer mReplayPlayer;
+    // Instant replay starts this far behind live
+    private static final long REPLAY_BACK_MS = 10000;
+    private boolean mReplayRequested;
+    // Main thread: bumped by every start and stop of a replay
+    private int mReplayGeneration;
+    // Command-post viewers on the same network watch http://<phone>:8090/live.mp4?token=...,
+    // only once the pilot has turned it on with the share button
+    private static final int LAN_STREAM_PORT = 8090;
+    private LanStreamServer mLanServer;
+    private BreadcrumbTrack mBreadcrumbTrack;
+    private long mOverlayShownIndex = -1;
+
+    private final Runnable mCoverageUploader = new Runnable() {
+        @Override
+        public void run() {
+            uploadCoverage();
+            mHandler.postDelayed(this, COVERAGE_UPLOAD_MS);
+        }
+    };
+
+    private final Runnable mOverlayUpdater = new Runnable() {
+        @Override
+        public void run() {
+            showLatestTelemetry();
+            mHandler.postDelayed(this, OVERLAY_REFRESH_MS);
+        }
+    };
 
     // Video listener
     private VideoFeeder.VideoDataListener mVideoDataListener = new VideoFeeder.VideoDataListener() {
@@ -89,12 +176,20 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
         }
     };
 
+    // Registered for the whole life of the activity, so recording goes on while it is in the background
+    private final VideoFeeder.VideoDataListener mRecorderListener = new VideoFeeder.VideoDataListener() {
+        @Override
+        public void onReceive(byte[] videoBuffer, int size) {
+            mStreamRecorder.offer(videoBuffer, size);
+        }
+    };
+
     // SharedPrefs keys
     private static final String PREF_FILE         = "aeroaid_prefs";
-    private static final String PREF_TOKEN        = "auth_token";
     private static final String PREF_USER_ID      = "user_id";
     private static final String PREF_EMERGENCY_ID = "emergencyId";
     private static final String PREF_ASSIGN_ID    = "currentAssignmentId";
+    private static final String PREF_LAN_STREAM   = "lanStreamEnabled";
 
     @Override
     protected void onCreate(@Nullable Bundle savedInstanceState) {
@@ -104,26 +199,93 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
         // Load prefs
         android.content.SharedPreferences prefs =
             getSharedPreferences(PREF_FILE, Context.MODE_PRIVATE);
-        mAuthToken    = prefs.getString(PREF_TOKEN, null);
         mUserId       = prefs.getString(PREF_USER_ID, null);
         mEmergencyId  = prefs.getString(PREF_EMERGENCY_ID, "");
         mAssignmentId = prefs.getString(PREF_ASSIGN_ID, "");
 
-        if (mAuthToken == null || mUserId == null ||
+        if (!FirebaseTokenManager.getInstance(this).hasSession() || mUserId == null ||
             mEmergencyId.isEmpty() || mAssignmentId.isEmpty()) {
             Toast.makeText(this, "Authentication/assignment missing", Toast.LENGTH_LONG).show();
             startActivity(new android.content.Intent(this, LoginActivity.class));
             finish();
             return;
         }
-
-        mOkHttpClient = new OkHttpClient();
+        mAssignmentPath = "searchAssignments/" + mAssignmentId;
+
+        mWriteBatcher = new FirestoreWriteBatcher(DroneWatchApiClient.getInstance(),
+            new DroneWatchOutbox(new File(getFilesDir(), OUTBOX_DIR)));
+        mImageUploader = new FindingImageUploader(DroneWatchApiClient.getInstance(),
+            new File(getFilesDir(), FINDING_IMAGES_DIR), new FindingImageUploader.Listener() {
+                @Override
+                public void onUploaded(String findingId, String imageRef, Runnable stored) {
+                    // Only flags a finding that exists; never creates a half document ahead of it.
+                    // The batcher retries it while the finding's create is still on its way
+                    mWriteBatcher.enqueue(FirestoreWrite.updateExisting("findings/" + findingId,
+                        new FirestoreTemplates.ImageUploaded(), FirestoreTemplates.ImageUploaded.FIELD_PATHS),
+                        stored);
+                }
+            });
+        mImageUploader.resumePending();
+        registerConnectivityCallback();
         mHandler      = new Handler();
+        fetchAssignmentArea();
+        mHandler.postDelayed(mCoverageUploader, COVERAGE_UPLOAD_MS);
 
         initUI();
+        if (mVideoSurface != null) {
+            mCapturePipeline = new FrameCapturePipeline(mVideoSurface, mImageUploader);
+            // Findings at full stream resolution, straight from the decoder
+            mYuvTap = new YuvFrameTap(new YuvFrameTap.Switch() {
+                @Override
+                public void setYuvEnabled(boolean enabled) {
+                    if (mCodecManager != null) mCodecManager.enabledYuvData(enabled);
+                }
+            }, SHARPEST_FRAME_WINDOW_MS);
+            mCapturePipeline.setYuvTap(mYuvTap);
+
+            // Switched on by watchThermalFeed() while the feed shows the thermal camera
+            mThermalDetector  = new ThermalHotspotDetector(ANALYSIS_WIDTH, ANALYSIS_HEIGHT);
+            mThermalProjector = new GroundProjector(ANALYSIS_WIDTH, ANALYSIS_HEIGHT, THERMAL_HFOV_DEG);
+            mAnalysisPipeline = new FrameAnalysisPipeline(ANALYSIS_WIDTH, ANALYSIS_HEIGHT,
+                Arrays.<FrameDetector>asList(
+                    new MotionDetector(ANALYSIS_WIDTH, ANALYSIS_HEIGHT),
+                    new ColorAnomalyDetector(ANALYSIS_WIDTH, ANALYSIS_HEIGHT),
+                    mThermalDetector),
+                new FrameAnalysisPipeline.Listener() {
+                    @Override
+                    public void onDetections(AnalysisFrame frame, List<Detection> detections) {
+                        suggestFindings(frame, detections);
+                    }
+                });
+            mFrameSampler = new ViewFrameSampler(mVideoSurface, mAnalysisPipeline, mTelemetry, mGimbalAttitude,
+                ANALYSIS_WIDTH, ANALYSIS_HEIGHT, ANALYSIS_INTERVAL_MS);
+        }
         initSDKComponents();
         startLocationUpdates();
+        // Null while external storage is unavailable
+        File telemetryDir = getExternalFilesDir("telemetry");
+        if (telemetryDir != null) {
+            mTelemetryRecorder = new TelemetryRecorder(mTelemetry, new File(telemetryDir,
+                "telemetry-" + System.currentTimeMillis() + ".bin"));
+            mTelemetryRecorder.start();
+        } else {
+            Log.e(TAG, "Telemetry recording disabled: no storage available");
+        }
+        mStreamRecorder = new StreamRecorder(getExternalFilesDir("recordings"));
+        mStreamRecorder.start();
+        VideoFeeder.getInstance().getPrimaryVideoFeed().addVideoDataListener(mRecorderListener);
+        mReplayPlayer = new ReplayPlayer(mStreamRecorder);
+        if (prefs.getBoolean(PREF_LAN_STREAM, false)) startLanServer();
+        mBreadcrumbTrack = new BreadcrumbTrack(mTelemetry, new BreadcrumbTrack.ChunkListener() {
+            @Override
+            public void onChunk(int rawPoints, int keptPoints, String path, String altitudes, String times) {
+                sendTrackChunk(keptPoints, path, altitudes, times);
+            }
+        });
+        mBreadcrumbTrack.start();
         addFloatingButton(); // Add the small round button
+        addReplayButton();
+        addLanButton();
     }
 
     private void initUI() {
@@ -133,6 +295,38 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
         if (mVideoSurface != null) {
             mVideoSurface.setSurfaceTextureListener(this);
         }
+        mReplaySurface = findViewById(R.id.replay_surface);
+        mReplaySurface.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+            @Override
+            public void onSurfaceTextureAvailable(SurfaceTexture s, int w, int h) {
+                if (mReplayRequested) startReplay(s);
+            }
+            @Override
+            public void onSurfaceTextureSizeChanged(SurfaceTexture s, int w, int h) { /* no-op */ }
+            @Override
+            public boolean onSurfaceTextureDestroyed(SurfaceTexture s) {
+                stopReplay();
+                return true;
+            }
+            @Override
+            public void onSurfaceTextureUpdated(SurfaceTexture s) { /* no-op */ }
+        });
+    }
+
+    private void registerConnectivityCallback() {
+        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) return;
+        mNetworkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(Network network) {
+                // Replay whatever queued up while we were out of coverage
+                mWriteBatcher.retryNow();
+                mImageUploader.resumePending();
+            }
+        };
+        cm.registerNetworkCallback(new NetworkRequest.Builder()
+            .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+            .build(), mNetworkCallback);
     }
 
     // Add a small, round, semi-transparent button in the bottom-right corner
@@ -165,6 +359,139 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
         mFloatingButton = floatingButton;
     }
     
+    // Replay button, just left of the capture button
+    private void addReplayButton() {
+        View replayButton = new View(this);
+        replayButton.setBackground(getResources().getDrawable(android.R.drawable.ic_media_rew));
+        replayButton.setAlpha(0.7f);
+
+        int buttonSize = dpToPx(60);
+        android.widget.FrameLayout.LayoutParams params =
+            new android.widget.FrameLayout.LayoutParams(buttonSize, buttonSize);
+        params.gravity = android.view.Gravity.BOTTOM | android.view.Gravity.END;
+        params.setMargins(0, 0, dpToPx(90), dpToPx(20));
+
+        replayButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleReplay();
+            }
+        });
+
+        android.widget.FrameLayout rootLayout = (android.widget.FrameLayout) findViewById(android.R.id.content);
+        rootLayout.addView(replayButton, params);
+    }
+
+    // LAN video button, left of the replay button; dimmed while the video is not shared
+    private void addLanButton() {
+        View lanButton = new View(this);
+        lanButton.setBackground(getResources().getDrawable(android.R.drawable.ic_menu_share));
+
+        int buttonSize = dpToPx(60);
+        android.widget.FrameLayout.LayoutParams params =
+            new android.widget.FrameLayout.LayoutParams(buttonSize, buttonSize);
+        params.gravity = android.view.Gravity.BOTTOM | android.view.Gravity.END;
+        params.setMargins(0, 0, dpToPx(160), dpToPx(20));
+
+        lanButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                toggleLanServer();
+            }
+        });
+
+        android.widget.FrameLayout rootLayout = (android.widget.FrameLayout) findViewById(android.R.id.content);
+        rootLayout.addView(lanButton, params);
+        mLanButton = lanButton;
+        updateLanButton();
+    }
+
+    private void updateLanButton() {
+        if (mLanButton != null) mLanButton.setAlpha(mLanServer != null ? 0.7f : 0.3f);
+    }
+
+    // Sharing the video on the local network is off until the pilot turns it on, and stays as set
+    private void toggleLanServer() {
+        boolean enable = mLanServer == null;
+        if (enable && !startLanServer()) return;
+        getSharedPreferences(PREF_FILE, Context.MODE_PRIVATE).edit()
+            .putBoolean(PREF_LAN_STREAM, enable)
+            .apply();
+        if (!enable) {
+            stopLanServer();
+            showToast("LAN video off");
+        }
+    }
+
+    // False, and the pilot told why, if there is no recording to serve from
+    private boolean startLanServer() {
+        if (!mStreamRecorder.isRecording()) {
+            Log.w(TAG, "LAN video unavailable: stream recording is off");
+            showToast("LAN video unavailable: no storage to record the stream to");
+            return false;
+        }
+        mLanServer = new LanStreamServer(mStreamRecorder, LAN_STREAM_PORT);
+        mLanServer.start();
+        String url = mLanServer.getUrl();
+        if (url != null) {
+            Log.i(TAG, "LAN video at " + url);
+            showToast("LAN video at " + url);
+        }
+        updateLanButton();
+        return true;
+    }
+
+    private void stopLanServer() {
+        if (mLanServer == null) return;
+        mLanServer.stop();
+        Log.i(TAG, "LAN streaming: " + mLanServer.getStats());
+        mLanServer = null;
+        updateLanButton();
+    }
+
+    // Shows the last few seconds again in the corner, while the live feed goes on
+    private void toggleReplay() {
+        if (mReplayRequested) {
+            stopReplay();
+            return;
+        }
+        mReplayRequested = true;
+        mReplaySurface.setVisibility(View.VISIBLE);
+        if (mReplaySurface.isAvailable()) startReplay(mReplaySurface.getSurfaceTexture());
+    }
+
+    private void startReplay(SurfaceTexture texture) {
+        if (mReplayPlayer.isPlaying()) return;
+        mReplayOutput = new Surface(texture);
+        final int generation = ++mReplayGeneration;
+        mReplayPlayer.start(mReplayOutput, REPLAY_BACK_MS * 1000, new ReplayPlayer.Listener() {
+            @Override
+            public void onReplayEnded(final String reason) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Stopped, and maybe started again, while this was on its way
+                        if (generation != mReplayGeneration) return;
+                        showToast(reason);
+                        stopReplay();
+                    }
+                });
+            }
+        });
+    }
+
+    private void stopReplay() {
+        mReplayRequested = false;
+        mReplayGeneration++;
+        if (mReplayPlayer != null) mReplayPlayer.stop();
+        if (mReplayOutput != null) {
+            mReplayOutput.release();
+            mReplayOutput = null;
+        }
+        // onCreate() finishes before initUI() when the session is missing
+        if (mReplaySurface != null) mReplaySurface.setVisibility(View.GONE);
+    }
+
     // Utility to convert dp to pixels
     private int dpToPx(int dp) {
         float density = getResources().getDisplayMetrics().density;
@@ -181,6 +508,11 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
             mFlightController = ((Aircraft) product).getFlightController();
             mFlightController.setStateCallback(this::updateLocationInfo);
         }
+        if (product.getBattery() != null) {
+            mBattery = product.getBattery();
+            mBattery.setStateCallback(
+                state -> mTelemetry.setBatteryPercent(state.getChargeRemainingInPercent()));
+        }
         if (ModuleVerificationUtil.isProductModuleAvailable() &&
             DJISampleApplication.getAircraftInstance().getCamera() != null) {
             mCamera = DJISampleApplication.getAircraftInstance().getCamera();
@@ -191,6 +523,48 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
                 if (rc != null) ToastUtils.setResultToToast("Set photo mode failed: " + rc.getDescription());
             });
         }
+        if (product.getGimbal() != null) {
+            mGimbal = product.getGimbal();
+            mGimbal.setStateCallback(state -> {
+                Attitude attitude = state.getAttitudeInDegrees();
+                mGimbalAttitude.set(attitude.getPitch(), attitude.getYaw());
+            });
+        }
+        watchThermalFeed(product);
+    }
+
+    private final KeyListener mDisplayModeListener = new KeyListener() {
+        @Override
+        public void onValueChange(@Nullable Object oldValue, @Nullable Object newValue) {
+            onDisplayModeChanged(newValue);
+        }
+    };
+
+    // Hotspot detection only makes sense while the feed shows the thermal camera alone
+    private void watchThermalFeed(BaseProduct product) {
+        Camera thermal = product.getCameraWithComponentIndex(THERMAL_CAMERA_INDEX);
+        if (mThermalDetector == null || thermal == null || !thermal.isThermalCamera()) return;
+        mDisplayModeKey = CameraKey.create(CameraKey.DISPLAY_MODE, THERMAL_CAMERA_INDEX);
+        KeyManager.getInstance().addListener(mDisplayModeKey, mDisplayModeListener);
+        KeyManager.getInstance().getValue(mDisplayModeKey, new GetCallback() {
+            @Override
+            public void onSuccess(Object value) {
+                onDisplayModeChanged(value);
+            }
+
+            @Override
+            public void onFailure(DJIError error) {
+                Log.w(TAG, "Display mode unknown: " + error.getDescription());
+            }
+        });
+    }
+
+    // Any thread
+    private void onDisplayModeChanged(Object mode) {
+        boolean thermal = mode == SettingsDefinitions.DisplayMode.THERMAL_ONLY;
+        mThermalDetector.setEnabled(thermal);
+        mCoverage.setProjector(thermal ? mThermalProjector : mVisualProjector);
+        Log.i(TAG, "Thermal hotspot detection " + (thermal ? "on" : "off"));
     }
 
     @Override
@@ -206,75 +580,160 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
         return super.onKeyDown(keyCode, event);
     }
 
+    // Runs at the FC state rate (10 Hz); must not allocate
     private void updateLocationInfo(FlightControllerState state) {
         double lat = state.getAircraftLocation().getLatitude();
         double lng = state.getAircraftLocation().getLongitude();
         float  alt = state.getAircraftLocation().getAltitude();
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mLocationInfoTv.setText(String.format(
-                    "Lat: %.6f\nLong: %.6f\nAlt: %.1fm", lat, lng, alt
-                ));
+        float  vx  = state.getVelocityX();
+        float  vy  = state.getVelocityY();
+        float  vz  = state.getVelocityZ();
+        float  heading = (float) state.getAttitude().yaw;
+        mTelemetry.write(System.currentTimeMillis(), lat, lng, alt,
+            (float) Math.sqrt(vx * vx + vy * vy + vz * vz), heading);
+        mCoverage.update(lat, lng, alt);
+
+        long now = SystemClock.elapsedRealtime();
+        if (mUplinkEnabled && mUplinkScheduler.offer(now, lat, lng, alt, heading)) {
+            sendLocationToServer(lat, lng, mUplinkScheduler.isBursting(now));
+        }
+    }
+
+    // Overlay refresh on the UI thread; formats into a reused char buffer instead of String.format
+    private void showLatestTelemetry() {
+        if (!mTelemetry.readLatest(mOverlaySample) || mOverlaySample.index == mOverlayShownIndex) return;
+        mOverlayShownIndex = mOverlaySample.index;
+        int n = appendText(mOverlayChars, 0, "Lat: ");
+        n = appendFixed(mOverlayChars, n, mOverlaySample.latitude, 6);
+        n = appendText(mOverlayChars, n, "\nLong: ");
+        n = appendFixed(mOverlayChars, n, mOverlaySample.longitude, 6);
+        n = appendText(mOverlayChars, n, "\nAlt: ");
+        n = appendFixed(mOverlayChars, n, mOverlaySample.altitude, 1);
+        n = appendText(mOverlayChars, n, "m");
+        mLocationInfoTv.setText(mOverlayChars, 0, n);
+    }
+
+    private static int appendText(char[] buf, int pos, String text) {
+        text.getChars(0, text.length(), buf, pos);
+        return pos + text.length();
+    }
+
+    private static int appendFixed(char[] buf, int pos, double value, int decimals) {
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long scaled = Math.round(value * scale);
+        long whole = scaled / scale;
+        int start = pos;
+        do {
+            buf[pos++] = (char) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            char c = buf[i]; buf[i] = buf[j]; buf[j] = c;
+        }
+        if (decimals > 0) {
+            buf[pos++] = '.';
+            long frac = scaled % scale;
+            for (long div = scale / 10; div > 0; div /= 10) {
+                buf[pos++] = (char) ('0' + (frac / div) % 10);
             }
-        });
+        }
+        return pos;
     }
 
     private void startLocationUpdates() {
-        if (mLocationTimer != null) mLocationTimer.cancel();
-        mLocationTimer = new Timer();
-        mLocationTimer.schedule(new TimerTask() {
-            @Override public void run() { sendLocationToServer(); }
-        }, 0, 3000);
-    }
-
-    private void sendLocationToServer() {
-        if (mFlightController == null) return;
-        FlightControllerState s = mFlightController.getState();
-        double lat = s.getAircraftLocation().getLatitude();
-        double lng = s.getAircraftLocation().getLongitude();
-        try {
-            JSONObject fields = new JSONObject();
-            JSONObject geo = new JSONObject()
-                .put("latitude", lat)
-                .put("longitude", lng);
-            fields.put("droneLocation", new JSONObject().put("geoPointValue", geo));
-            fields.put("updatedAt", new JSONObject()
-                .put("timestampValue", new Date().toInstant().toString())
-            );
-
-            String url = FIRESTORE_BASE_URL
-                + "/searchAssignments/" + mAssignmentId
-                + "?updateMask.fieldPaths=droneLocation"
-                + "&updateMask.fieldPaths=updatedAt";
-
-            Request req = new Request.Builder()
-                .url(url)
-                .patch(RequestBody.create(
-                    new JSONObject().put("fields", fields).toString(), JSON
-                ))
-                .addHeader("Authorization", "Bearer " + mAuthToken)
-                .build();
-
-            mOkHttpClient.newCall(req).enqueue(new Callback() {
-                @Override public void onFailure(Call c, IOException e) {
-                    Log.e(TAG, "Location update failed", e);
+        // Samples arrive through the flight controller state callback; this only opens the gate
+        mUplinkScheduler.reset();
+        mUplinkEnabled = true;
+    }
+
+    private void stopLocationUpdates() {
+        mUplinkEnabled = false;
+    }
+
+    private void sendLocationToServer(double lat, double lng, boolean urgent) {
+        // Coalesced with any location still waiting in the batcher, unless bursting
+        mWriteBatcher.enqueue(FirestoreWrite.update(mAssignmentPath,
+                new FirestoreTemplates.LocationUpdate(lat, lng, System.currentTimeMillis()),
+                FirestoreTemplates.LocationUpdate.FIELD_PATHS)
+            .setPriority(urgent ? FirestoreWrite.PRIORITY_HIGH : FirestoreWrite.PRIORITY_NORMAL));
+    }
+
+    // The assignment's search area, for the coverage percentage; without one only the seen area is reported
+    private void fetchAssignmentArea() {
+        DroneWatchApiClient api = DroneWatchApiClient.getInstance();
+        api.enqueue("getAssignment", api.authorizedRequest(api.documentUrl(mAssignmentPath)).get().build(),
+            new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.w(TAG, "Could not fetch assignment area: " + e.getMessage());
                 }
-                @Override public void onResponse(Call c, Response r) throws IOException {
-                    if (!r.isSuccessful()) {
-                        Log.e(TAG, "Loc-update error " + r.code() + ": " + r.body().string());
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try {
+                        if (!response.isSuccessful()) {
+                            Log.w(TAG, "Could not fetch assignment area: " + response.code());
+                            return;
+                        }
+                        double[] area = FirestoreResponseReader.readPointArrayField(
+                            response.body().charStream(), "area");
+                        if (area == null || area.length < 6) {
+                            Log.i(TAG, "Assignment has no search area");
+                            return;
+                        }
+                        mCoverage.setArea(area);
+                    } catch (IOException | IllegalStateException e) {
+                        Log.e(TAG, "Could not read assignment area", e);
+                    } finally {
+                        response.close();
                     }
-                    r.close();
                 }
             });
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON error in sendLocation", e);
+    }
+
+    // Main thread: tiles changed since the last round, then the totals
+    private void uploadCoverage() {
+        long now = System.currentTimeMillis();
+        synchronized (mCoverage) {
+            CoverageGrid grid = mCoverage.getGrid();
+            if (grid == null) return;
+            int tiles = 0;
+            for (int t = grid.nextDirtyTile(0); t >= 0; t = grid.nextDirtyTile(t + 1)) {
+                int length = grid.encodeTile(t, mTileBuffer);
+                int tx = t % grid.getTilesX();
+                int ty = t / grid.getTilesX();
+                mWriteBatcher.enqueue(FirestoreWrite.update(mAssignmentPath + "/coverageTiles/" + tx + "_" + ty,
+                    new FirestoreTemplates.CoverageTile(tx, ty, grid.tileSeenCells(t),
+                        ByteString.of(mTileBuffer, 0, length).base64(), now),
+                    FirestoreTemplates.CoverageTile.FIELD_PATHS));
+                tiles++;
+            }
+            if (tiles == 0) return;
+            mWriteBatcher.enqueue(FirestoreWrite.update(mAssignmentPath,
+                new FirestoreTemplates.CoverageSummary(grid, now),
+                FirestoreTemplates.CoverageSummary.FIELD_PATHS));
+            Log.d(TAG, String.format(Locale.US, "Coverage: %d tiles sent, %.1f%% of area, %d cells seen",
+                tiles, grid.getAreaCoverage() * 100, grid.getSeenCells()));
         }
     }
 
+    // Appended to the assignment's trackChunks array; chunks join end to start into one path
+    private void sendTrackChunk(int points, String path, String altitudes, String times) {
+        mWriteBatcher.enqueue(FirestoreWrite.appendToArray(mAssignmentPath, "trackChunks",
+            new FirestoreTemplates.TrackChunk(path, altitudes, times, points)));
+    }
+
     private void capturePhoto() {
         if (mCamera == null) { ToastUtils.setResultToToast("Camera not available"); return; }
-        
+        mUplinkScheduler.startBurst(SystemClock.elapsedRealtime(), CAPTURE_BURST_MS);
+        // Frames decoded while the camera shoots are scored, so the pick can skip a blurry one
+        if (mYuvTap != null) mYuvTap.prime();
+
         mCamera.startShootPhoto(rc -> {
             if (rc == null) {
                 showToast("Photo captured");
@@ -290,83 +749,110 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
         });
     }
 
+    // Main thread: only the position is read here, the frame is copied and encoded off it
     private void sendCurrentFrameAsPhoto() {
-        Bitmap bmp = mVideoSurface.getBitmap();
-        if (bmp == null) { showToast("Frame grab failed"); return; }
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        bmp.compress(Bitmap.CompressFormat.JPEG, 90, baos);
-        String img64 = "data:image/jpeg;base64," +
-            android.util.Base64.encodeToString(baos.toByteArray(), android.util.Base64.DEFAULT);
-        appendFindingToEmergency(img64);
-    }
-
-    private void appendFindingToEmergency(String imageBase64) {
-        if (mFlightController == null) { showToast("FC not available"); return; }
-        FlightControllerState s = mFlightController.getState();
-        double lat = s.getAircraftLocation().getLatitude();
-        double lng = s.getAircraftLocation().getLongitude();
-
-        try {
-            // Create a finding document directly in the findings collection
-            JSONObject findingData = new JSONObject();
-            
-            // Core finding data fields
-            findingData.put("emergencyId", new JSONObject().put("stringValue", mEmergencyId));
-            findingData.put("description", new JSONObject().put("stringValue", "Drone photo from Android"));
-            findingData.put("operatorId", new JSONObject().put("stringValue", mUserId));
-            
-            // Location data (matching the new structure)
-            JSONObject locationObj = new JSONObject();
-            locationObj.put("latitude", new JSONObject().put("doubleValue", lat));
-            locationObj.put("longitude", new JSONObject().put("doubleValue", lng));
-            findingData.put("location", new JSONObject().put("mapValue", 
-                new JSONObject().put("fields", locationObj)));
-            
-            // Image (if available)
-            if (imageBase64 != null && !imageBase64.isEmpty()) {
-                findingData.put("imageBase64", new JSONObject().put("stringValue", imageBase64));
+        if (!mTelemetry.readLatest(mFindingSample)) { showToast("No telemetry yet"); return; }
+        final double lat = mFindingSample.latitude;
+        final double lng = mFindingSample.longitude;
+        final long timeMs = System.currentTimeMillis();
+
+        // The JPEG goes to disk and on to Storage; the finding only carries its reference
+        final String findingId = FirestoreWrite.newAutoId();
+        FrameCapturePipeline.Callback callback = new FrameCapturePipeline.Callback() {
+            @Override
+            public void onFrameSaved(File image, long imageHash, long latencyMs) {
+                Log.d(TAG, "Finding photo ready in " + latencyMs + " ms");
+                if (mergeRepeatCapture(image, imageHash, lat, lng, timeMs)) return;
+                mFindingIndex.add(findingId, imageHash, lat, lng);
+                appendFindingToEmergency(findingId, FindingImageUploader.imageRef(findingId), lat, lng, timeMs);
+                mImageUploader.upload(findingId);
             }
-            
-            // Timestamp (current time in ISO format)
-            findingData.put("timestamp", new JSONObject().put("timestampValue", 
-                new Date().toInstant().toString()));
-            
-            // URL for creating a finding document
-            String url = FIRESTORE_BASE_URL + "/findings";
-            
-            // Create the request with all the fields
-            JSONObject requestBody = new JSONObject();
-            requestBody.put("fields", findingData);
-            
-            Request req = new Request.Builder()
-                .url(url)
-                .post(RequestBody.create(requestBody.toString(), JSON))
-                .addHeader("Authorization", "Bearer " + mAuthToken)
-                .build();
-            
-            mOkHttpClient.newCall(req).enqueue(new Callback() {
-                @Override public void onFailure(Call c, IOException e) {
-                    showToast("Add finding failed");
-                    Log.e(TAG, "Failed to add finding", e);
-                }
-                
-                @Override public void onResponse(Call c, Response r) throws IOException {
-                    if (r.isSuccessful()) {
+
+            @Override
+            public void onCaptureFailed(String reason) {
+                // Still report the finding, just without its photo
+                showToast(reason + ", reporting position only");
+                appendFindingToEmergency(findingId, null, lat, lng, timeMs);
+            }
+        };
+        if (mCapturePipeline == null || !mCapturePipeline.capture(findingId, callback)) {
+            showToast("Photo unavailable, reporting position only");
+            appendFindingToEmergency(findingId, null, lat, lng, timeMs);
+        }
+    }
+
+    // Encoder thread: a photo of a spot already reported this mission is not worth the uplink, so it
+    // is dropped and only noted on the earlier finding
+    private boolean mergeRepeatCapture(File image, long imageHash, double lat, double lng, long timeMs) {
+        long startNs = System.nanoTime();
+        FindingDedupIndex.Match match = mFindingIndex.findDuplicate(imageHash, lat, lng);
+        Log.d(TAG, "Duplicate lookup over " + mFindingIndex.size() + " findings took "
+            + (System.nanoTime() - startNs) / 1000 + " us");
+        if (match == null) return false;
+
+        Log.i(TAG, "Capture repeats finding " + match.findingId + " (" + match.hammingDistance
+            + " bits, " + Math.round(match.distanceM) + " m), photo dropped");
+        showToast("Same spot as an earlier finding, merged into it");
+        if (!image.delete()) Log.w(TAG, "Could not delete " + image);
+        // The finding's create may still be waiting, so this must not be the write that makes it
+        mWriteBatcher.enqueue(FirestoreWrite.appendToExistingArray("findings/" + match.findingId,
+            "repeatCaptures", new FirestoreTemplates.RepeatCapture(mUserId, lat, lng, match.hammingDistance, timeMs)));
+        return true;
+    }
+
+    // Analysis thread: the strongest hit of each detector becomes a suggested finding, at most
+    // one per detector every SUGGESTION_COOLDOWN_MS so a waving flag does not flood the feed
+    private void suggestFindings(AnalysisFrame frame, List<Detection> detections) {
+        if (!frame.hasPosition) return;
+        for (int i = 0; i < detections.size(); i++) {
+            Detection best = detections.get(i);
+            if (best.score < MIN_SUGGESTION_SCORE) continue;
+            for (int j = i + 1; j < detections.size(); j++) {
+                Detection other = detections.get(j);
+                if (other.detector.equals(best.detector) && other.score > best.score) best = other;
+            }
+            Long last = mLastSuggestionMs.get(best.detector);
+            if (last != null && frame.timeMs - last < SUGGESTION_COOLDOWN_MS) continue;
+            mLastSuggestionMs.put(best.detector, frame.timeMs);
+
+            double lat = frame.latitude;
+            double lng = frame.longitude;
+            // A hotspot is placed where it is on the ground rather than under the drone
+            if (best.detector.equals(mThermalDetector.getName()) && frame.hasGimbal
+                && mThermalProjector.project(frame.latitude, frame.longitude, frame.altitude,
+                    frame.gimbalPitch, frame.gimbalYaw, (best.left + best.right) / 2f,
+                    (best.top + best.bottom) / 2f, mProjected)) {
+                lat = mProjected[0];
+                lng = mProjected[1];
+            }
+
+            Log.i(TAG, "Suggesting finding: " + best);
+            showToast("Possible sighting (" + best.detector + ")");
+            mWriteBatcher.enqueue(FirestoreWrite.create("findings", new FirestoreTemplates.SuggestedFinding(
+                mEmergencyId, mUserId, best.detector, best.score, lat, lng, frame.timeMs)));
+        }
+    }
+
+    // Any thread
+    private void appendFindingToEmergency(String findingId, String imageRef, double lat, double lng, long timeMs) {
+        // Create a finding document directly in the findings collection
+        FirestoreTemplates.Finding finding = new FirestoreTemplates.Finding(mEmergencyId,
+            "Drone photo from Android", mUserId, lat, lng, imageRef, timeMs);
+
+        // The emergency timestamp rides in the same batch as the finding
+        updateEmergencyTimestamp(mEmergencyId);
+        mWriteBatcher.enqueue(FirestoreWrite.create("findings", findingId, finding)
+            .setPriority(FirestoreWrite.PRIORITY_HIGH)
+            .setCallback(new FirestoreWrite.Callback() {
+                @Override public void onResult(boolean success, String error) {
+                    if (success) {
                         showToast("Finding reported");
-                        
-                        // After successful finding creation, update the emergency's updatedAt field
-                        updateEmergencyTimestamp(mEmergencyId);
                     } else {
-                        showToast("Finding error " + r.code());
-                        Log.e(TAG, "Error response: " + r.body().string());
+                        showToast("Add finding failed");
+                        Log.e(TAG, "Failed to add finding: " + error);
                     }
-                    r.close();
                 }
-            });
-        } catch (JSONException ex) {
-            showToast("JSON parse err");
-            Log.e(TAG, "JSON error in creating finding", ex);
-        }
+            }));
     }
 
     private void showToast(final String msg) {
@@ -378,54 +864,34 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
         });
     }
 
-    // Helper method to update the emergency's timestamp after adding a finding
+    // Helper method to update the emergency's timestamp alongside a new finding
     private void updateEmergencyTimestamp(String emergencyId) {
-        try {
-            JSONObject fields = new JSONObject();
-            fields.put("updatedAt", new JSONObject()
-                .put("timestampValue", new Date().toInstant().toString())
-            );
-
-            String url = FIRESTORE_BASE_URL
-                + "/emergencies/" + emergencyId
-                + "?updateMask.fieldPaths=updatedAt";
-
-            Request req = new Request.Builder()
-                .url(url)
-                .patch(RequestBody.create(
-                    new JSONObject().put("fields", fields).toString(), JSON
-                ))
-                .addHeader("Authorization", "Bearer " + mAuthToken)
-                .build();
-
-            mOkHttpClient.newCall(req).enqueue(new Callback() {
-                @Override public void onFailure(Call c, IOException e) {
-                    Log.e(TAG, "Failed to update emergency timestamp", e);
-                }
-                
-                @Override public void onResponse(Call c, Response r) throws IOException {
-                    if (!r.isSuccessful()) {
-                        Log.e(TAG, "Error updating emergency: " + r.code());
-                    }
-                    r.close();
-                }
-            });
-        } catch (JSONException ex) {
-            Log.e(TAG, "JSON error in updateEmergencyTimestamp", ex);
-        }
+        mWriteBatcher.enqueue(FirestoreWrite.update("emergencies/" + emergencyId,
+            new FirestoreTemplates.EmergencyTimestamp(System.currentTimeMillis()),
+            FirestoreTemplates.EmergencyTimestamp.FIELD_PATHS));
     }
     
     @Override public void onSurfaceTextureAvailable(SurfaceTexture s, int w, int h) {
-        if (mCodecManager == null) mCodecManager = new DJICodecManager(this, s, w, h);
+        if (mCodecManager == null) {
+            mCodecManager = new DJICodecManager(this, s, w, h);
+            attachYuvTap();
+        }
         VideoFeeder.getInstance().getPrimaryVideoFeed().addVideoDataListener(mVideoDataListener);
     }
     @Override public void onSurfaceTextureSizeChanged(SurfaceTexture s, int w, int h) {
         if (mCodecManager != null) {
             mCodecManager.cleanSurface();
             mCodecManager = new DJICodecManager(this, s, w, h);
+            attachYuvTap();
         }
     }
+    private void attachYuvTap() {
+        // YUV output itself stays off until a capture asks the tap for a frame
+        if (mYuvTap != null) mCodecManager.setYuvDataCallback(mYuvTap);
+    }
     @Override public boolean onSurfaceTextureDestroyed(SurfaceTexture s) {
+        if (mCapturePipeline != null) mCapturePipeline.releaseSurface();
+        if (mFrameSampler != null) mFrameSampler.releaseSurface();
         if (mCodecManager != null) {
             mCodecManager.cleanSurface();
             mCodecManager = null;
@@ -437,16 +903,68 @@ public class DroneWatchActivity extends Activity implements TextureView.SurfaceT
     @Override protected void onResume() {
         super.onResume();
         if (mVideoSurface != null) mVideoSurface.setSurfaceTextureListener(this);
-        if (mLocationTimer == null) startLocationUpdates();
+        if (!mUplinkEnabled) startLocationUpdates();
+        mHandler.post(mOverlayUpdater);
+        if (mFrameSampler != null) mFrameSampler.start();
     }
     @Override protected void onPause() {
         super.onPause();
         VideoFeeder.getInstance().getPrimaryVideoFeed().removeVideoDataListener(mVideoDataListener);
-        if (mLocationTimer != null) { mLocationTimer.cancel(); mLocationTimer = null; }
+        stopLocationUpdates();
+        mHandler.removeCallbacks(mOverlayUpdater);
+        if (mFrameSampler != null) mFrameSampler.stop();
     }
     @Override protected void onDestroy() {
         super.onDestroy();
-        if (mLocationTimer != null) { mLocationTimer.cancel(); mLocationTimer = null; }
+        stopLocationUpdates();
+        if (mFlightController != null) mFlightController.setStateCallback(null);
+        if (mBattery != null) mBattery.setStateCallback(null);
+        if (mGimbal != null) mGimbal.setStateCallback(null);
+        if (mDisplayModeKey != null) KeyManager.getInstance().removeListener(mDisplayModeListener);
+        if (mTelemetryRecorder != null) mTelemetryRecorder.stop();
+        stopReplay();
+        stopLanServer();
+        if (mStreamRecorder != null) {
+            VideoFeeder.getInstance().getPrimaryVideoFeed().removeVideoDataListener(mRecorderListener);
+            mStreamRecorder.stop();
+            Log.i(TAG, "Stream recording: " + mStreamRecorder.getStats());
+        }
+        // Before the batcher shuts down, so the final chunk still makes it into the outbox
+        if (mBreadcrumbTrack != null) mBreadcrumbTrack.stop();
+        if (mNetworkCallback != null) {
+            ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm != null) cm.unregisterNetworkCallback(mNetworkCallback);
+            mNetworkCallback = null;
+        }
+        if (mHandler != null) {
+            mHandler.removeCallbacks(mCoverageUploader);
+            // Whatever changed since the last round still goes out with the batcher's final flush
+            uploadCoverage();
+        }
+        if (mFrameSampler != null) mFrameSampler.shutdown();
+        if (mAnalysisPipeline != null) {
+            mAnalysisPipeline.shutdown();
+            Log.i(TAG, "Frame analysis: " + mAnalysisPipeline.getStats());
+        }
+        if (mYuvTap != null) mYuvTap.shutdown();
+        if (mCapturePipeline != null) {
+            mCapturePipeline.shutdown();
+            Log.i(TAG, "Frame capture: " + mCapturePipeline.getStats());
+        }
+        // The batcher goes once the uploader is done, so a photo finishing now still gets its flag
+        // into the outbox
+        final FirestoreWriteBatcher batcher = mWriteBatcher;
+        if (mImageUploader != null) {
+            mImageUploader.shutdown(new Runnable() {
+                @Override
+                public void run() {
+                    if (batcher != null) batcher.shutdown();
+                }
+            });
+        } else if (batcher != null) {
+            batcher.shutdown();
+        }
+        DroneWatchApiClient.getInstance().logStats();
         if (mCodecManager != null) { mCodecManager.cleanSurface(); mCodecManager = null; }
         VideoFeeder.getInstance().getPrimaryVideoFeed().removeVideoDataListener(mVideoDataListener);
     }
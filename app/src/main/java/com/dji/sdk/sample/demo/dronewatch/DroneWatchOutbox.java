@@ -0,0 +1,321 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.util.Log;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe, append-only on-disk log of outgoing Firestore writes.
+ * <p>
+ * Every write is appended as a PUT record before it is sent and an ACK record is appended
+ * once the server has taken it. Records are framed as {@code length | crc32 | type | id | payload}
+ * inside numbered segment files; a torn tail left by a crash fails its CRC and is cut off on
+ * the next {@link #open()}. Records are written without syncing: {@link #sync()} forces
+ * everything since the last call to disk at once, so a batch of writes and their ACKs cost one
+ * fsync each rather than one per record. Sealed segments are deleted oldest first as soon as every PUT in
+ * them has been acknowledged; deleting strictly in order keeps every ACK on disk for as long
+ * as the PUT it cancels. If an old unacknowledged write pins too many segments behind it, its
+ * record is copied forward into the active segment so the head can be dropped.
+ * <p>
+ * Not thread safe: {@link FirestoreWriteBatcher} only touches it from its worker thread.
+ */
+public class DroneWatchOutbox {
+    private static final String TAG = "DroneWatchOutbox";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_ACK = 2;
+    private static final int  HEADER_SIZE = 4 + 4;
+    private static final int  BODY_PREFIX = 1 + 8;
+    private static final int  MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final long SEGMENT_ROLL_BYTES = 1024 * 1024;
+    private static final int  MAX_SEALED_SEGMENTS = 8;
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final File mDir;
+    private final CRC32 mCrc = new CRC32();
+    private final ByteBuffer mHeader = ByteBuffer.allocate(HEADER_SIZE + BODY_PREFIX);
+
+    // id -> segment number holding its PUT, for every record not yet acknowledged
+    private final Map<Long, Long> mLiveIds = new HashMap<>();
+    // segment number -> number of live PUTs in it, for every segment still on disk
+    private final TreeMap<Long, Integer> mLiveCounts = new TreeMap<>();
+
+    private FileChannel mActive;
+    private long mActiveSegment;
+    private long mNextId = 1;
+    // Records written to the active segment since it was last forced
+    private boolean mUnsynced;
+
+    public DroneWatchOutbox(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * Scans existing segments, drops fully acknowledged ones and returns the payloads of
+     * every unacknowledged write, keyed and ordered by id (which is append order).
+     */
+    public TreeMap<Long, String> open() throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Cannot create outbox dir " + mDir);
+        }
+        TreeMap<Long, String> pending = new TreeMap<>();
+        long[] segments = listSegments();
+        for (long segment : segments) {
+            mLiveCounts.put(segment, 0);
+            readSegment(segment, pending);
+        }
+        mActiveSegment = segments.length == 0 ? 1 : segments[segments.length - 1];
+        openActive();
+        deleteDeadHead();
+        return pending;
+    }
+
+    /**
+     * Writes a record and returns its id; it survives a crash once {@link #sync()} returns.
+     */
+    public long append(String payload) throws IOException {
+        long id = mNextId++;
+        put(id, payload.getBytes(UTF_8));
+        return id;
+    }
+
+    /**
+     * Marks a write as taken by the server; its segment is deleted once nothing in it is live.
+     * Until the next {@link #sync()} a crash may still replay it.
+     */
+    public void ack(long id) throws IOException {
+        Long segment = mLiveIds.remove(id);
+        if (segment == null) return;
+        writeRecord(TYPE_ACK, id, new byte[0]);
+        mLiveCounts.put(segment, mLiveCounts.get(segment) - 1);
+        deleteDeadHead();
+    }
+
+    /**
+     * Forces every record written since the last sync to disk.
+     */
+    public void sync() throws IOException {
+        if (mActive == null || !mUnsynced) return;
+        mActive.force(false);
+        mUnsynced = false;
+    }
+
+    public int size() {
+        return mLiveIds.size();
+    }
+
+    public void close() {
+        if (mActive == null) return;
+        try {
+            sync();
+            mActive.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Closing outbox segment failed", e);
+        }
+        mActive = null;
+    }
+
+    private void put(long id, byte[] payload) throws IOException {
+        // Register before writing: the write may roll and compact, which must see this record
+        mLiveIds.put(id, mActiveSegment);
+        mLiveCounts.put(mActiveSegment, mLiveCounts.get(mActiveSegment) + 1);
+        long segment = mActiveSegment;
+        try {
+            writeRecord(TYPE_PUT, id, payload);
+        } catch (IOException e) {
+            mLiveIds.remove(id);
+            mLiveCounts.put(segment, mLiveCounts.get(segment) - 1);
+            throw e;
+        }
+    }
+
+    private void writeRecord(byte type, long id, byte[] payload) throws IOException {
+        if (mActive == null) throw new IOException("Outbox not open");
+        mCrc.reset();
+        mHeader.clear();
+        mHeader.position(HEADER_SIZE);
+        mHeader.put(type).putLong(id);
+        mCrc.update(mHeader.array(), HEADER_SIZE, BODY_PREFIX);
+        mCrc.update(payload, 0, payload.length);
+        mHeader.putInt(0, BODY_PREFIX + payload.length);
+        mHeader.putInt(4, (int) mCrc.getValue());
+        mHeader.flip();
+        ByteBuffer[] record = {mHeader, ByteBuffer.wrap(payload)};
+        while (mHeader.hasRemaining() || record[1].hasRemaining()) {
+            mActive.write(record);
+        }
+        mUnsynced = true;
+        if (mActive.size() >= SEGMENT_ROLL_BYTES) {
+            roll();
+        }
+    }
+
+    private void roll() throws IOException {
+        // A sealed segment is complete on disk
+        sync();
+        mActive.close();
+        mActiveSegment++;
+        openActive();
+        deleteDeadHead();
+        if (mLiveCounts.size() - 1 > MAX_SEALED_SEGMENTS) {
+            relocateHead();
+        }
+    }
+
+    private void openActive() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segmentFile(mActiveSegment), "rw");
+        mActive = raf.getChannel();
+        mActive.position(mActive.size());
+        if (!mLiveCounts.containsKey(mActiveSegment)) {
+            mLiveCounts.put(mActiveSegment, 0);
+        }
+    }
+
+    private void deleteDeadHead() {
+        Iterator<Map.Entry<Long, Integer>> it = mLiveCounts.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, Integer> e = it.next();
+            if (e.getKey() == mActiveSegment || e.getValue() > 0) return;
+            it.remove();
+            File f = segmentFile(e.getKey());
+            if (f.exists() && !f.delete()) {
+                Log.w(TAG, "Could not delete acknowledged segment " + f);
+            }
+        }
+    }
+
+    /**
+     * Copies the live records of the oldest segment into the active one under their original
+     * ids, so the oldest segment and the dead ones behind it can be deleted.
+     */
+    private void relocateHead() throws IOException {
+        long head = mLiveCounts.firstKey();
+        LinkedHashMap<Long, String> records = new LinkedHashMap<>();
+        readSegment(head, records, false);
+        for (Map.Entry<Long, String> e : records.entrySet()) {
+            Long owner = mLiveIds.get(e.getKey());
+            if (owner == null || owner != head) continue;
+            mLiveCounts.put(head, mLiveCounts.get(head) - 1);
+            put(e.getKey(), e.getValue().getBytes(UTF_8));
+        }
+        // The copies are on disk before the originals go
+        sync();
+        deleteDeadHead();
+    }
+
+    private void readSegment(long segment, Map<Long, String> pending) throws IOException {
+        readSegment(segment, pending, true);
+    }
+
+    /**
+     * @param index true while opening: track ids and live counts and cut off a torn tail
+     */
+    private void readSegment(long segment, Map<Long, String> pending, boolean index) throws IOException {
+        File f = segmentFile(segment);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            long goodEnd = 0;
+            while (true) {
+                header.clear();
+                try {
+                    readFully(ch, header, goodEnd);
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = header.getInt(0);
+                int crc = header.getInt(4);
+                if (length < BODY_PREFIX || length > MAX_RECORD_SIZE) break;
+                ByteBuffer body = ByteBuffer.allocate(length);
+                try {
+                    readFully(ch, body, goodEnd + HEADER_SIZE);
+                } catch (EOFException e) {
+                    break;
+                }
+                mCrc.reset();
+                mCrc.update(body.array(), 0, length);
+                if ((int) mCrc.getValue() != crc) break;
+
+                byte type = body.get(0);
+                long id = body.getLong(1);
+                if (type == TYPE_PUT) {
+                    pending.put(id, new String(body.array(), BODY_PREFIX, length - BODY_PREFIX, UTF_8));
+                } else if (type == TYPE_ACK) {
+                    pending.remove(id);
+                }
+                if (index) indexRecord(type, id, segment);
+                goodEnd += HEADER_SIZE + length;
+            }
+            if (index && goodEnd < ch.size()) {
+                Log.w(TAG, "Truncating torn tail of " + f + " at " + goodEnd);
+                ch.truncate(goodEnd);
+            }
+        }
+    }
+
+    private void indexRecord(byte type, long id, long segment) {
+        mNextId = Math.max(mNextId, id + 1);
+        if (type == TYPE_PUT) {
+            // A relocated record appears twice; the later copy owns it
+            Long previous = mLiveIds.put(id, segment);
+            if (previous != null) mLiveCounts.put(previous, mLiveCounts.get(previous) - 1);
+            mLiveCounts.put(segment, mLiveCounts.get(segment) + 1);
+        } else if (type == TYPE_ACK) {
+            Long owner = mLiveIds.remove(id);
+            if (owner != null) mLiveCounts.put(owner, mLiveCounts.get(owner) - 1);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = ch.read(dst, position + dst.position());
+            if (n < 0) throw new EOFException();
+        }
+        dst.flip();
+    }
+
+    private long[] listSegments() {
+        File[] files = mDir.listFiles();
+        List<Long> numbers = new ArrayList<>();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) continue;
+                try {
+                    numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        long[] result = new long[numbers.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = numbers.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private File segmentFile(long segment) {
+        return new File(mDir, String.format(Locale.US, "%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+}
@@ -0,0 +1,180 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Remembers the findings captured this mission so a repeat capture of the same spot can be
+ * caught before its photo goes up. A new capture repeats an earlier one when their
+ * {@link PerceptualHash}es are within a few bits and they were taken within a short distance of
+ * each other.
+ * <p>
+ * Findings are bucketed by {@link Geohash} cell, with cells at least as wide as the distance
+ * limit, so a lookup only searches the cell of the new capture and its eight neighbours. Within
+ * a cell the hashes sit in a BK-tree, in primitive arrays, whose triangle-inequality pruning
+ * skips most of the cell when looking for hashes within a Hamming distance. Lookups stay well
+ * under a millisecond with thousands of findings.
+ */
+public class FindingDedupIndex {
+
+    // 7 characters: cells about 150 m tall and 150 m * cos(latitude) wide
+    private static final int GEOHASH_PRECISION = 7;
+    private static final double EARTH_RADIUS_M = 6371008.8;
+    private static final int INITIAL_CAPACITY  = 64;
+
+    /**
+     * An earlier capture a new one repeats.
+     */
+    public static final class Match {
+        public final String findingId;
+        public final int    hammingDistance;
+        public final double distanceM;
+
+        Match(String findingId, int hammingDistance, double distanceM) {
+            this.findingId       = findingId;
+            this.hammingDistance = hammingDistance;
+            this.distanceM       = distanceM;
+        }
+    }
+
+    private final int mMaxDistance;
+    private final double mRadiusM;
+    private final HashMap<String, BkTree> mCells = new HashMap<>();
+    private int mSize;
+
+    /**
+     * @param maxDistance most differing hash bits for two captures to count as the same
+     * @param radiusM     furthest apart two captures of the same spot can be; keep it well
+     *                    below the cell width
+     */
+    public FindingDedupIndex(int maxDistance, double radiusM) {
+        mMaxDistance = maxDistance;
+        mRadiusM = radiusM;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * The earlier capture closest in hash that this one repeats, or null if it is new.
+     */
+    public synchronized Match findDuplicate(long hash, double latitude, double longitude) {
+        BkTree bestTree = null;
+        int best = -1;
+        int bestDistance = mMaxDistance + 1;
+        for (String cell : Geohash.withNeighbours(latitude, longitude, GEOHASH_PRECISION)) {
+            BkTree tree = mCells.get(cell);
+            if (tree == null) continue;
+            int i = tree.nearest(hash, bestDistance - 1, latitude, longitude, mRadiusM);
+            if (i < 0) continue;
+            bestTree = tree;
+            best = i;
+            bestDistance = PerceptualHash.distance(hash, tree.mHashes[i]);
+            if (bestDistance == 0) break;
+        }
+        if (bestTree == null) return null;
+        return new Match(bestTree.mIds[best], bestDistance,
+            distanceM(latitude, longitude, bestTree.mLatitudes[best], bestTree.mLongitudes[best]));
+    }
+
+    public synchronized void add(String findingId, long hash, double latitude, double longitude) {
+        String cell = Geohash.encode(latitude, longitude, GEOHASH_PRECISION);
+        BkTree tree = mCells.get(cell);
+        if (tree == null) {
+            tree = new BkTree();
+            mCells.put(cell, tree);
+        }
+        tree.add(findingId, hash, latitude, longitude);
+        mSize++;
+    }
+
+    static double distanceM(double lat1, double lng1, double lat2, double lng2) {
+        // Equirectangular: exact enough over tens of metres
+        double x = Math.toRadians(lng2 - lng1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_M;
+    }
+
+    /**
+     * Node 0 is the root. Children hang off a node in a singly linked list, each labelled with its
+     * hash distance to the parent, which is unique among siblings.
+     */
+    private static final class BkTree {
+        private long[]   mHashes      = new long[INITIAL_CAPACITY];
+        private String[] mIds         = new String[INITIAL_CAPACITY];
+        private double[] mLatitudes   = new double[INITIAL_CAPACITY];
+        private double[] mLongitudes  = new double[INITIAL_CAPACITY];
+        private int[]    mFirstChild  = new int[INITIAL_CAPACITY];
+        private int[]    mNextSibling = new int[INITIAL_CAPACITY];
+        private byte[]   mEdge        = new byte[INITIAL_CAPACITY];
+        private int[]    mStack       = new int[INITIAL_CAPACITY];
+        private int mCount;
+
+        void add(String id, long hash, double latitude, double longitude) {
+            if (mCount == mHashes.length) grow();
+            int n = mCount++;
+            mHashes[n] = hash;
+            mIds[n] = id;
+            mLatitudes[n] = latitude;
+            mLongitudes[n] = longitude;
+            mFirstChild[n] = -1;
+            mNextSibling[n] = -1;
+            if (n == 0) return;
+
+            int node = 0;
+            while (true) {
+                int d = PerceptualHash.distance(hash, mHashes[node]);
+                int child = mFirstChild[node];
+                while (child >= 0 && mEdge[child] != d) child = mNextSibling[child];
+                if (child < 0) {
+                    mEdge[n] = (byte) d;
+                    mNextSibling[n] = mFirstChild[node];
+                    mFirstChild[node] = n;
+                    return;
+                }
+                node = child;
+            }
+        }
+
+        /**
+         * Index of the node closest in hash, within {@code maxDistance} bits and
+         * {@code radiusM} metres, or -1.
+         */
+        int nearest(long hash, int maxDistance, double latitude, double longitude, double radiusM) {
+            if (mCount == 0 || maxDistance < 0) return -1;
+            int best = -1;
+            int limit = maxDistance;
+            int top = 0;
+            mStack[top++] = 0;
+            while (top > 0) {
+                int node = mStack[--top];
+                int d = PerceptualHash.distance(hash, mHashes[node]);
+                if (d <= limit && distanceM(latitude, longitude, mLatitudes[node], mLongitudes[node]) <= radiusM) {
+                    best = node;
+                    // Only something closer is of interest from here on
+                    limit = d - 1;
+                    if (limit < 0) break;
+                }
+                // Any match below a child labelled e is at least |d - e| away
+                for (int child = mFirstChild[node]; child >= 0; child = mNextSibling[child]) {
+                    int e = mEdge[child];
+                    if (e >= d - limit && e <= d + limit) mStack[top++] = child;
+                }
+            }
+            return best;
+        }
+
+        private void grow() {
+            int size = mHashes.length * 2;
+            mHashes      = Arrays.copyOf(mHashes, size);
+            mIds         = Arrays.copyOf(mIds, size);
+            mLatitudes   = Arrays.copyOf(mLatitudes, size);
+            mLongitudes  = Arrays.copyOf(mLongitudes, size);
+            mFirstChild  = Arrays.copyOf(mFirstChild, size);
+            mNextSibling = Arrays.copyOf(mNextSibling, size);
+            mEdge        = Arrays.copyOf(mEdge, size);
+            mStack       = Arrays.copyOf(mStack, size);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Uploads finding photos to Firebase Storage with the resumable upload protocol
+ * ({@code X-Goog-Upload-*} headers), so the finding document only has to carry a
+ * {@code gs://} reference instead of the image itself.
+ * <p>
+ * The JPEG is written to {@link #newImageFile} first and streamed from there a chunk at a time;
+ * it is never held in memory whole. That file only becomes an image to upload once
+ * {@link #upload} is called for it, so a photo whose finding was never recorded is not sent.
+ * The session URL is kept in a {@code .session} file beside the image, so an upload cut off by
+ * a dropped link, or by the app being killed, carries on from the last byte the server
+ * confirmed. Images stay on disk until the finding's record of the upload is stored, and
+ * {@link #resumePending()} picks up whatever is left.
+ */
+public class FindingImageUploader {
+    private static final String TAG = "FindingImageUploader";
+
+    private static final MediaType JPEG = MediaType.parse("image/jpeg");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // The server asks for chunks in multiples of its granularity (256 KiB); this is the default
+    private static final long CHUNK_SIZE = 512 * 1024;
+    private static final int  MAX_ATTEMPTS = 6;
+    private static final long RETRY_MIN_MS = 1000;
+    private static final long RETRY_MAX_MS = 30000;
+
+    private static final String IMAGE_SUFFIX   = ".jpg";
+    private static final String SESSION_SUFFIX = ".session";
+    // Written but not yet handed to upload()
+    private static final String PENDING_SUFFIX = ".tmp";
+    // A pending image this old was left by a capture that never completed
+    private static final long STALE_PENDING_MS = TimeUnit.MINUTES.toMillis(10);
+
+    public interface Listener {
+        /**
+         * The image of this finding is now in Storage. Called on the uploader thread; run
+         * {@code stored} once the finding's record of that is safe on disk, and the local copy
+         * is deleted. Until then the image stays, and is uploaded again next session.
+         */
+        void onUploaded(String findingId, String imageRef, Runnable stored);
+    }
+
+    private final DroneWatchApiClient mApi;
+    private final File mDir;
+    private final Listener mListener;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    // Uploaded, with the local copy kept until the listener says the finding records it
+    private final Set<String> mUploaded = Collections.synchronizedSet(new HashSet<String>());
+    private volatile boolean mStopping;
+
+    public FindingImageUploader(DroneWatchApiClient api, File dir, Listener listener) {
+        mApi      = api;
+        mDir      = dir;
+        mListener = listener;
+    }
+
+    /**
+     * Where to write the JPEG for a finding before calling {@link #upload}; until then it is
+     * not picked up by {@link #resumePending()}.
+     */
+    public File newImageFile(String findingId) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Cannot create " + mDir);
+        }
+        return new File(mDir, findingId + IMAGE_SUFFIX + PENDING_SUFFIX);
+    }
+
+    public static String objectName(String findingId) {
+        return "findings/" + findingId + IMAGE_SUFFIX;
+    }
+
+    /**
+     * The reference stored in the finding document.
+     */
+    public static String imageRef(String findingId) {
+        return "gs://" + DroneWatchApiClient.STORAGE_BUCKET + "/" + objectName(findingId);
+    }
+
+    /**
+     * Makes the image from {@link #newImageFile} final and queues it. Call once the finding it
+     * belongs to has been recorded.
+     */
+    public void upload(String findingId) {
+        File pending = new File(mDir, findingId + IMAGE_SUFFIX + PENDING_SUFFIX);
+        if (pending.isFile() && !pending.renameTo(new File(mDir, findingId + IMAGE_SUFFIX))) {
+            Log.e(TAG, "Cannot finalize image of " + findingId);
+            return;
+        }
+        queue(findingId);
+    }
+
+    /**
+     * Queues every image still waiting on disk, e.g. at start-up or once the network is back.
+     */
+    public void resumePending() {
+        File[] files = mDir.listFiles();
+        if (files == null) return;
+        long staleBefore = System.currentTimeMillis() - STALE_PENDING_MS;
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(IMAGE_SUFFIX)) {
+                queue(name.substring(0, name.length() - IMAGE_SUFFIX.length()));
+            } else if (name.endsWith(PENDING_SUFFIX) && f.lastModified() < staleBefore) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Lets the current upload finish its attempt, then runs {@code andThen} on the uploader
+     * thread; what is not done stays on disk for next time. Whatever the listener hands its
+     * uploads to should be shut down in {@code andThen}, so the last one still reaches it.
+     */
+    public void shutdown(final Runnable andThen) {
+        mStopping = true;
+        try {
+            mExecutor.execute(andThen);
+        } catch (RejectedExecutionException e) {
+            andThen.run();
+        }
+        mExecutor.shutdown();
+    }
+
+    private void queue(final String findingId) {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    uploadNow(findingId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down meanwhile; the image stays on disk for resumePending()
+            Log.w(TAG, "Not uploading " + findingId + " after shutdown");
+        }
+    }
+
+    private void uploadNow(String findingId) {
+        File image = new File(mDir, findingId + IMAGE_SUFFIX);
+        File session = new File(mDir, findingId + SESSION_SUFFIX);
+        // resumePending() and a connectivity change may both have queued it
+        if (mStopping || !image.isFile() || mUploaded.contains(findingId)) return;
+
+        long size = image.length();
+        String sessionUrl = readSession(session);
+        long offset = 0;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                if (sessionUrl == null) {
+                    sessionUrl = startSession(findingId, size);
+                    writeSession(session, sessionUrl);
+                    offset = 0;
+                } else {
+                    offset = queryOffset(sessionUrl);
+                    if (offset < 0) {
+                        // Session expired or unknown to the server: start over
+                        sessionUrl = null;
+                        session.delete();
+                        continue;
+                    }
+                    if (offset >= size) {
+                        // Finished last time, but the finding never recorded it
+                        uploaded(findingId, image, session);
+                        return;
+                    }
+                }
+                while (true) {
+                    long length = Math.min(CHUNK_SIZE, size - offset);
+                    boolean last = offset + length >= size;
+                    if (sendChunk(sessionUrl, image, offset, length, last)) {
+                        Log.i(TAG, "Uploaded " + objectName(findingId) + " (" + size + " bytes)");
+                        uploaded(findingId, image, session);
+                        return;
+                    }
+                    offset += length;
+                    // Progress was made: the failure count starts over
+                    attempt = 1;
+                }
+            } catch (IOException e) {
+                if (attempt == MAX_ATTEMPTS || mStopping) break;
+                long delay = Math.max(RETRY_MIN_MS,
+                    DroneWatchApiClient.backoffDelayMs(attempt, RETRY_MIN_MS, RETRY_MAX_MS));
+                Log.w(TAG, "Upload of " + findingId + " interrupted at " + offset + "/" + size
+                    + ", retrying in " + delay + " ms", e);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        Log.e(TAG, "Giving up on " + findingId + " for now; it stays queued on disk");
+    }
+
+    // The image and its session stay until the flag on the finding is stored; should that never
+    // happen, the next session uploads it again and sets the flag then
+    private void uploaded(final String findingId, final File image, final File session) {
+        mUploaded.add(findingId);
+        mListener.onUploaded(findingId, imageRef(findingId), new Runnable() {
+            @Override
+            public void run() {
+                image.delete();
+                session.delete();
+                mUploaded.remove(findingId);
+            }
+        });
+    }
+
+    private String startSession(String findingId, final long size) throws IOException {
+        String url;
+        try {
+            url = mApi.storageObjectsUrl() + "?name=" + URLEncoder.encode(objectName(findingId), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IOException(e);
+        }
+        final String objectName = objectName(findingId);
+        Request request = mApi.storageRequest(url)
+            .header("X-Goog-Upload-Protocol", "resumable")
+            .header("X-Goog-Upload-Command", "start")
+            .header("X-Goog-Upload-Header-Content-Length", Long.toString(size))
+            .header("X-Goog-Upload-Header-Content-Type", "image/jpeg")
+            .post(new FirestoreJsonWriter.Body() {
+                @Override
+                protected void write(FirestoreJsonWriter out) throws IOException {
+                    out.beginObject()
+                        .name("name").value(objectName)
+                        .name("contentType").value("image/jpeg")
+                        .endObject();
+                }
+            })
+            .build();
+        Response response = mApi.httpClient().newCall(request).execute();
+        try {
+            String sessionUrl = response.header("X-Goog-Upload-URL");
+            if (!response.isSuccessful() || sessionUrl == null) {
+                throw new IOException("Upload start failed: HTTP " + response.code());
+            }
+            return sessionUrl;
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * @return bytes the server already has, or -1 if the session is gone
+     */
+    private long queryOffset(String sessionUrl) throws IOException {
+        Request request = mApi.storageRequest(sessionUrl)
+            .header("X-Goog-Upload-Protocol", "resumable")
+            .header("X-Goog-Upload-Command", "query")
+            .post(RequestBody.create(new byte[0], null))
+            .build();
+        Response response = mApi.httpClient().newCall(request).execute();
+        try {
+            if (response.code() == 404 || response.code() == 410) return -1;
+            String received = response.header("X-Goog-Upload-Size-Received");
+            if (!response.isSuccessful() || received == null) {
+                throw new IOException("Upload query failed: HTTP " + response.code());
+            }
+            return Long.parseLong(received.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad upload offset", e);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * @return true once the server reports the upload final
+     */
+    private boolean sendChunk(String sessionUrl, File image, long offset, long length, boolean last)
+        throws IOException {
+        Request request = mApi.storageRequest(sessionUrl)
+            .header("X-Goog-Upload-Protocol", "resumable")
+            .header("X-Goog-Upload-Command", last ? "upload, finalize" : "upload")
+            .header("X-Goog-Upload-Offset", Long.toString(offset))
+            .post(new FileRangeBody(image, offset, length))
+            .build();
+        Response response = mApi.httpClient().newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Chunk at " + offset + " failed: HTTP " + response.code());
+            }
+            return "final".equals(response.header("X-Goog-Upload-Status"));
+        } finally {
+            response.close();
+        }
+    }
+
+    private static String readSession(File session) {
+        if (!session.isFile()) return null;
+        try (InputStream in = new FileInputStream(session)) {
+            byte[] buf = new byte[(int) session.length()];
+            int n = 0;
+            while (n < buf.length) {
+                int read = in.read(buf, n, buf.length - n);
+                if (read < 0) break;
+                n += read;
+            }
+            String url = new String(buf, 0, n, UTF_8).trim();
+            return url.isEmpty() ? null : url;
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable upload session " + session, e);
+            return null;
+        }
+    }
+
+    private static void writeSession(File session, String url) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(session)) {
+            out.write(url.getBytes(UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Streams {@code length} bytes of a file from {@code offset}; OkHttp may call it again on a retry.
+     */
+    private static final class FileRangeBody extends RequestBody {
+        private final File mFile;
+        private final long mOffset;
+        private final long mLength;
+
+        FileRangeBody(File file, long offset, long length) {
+            mFile   = file;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JPEG;
+        }
+
+        @Override
+        public long contentLength() {
+            return mLength;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            try (FileInputStream in = new FileInputStream(mFile)) {
+                in.getChannel().position(mOffset);
+                Source source = Okio.source(in);
+                sink.write(source, mLength);
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.FormBody;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Keeps the Firebase ID token fresh for the whole mission. Firebase ID tokens live for an hour;
+ * the refresh token from sign-in is exchanged for a new one at the secure-token endpoint a few
+ * minutes before that, on a background thread, so calls never see an expired token in the first
+ * place. Should one still be rejected (clock skew, revoked token), {@link DroneWatchApiClient}
+ * asks for a refresh and replays the call.
+ * <p>
+ * Refreshes are single-flight: however many calls need a new token at once, one request goes
+ * out and the rest wait for its result. No lock is held while it is out, so the session can be
+ * checked, saved or cleared from the main thread meanwhile. The session is kept in {@code aeroaid_prefs} next to the
+ * rest of the login state, so it survives restarts.
+ */
+public class FirebaseTokenManager implements DroneWatchApiClient.TokenSource {
+    private static final String TAG = "FirebaseTokenManager";
+
+    private static final String PREF_FILE          = "aeroaid_prefs";
+    private static final String PREF_TOKEN         = "auth_token";
+    private static final String PREF_REFRESH_TOKEN = "refresh_token";
+    private static final String PREF_EXPIRES_AT    = "token_expires_at";
+
+    // Refresh this long before expiry in the background; block callers only inside the last minute
+    private static final long REFRESH_AHEAD_MS = 5 * 60 * 1000;
+    private static final long EXPIRY_SLACK_MS  = 60 * 1000;
+    private static final long RETRY_MIN_MS     = 5000;
+    private static final long RETRY_MAX_MS     = 60000;
+
+    private static final String[] REFRESH_FIELDS = { "id_token", "refresh_token", "expires_in" };
+
+    private static FirebaseTokenManager sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final DroneWatchApiClient mApi;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Object mRefreshLock = new Object();
+
+    private volatile String mIdToken;
+    private volatile long   mExpiresAtMs;
+    private volatile String mRefreshToken;
+
+    // Guarded by mRefreshLock
+    private ScheduledFuture<?> mScheduledRefresh;
+    private int mFailedRefreshes;
+    // The refresh under way, if any; a refresh that finds one waits for it instead
+    private FutureTask<String> mRefresh;
+    // Bumped by saveSession() and clearSession(), so a refresh already out cannot undo them
+    private int mSession;
+
+    /**
+     * The process-wide manager; the first call also installs it as the token source of the
+     * shared {@link DroneWatchApiClient}.
+     */
+    public static synchronized FirebaseTokenManager getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FirebaseTokenManager(
+                context.getApplicationContext().getSharedPreferences(PREF_FILE, Context.MODE_PRIVATE),
+                DroneWatchApiClient.getInstance());
+        }
+        return sInstance;
+    }
+
+    FirebaseTokenManager(SharedPreferences prefs, DroneWatchApiClient api) {
+        mPrefs = prefs;
+        mApi   = api;
+        synchronized (mRefreshLock) {
+            mIdToken      = prefs.getString(PREF_TOKEN, null);
+            mRefreshToken = prefs.getString(PREF_REFRESH_TOKEN, null);
+            mExpiresAtMs  = prefs.getLong(PREF_EXPIRES_AT, 0);
+            scheduleRefresh();
+        }
+        api.setTokenSource(this);
+    }
+
+    /**
+     * Stores the tokens from {@code signInWithPassword}.
+     *
+     * @param expiresInSec the {@code expiresIn} of the response, in seconds
+     */
+    public void saveSession(String idToken, String refreshToken, long expiresInSec) {
+        synchronized (mRefreshLock) {
+            mSession++;
+            store(idToken, refreshToken, expiresInSec);
+            mFailedRefreshes = 0;
+            scheduleRefresh();
+        }
+    }
+
+    public void clearSession() {
+        synchronized (mRefreshLock) {
+            mSession++;
+            mIdToken      = null;
+            mRefreshToken = null;
+            mExpiresAtMs  = 0;
+            cancelScheduledRefresh();
+            mPrefs.edit()
+                .remove(PREF_TOKEN)
+                .remove(PREF_REFRESH_TOKEN)
+                .remove(PREF_EXPIRES_AT)
+                .apply();
+        }
+    }
+
+    /**
+     * True when there is a token, or a refresh token to get one with.
+     */
+    public boolean hasSession() {
+        return mIdToken != null || mRefreshToken != null;
+    }
+
+    @Override
+    public String getToken() throws IOException {
+        String token = mIdToken;
+        if (token != null && System.currentTimeMillis() < mExpiresAtMs - EXPIRY_SLACK_MS) {
+            return token;
+        }
+        return refresh(token);
+    }
+
+    @Override
+    public String refreshRejected(String rejected) throws IOException {
+        return refresh(rejected);
+    }
+
+    /**
+     * Swaps the refresh token for a new ID token unless someone already replaced {@code stale}
+     * while this thread waited, in which case that newer token is returned. Joins a refresh that
+     * is already out rather than sending another.
+     */
+    private String refresh(String stale) throws IOException {
+        FutureTask<String> flight;
+        boolean mine = false;
+        synchronized (mRefreshLock) {
+            String current = mIdToken;
+            if (current != null && !current.equals(stale)
+                && System.currentTimeMillis() < mExpiresAtMs - EXPIRY_SLACK_MS) {
+                return current;
+            }
+            if (mRefreshToken == null) return current;
+            flight = mRefresh;
+            if (flight == null) {
+                final String refreshToken = mRefreshToken;
+                final int session = mSession;
+                flight = new FutureTask<>(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        return exchange(refreshToken, session);
+                    }
+                });
+                mRefresh = flight;
+                mine = true;
+            }
+        }
+        if (mine) {
+            // On this thread, outside the lock
+            flight.run();
+            synchronized (mRefreshLock) {
+                if (mRefresh == flight) mRefresh = null;
+            }
+        }
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a token refresh");
+        }
+    }
+
+    // Network I/O without mRefreshLock; the result is kept only if the session is still the one
+    // the refresh token came from
+    private String exchange(String refreshToken, int session) throws IOException {
+        Request request = new Request.Builder()
+            .url(mApi.secureTokenUrl())
+            .post(new FormBody.Builder()
+                .add("grant_type", "refresh_token")
+                .add("refresh_token", refreshToken)
+                .build())
+            .build();
+        String[] values = new String[REFRESH_FIELDS.length];
+        Response response = mApi.httpClient().newCall(request).execute();
+        try {
+            if (!response.isSuccessful()) {
+                String error = FirestoreResponseReader.readErrorMessage(response.body().charStream());
+                if (response.code() == 400 || response.code() == 403) {
+                    // TOKEN_EXPIRED, USER_DISABLED, INVALID_REFRESH_TOKEN...: only a new sign-in helps
+                    synchronized (mRefreshLock) {
+                        if (session != mSession) return mIdToken;
+                        Log.e(TAG, "Refresh token rejected (" + error + "), sign-in required");
+                        mRefreshToken = null;
+                        mPrefs.edit().remove(PREF_REFRESH_TOKEN).apply();
+                        cancelScheduledRefresh();
+                        return null;
+                    }
+                }
+                throw new IOException("Token refresh failed: HTTP " + response.code() + " " + error);
+            }
+            FirestoreResponseReader.readStrings(response.body().charStream(), REFRESH_FIELDS, values);
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Unreadable token refresh response", e);
+        } finally {
+            response.close();
+        }
+        if (values[0] == null || values[2] == null) {
+            throw new IOException("Token refresh response without a token");
+        }
+        long expiresIn;
+        try {
+            expiresIn = Long.parseLong(values[2]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad expires_in: " + values[2], e);
+        }
+        synchronized (mRefreshLock) {
+            // Signed out or in again while this was out
+            if (session != mSession) return mIdToken;
+            store(values[0], values[1] != null ? values[1] : refreshToken, expiresIn);
+            mFailedRefreshes = 0;
+            scheduleRefresh();
+        }
+        Log.i(TAG, "ID token refreshed, valid for " + expiresIn + " s");
+        return values[0];
+    }
+
+    // Called with mRefreshLock held
+    private void store(String idToken, String refreshToken, long expiresInSec) {
+        mIdToken      = idToken;
+        mRefreshToken = refreshToken;
+        mExpiresAtMs  = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresInSec);
+        mPrefs.edit()
+            .putString(PREF_TOKEN, idToken)
+            .putString(PREF_REFRESH_TOKEN, refreshToken)
+            .putLong(PREF_EXPIRES_AT, mExpiresAtMs)
+            .apply();
+    }
+
+    // Called with mRefreshLock held
+    private void scheduleRefresh() {
+        cancelScheduledRefresh();
+        if (mRefreshToken == null) return;
+        long delay = Math.max(0, mExpiresAtMs - REFRESH_AHEAD_MS - System.currentTimeMillis());
+        if (mFailedRefreshes > 0) {
+            delay = Math.max(RETRY_MIN_MS,
+                DroneWatchApiClient.backoffDelayMs(mFailedRefreshes, RETRY_MIN_MS, RETRY_MAX_MS));
+        }
+        mScheduledRefresh = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                refreshInBackground();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void refreshInBackground() {
+        String token = mIdToken;
+        try {
+            refresh(token);
+        } catch (IOException e) {
+            Log.w(TAG, "Background token refresh failed, retrying", e);
+            synchronized (mRefreshLock) {
+                mFailedRefreshes++;
+                scheduleRefresh();
+            }
+        }
+    }
+
+    // Called with mRefreshLock held
+    private void cancelScheduledRefresh() {
+        if (mScheduledRefresh != null) {
+            mScheduledRefresh.cancel(false);
+            mScheduledRefresh = null;
+        }
+    }
+}
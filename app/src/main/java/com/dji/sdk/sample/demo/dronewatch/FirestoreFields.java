@@ -0,0 +1,12 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.io.IOException;
+
+/**
+ * The {@code fields} map of a Firestore document, written as a JSON object of typed values.
+ * Implementations are immutable once handed to {@link FirestoreWrite}: they may be written more
+ * than once (retries, the outbox record) and from the OkHttp thread.
+ */
+public interface FirestoreFields {
+    void writeTo(FirestoreJsonWriter out) throws IOException;
+}
@@ -0,0 +1,329 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.ByteString;
+
+/**
+ * Writes JSON, and Firestore's typed value wrappers ({@code {"stringValue": ...}} and friends),
+ * straight into an Okio {@link BufferedSink}, so a request body is never built as a tree of
+ * {@code JSONObject}s and then copied into a String.
+ * <p>
+ * Names that are known up front can be encoded once with {@link #encodeName} and written with
+ * {@link #name(ByteString)}; numbers and timestamps are written digit by digit. Writing a
+ * location update therefore allocates nothing beyond what the sink itself needs.
+ */
+public final class FirestoreJsonWriter {
+
+    public static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    // One bit per nesting level, set once that container has an element
+    private static final int MAX_DEPTH = 63;
+
+    private static final ByteString STRING_VALUE    = encodeName("stringValue");
+    private static final ByteString INTEGER_VALUE   = encodeName("integerValue");
+    private static final ByteString DOUBLE_VALUE    = encodeName("doubleValue");
+    private static final ByteString BOOLEAN_VALUE   = encodeName("booleanValue");
+    private static final ByteString TIMESTAMP_VALUE = encodeName("timestampValue");
+    private static final ByteString GEO_POINT_VALUE = encodeName("geoPointValue");
+    private static final ByteString MAP_VALUE       = encodeName("mapValue");
+    private static final ByteString FIELDS          = encodeName("fields");
+    private static final ByteString LATITUDE        = encodeName("latitude");
+    private static final ByteString LONGITUDE       = encodeName("longitude");
+
+    // Eight decimals of a degree is about a millimetre, far below any GPS fix
+    private static final int COORDINATE_DECIMALS = 8;
+
+    /**
+     * A request body that is serialized as OkHttp sends it rather than ahead of time.
+     */
+    public abstract static class Body extends RequestBody {
+        @Override
+        public MediaType contentType() {
+            return JSON;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            write(new FirestoreJsonWriter(sink));
+        }
+
+        protected abstract void write(FirestoreJsonWriter out) throws IOException;
+    }
+
+    private final BufferedSink mSink;
+    private long mHasElements;
+    private int  mDepth;
+    private boolean mAfterName;
+
+    public FirestoreJsonWriter(BufferedSink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Pre-encodes {@code "name":} for use with {@link #name(ByteString)}.
+     */
+    public static ByteString encodeName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 3).append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                throw new IllegalArgumentException("Template name needs escaping: " + name);
+            }
+            sb.append(c);
+        }
+        return ByteString.encodeUtf8(sb.append("\":").toString());
+    }
+
+    public FirestoreJsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public FirestoreJsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public FirestoreJsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public FirestoreJsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public FirestoreJsonWriter name(String name) throws IOException {
+        separate();
+        writeQuoted(name);
+        mSink.writeByte(':');
+        mAfterName = true;
+        return this;
+    }
+
+    public FirestoreJsonWriter name(ByteString encodedName) throws IOException {
+        separate();
+        mSink.write(encodedName);
+        mAfterName = true;
+        return this;
+    }
+
+    public FirestoreJsonWriter value(String value) throws IOException {
+        if (value == null) return nullValue();
+        separate();
+        writeQuoted(value);
+        return this;
+    }
+
+    public FirestoreJsonWriter value(long value) throws IOException {
+        separate();
+        mSink.writeDecimalLong(value);
+        return this;
+    }
+
+    public FirestoreJsonWriter value(boolean value) throws IOException {
+        separate();
+        mSink.writeUtf8(value ? "true" : "false");
+        return this;
+    }
+
+    public FirestoreJsonWriter value(double value) throws IOException {
+        separate();
+        writeDouble(value);
+        return this;
+    }
+
+    public FirestoreJsonWriter nullValue() throws IOException {
+        separate();
+        mSink.writeUtf8("null");
+        return this;
+    }
+
+    /**
+     * Writes an already encoded JSON value, e.g. a fields object read back from the outbox.
+     */
+    public FirestoreJsonWriter rawValue(String json) throws IOException {
+        separate();
+        mSink.writeUtf8(json);
+        return this;
+    }
+
+    // Firestore Value wrappers
+
+    public FirestoreJsonWriter stringValue(String value) throws IOException {
+        return beginObject().name(STRING_VALUE).value(value).endObject();
+    }
+
+    /**
+     * int64 values travel as JSON strings in the REST API.
+     */
+    public FirestoreJsonWriter integerValue(long value) throws IOException {
+        beginObject().name(INTEGER_VALUE);
+        separate();
+        mSink.writeByte('"').writeDecimalLong(value).writeByte('"');
+        return endObject();
+    }
+
+    public FirestoreJsonWriter doubleValue(double value) throws IOException {
+        return beginObject().name(DOUBLE_VALUE).value(value).endObject();
+    }
+
+    public FirestoreJsonWriter booleanValue(boolean value) throws IOException {
+        return beginObject().name(BOOLEAN_VALUE).value(value).endObject();
+    }
+
+    public FirestoreJsonWriter timestampValue(long epochMs) throws IOException {
+        beginObject().name(TIMESTAMP_VALUE);
+        separate();
+        writeTimestamp(epochMs);
+        return endObject();
+    }
+
+    public FirestoreJsonWriter geoPointValue(double latitude, double longitude) throws IOException {
+        beginObject().name(GEO_POINT_VALUE).beginObject();
+        name(LATITUDE);
+        separate();
+        writeFixed(latitude, COORDINATE_DECIMALS);
+        name(LONGITUDE);
+        separate();
+        writeFixed(longitude, COORDINATE_DECIMALS);
+        return endObject().endObject();
+    }
+
+    /**
+     * Opens {@code {"mapValue":{"fields":{}; close it with {@link #endMapValue()}.
+     */
+    public FirestoreJsonWriter beginMapValue() throws IOException {
+        return beginObject().name(MAP_VALUE).beginObject().name(FIELDS).beginObject();
+    }
+
+    public FirestoreJsonWriter endMapValue() throws IOException {
+        return endObject().endObject().endObject();
+    }
+
+    private FirestoreJsonWriter open(char bracket) throws IOException {
+        separate();
+        if (mDepth == MAX_DEPTH) throw new IllegalStateException("JSON nested too deep");
+        mDepth++;
+        mHasElements &= ~(1L << mDepth);
+        mSink.writeByte(bracket);
+        return this;
+    }
+
+    private FirestoreJsonWriter close(char bracket) throws IOException {
+        if (mDepth == 0) throw new IllegalStateException("Nothing to close");
+        mDepth--;
+        mSink.writeByte(bracket);
+        return this;
+    }
+
+    // Comma before every element but the first of its container; nothing after a name
+    private void separate() throws IOException {
+        if (mAfterName) {
+            mAfterName = false;
+            return;
+        }
+        long bit = 1L << mDepth;
+        if ((mHasElements & bit) != 0) {
+            mSink.writeByte(',');
+        } else {
+            mHasElements |= bit;
+        }
+    }
+
+    private void writeQuoted(String s) throws IOException {
+        mSink.writeByte('"');
+        int start = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) continue;
+            if (start < i) mSink.writeUtf8(s, start, i);
+            switch (c) {
+                case '"':  mSink.writeUtf8("\\\""); break;
+                case '\\': mSink.writeUtf8("\\\\"); break;
+                case '\n': mSink.writeUtf8("\\n"); break;
+                case '\r': mSink.writeUtf8("\\r"); break;
+                case '\t': mSink.writeUtf8("\\t"); break;
+                default:
+                    mSink.writeUtf8("\\u");
+                    for (int shift = 12; shift >= 0; shift -= 4) {
+                        mSink.writeByte("0123456789abcdef".charAt((c >> shift) & 0xf));
+                    }
+            }
+            start = i + 1;
+        }
+        if (start < length) mSink.writeUtf8(s, start, length);
+        mSink.writeByte('"');
+    }
+
+    private void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // Firestore accepts these spelled out as strings
+            writeQuoted(Double.isNaN(value) ? "NaN" : value > 0 ? "Infinity" : "-Infinity");
+        } else if (value == (long) value && Math.abs(value) < 1e15) {
+            mSink.writeDecimalLong((long) value);
+        } else {
+            mSink.writeUtf8(Double.toString(value));
+        }
+    }
+
+    private void writeFixed(double value, int decimals) throws IOException {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) scale *= 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) mSink.writeByte('-');
+        mSink.writeDecimalLong(scaled / scale);
+        long fraction = scaled % scale;
+        if (fraction == 0) return;
+        mSink.writeByte('.');
+        // Leading zeros of the fraction, then the digits without their trailing zeros
+        for (long p = scale / 10; p > fraction; p /= 10) mSink.writeByte('0');
+        while (fraction % 10 == 0) fraction /= 10;
+        mSink.writeDecimalLong(fraction);
+    }
+
+    /**
+     * RFC 3339 in UTC with milliseconds, e.g. {@code "2024-05-01T12:00:00.250Z"}.
+     */
+    private void writeTimestamp(long epochMs) throws IOException {
+        long days = Math.floorDiv(epochMs, 86400000L);
+        int msOfDay = (int) Math.floorMod(epochMs, 86400000L);
+
+        // Civil date from days since 1970-01-01 (Howard Hinnant's algorithm)
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        mSink.writeByte('"');
+        writePadded(year, 4);
+        mSink.writeByte('-');
+        writePadded(month, 2);
+        mSink.writeByte('-');
+        writePadded(day, 2);
+        mSink.writeByte('T');
+        writePadded(msOfDay / 3600000, 2);
+        mSink.writeByte(':');
+        writePadded(msOfDay / 60000 % 60, 2);
+        mSink.writeByte(':');
+        writePadded(msOfDay / 1000 % 60, 2);
+        mSink.writeByte('.');
+        writePadded(msOfDay % 1000, 3);
+        mSink.writeByte('Z');
+        mSink.writeByte('"');
+    }
+
+    private void writePadded(long value, int width) throws IOException {
+        for (long p = 10; width > 1; p *= 10, width--) {
+            if (value < p) mSink.writeByte('0');
+        }
+        mSink.writeDecimalLong(value);
+    }
+}
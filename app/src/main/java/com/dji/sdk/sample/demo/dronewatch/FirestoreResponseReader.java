@@ -0,0 +1,300 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Pulls the few values DroneWatch needs out of Google REST responses as they stream in, instead
+ * of reading the body into a String and parsing all of it into {@code JSONObject}s. Everything
+ * that is not asked for is skipped without being materialized.
+ */
+public final class FirestoreResponseReader {
+
+    private FirestoreResponseReader() {
+    }
+
+    /**
+     * Reads the per-write {@code status} array of a {@code documents:batchWrite} response.
+     * {@code codes} must be zeroed by the caller; entries for writes without a status stay 0 (OK).
+     */
+    public static void readBatchWriteStatus(Reader in, int[] codes, String[] messages) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"status".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                for (int i = 0; reader.hasNext(); i++) {
+                    if (i >= codes.length) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String name = reader.nextName();
+                        if ("code".equals(name)) {
+                            codes[i] = reader.nextInt();
+                        } else if ("message".equals(name)) {
+                            messages[i] = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads the scalar values of the named top-level fields of a Firestore document. Strings,
+     * integers, doubles, booleans and timestamps all come back as their JSON text; fields that
+     * are missing or not scalar are left null.
+     */
+    public static void readDocumentFields(Reader in, String[] names, String[] out) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"fields".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    int index = indexOf(names, reader.nextName());
+                    if (index < 0) {
+                        reader.skipValue();
+                    } else {
+                        out[index] = readScalarValue(reader);
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads a top-level array-of-points field of a Firestore document as latitude, longitude
+     * pairs. Points may be geo points or maps with {@code latitude} and {@code longitude}
+     * numbers; anything else in the array is skipped. Null if the field is missing or empty.
+     */
+    public static double[] readPointArrayField(Reader in, String name) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        double[] points = null;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"fields".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (name.equals(reader.nextName())) {
+                        points = readPointArray(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        return points;
+    }
+
+    /**
+     * Reads named top-level string (or number/boolean) members of a plain JSON object, e.g. the
+     * {@code idToken} of a sign-in response.
+     */
+    public static void readStrings(Reader in, String[] names, String[] out) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int index = indexOf(names, reader.nextName());
+                if (index >= 0 && isScalar(reader.peek())) {
+                    out[index] = readScalar(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The {@code error.message} of a Google API error body, or null if there is none.
+     */
+    public static String readErrorMessage(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        String message = null;
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"error".equals(reader.nextName()) || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("message".equals(reader.nextName()) && reader.peek() == JsonToken.STRING) {
+                        message = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } finally {
+            reader.close();
+        }
+        return message;
+    }
+
+    // A Firestore Value is an object with exactly one member naming its type
+    private static String readScalarValue(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        String value = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+            if (isScalar(reader.peek())) {
+                value = readScalar(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
+
+    // {"arrayValue": {"values": [...]}}
+    private static double[] readPointArray(JsonReader reader) throws IOException {
+        double[] points = new double[16];
+        int count = 0;
+        double[] point = new double[2];
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!"arrayValue".equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"values".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (!readPoint(reader, point)) continue;
+                    if (count + 2 > points.length) points = Arrays.copyOf(points, points.length * 2);
+                    points[count++] = point[0];
+                    points[count++] = point[1];
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        }
+        reader.endObject();
+        return count == 0 ? null : Arrays.copyOf(points, count);
+    }
+
+    // One array element: a geoPointValue, or a mapValue with latitude and longitude fields
+    private static boolean readPoint(JsonReader reader, double[] out) throws IOException {
+        out[0] = Double.NaN;
+        out[1] = Double.NaN;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String type = reader.nextName();
+            if ("geoPointValue".equals(type)) {
+                readLatLng(reader, out, false);
+            } else if ("mapValue".equals(type)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("fields".equals(reader.nextName())) {
+                        readLatLng(reader, out, true);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return !Double.isNaN(out[0]) && !Double.isNaN(out[1]);
+    }
+
+    private static void readLatLng(JsonReader reader, double[] out, boolean wrapped) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            int index = "latitude".equals(name) ? 0 : "longitude".equals(name) ? 1 : -1;
+            if (index < 0) {
+                reader.skipValue();
+                continue;
+            }
+            String value;
+            if (wrapped) {
+                value = readScalarValue(reader);
+            } else if (isScalar(reader.peek())) {
+                value = readScalar(reader);
+            } else {
+                reader.skipValue();
+                continue;
+            }
+            if (value == null) continue;
+            try {
+                out[index] = Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                out[index] = Double.NaN;
+            }
+        }
+        reader.endObject();
+    }
+
+    private static boolean isScalar(JsonToken token) {
+        return token == JsonToken.STRING || token == JsonToken.NUMBER || token == JsonToken.BOOLEAN;
+    }
+
+    private static String readScalar(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.BOOLEAN) {
+            return reader.nextBoolean() ? "true" : "false";
+        }
+        // nextString() also returns numbers as their literal text
+        return reader.nextString();
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+}
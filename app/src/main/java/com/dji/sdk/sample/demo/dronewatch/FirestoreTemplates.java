@@ -0,0 +1,353 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.io.IOException;
+
+import okio.ByteString;
+
+/**
+ * The document shapes DroneWatch writes, with their field names encoded once. Each template
+ * also names the field paths it sets, for use as the update mask.
+ */
+public final class FirestoreTemplates {
+
+    private static final ByteString DRONE_LOCATION = FirestoreJsonWriter.encodeName("droneLocation");
+    private static final ByteString UPDATED_AT     = FirestoreJsonWriter.encodeName("updatedAt");
+    private static final ByteString EMERGENCY_ID   = FirestoreJsonWriter.encodeName("emergencyId");
+    private static final ByteString DESCRIPTION    = FirestoreJsonWriter.encodeName("description");
+    private static final ByteString OPERATOR_ID    = FirestoreJsonWriter.encodeName("operatorId");
+    private static final ByteString LOCATION       = FirestoreJsonWriter.encodeName("location");
+    private static final ByteString LATITUDE       = FirestoreJsonWriter.encodeName("latitude");
+    private static final ByteString LONGITUDE      = FirestoreJsonWriter.encodeName("longitude");
+    private static final ByteString IMAGE_REF      = FirestoreJsonWriter.encodeName("imageRef");
+    private static final ByteString IMAGE_UPLOADED = FirestoreJsonWriter.encodeName("imageUploaded");
+    private static final ByteString TIMESTAMP      = FirestoreJsonWriter.encodeName("timestamp");
+    private static final ByteString PATH           = FirestoreJsonWriter.encodeName("path");
+    private static final ByteString ALT            = FirestoreJsonWriter.encodeName("alt");
+    private static final ByteString T              = FirestoreJsonWriter.encodeName("t");
+    private static final ByteString POINTS         = FirestoreJsonWriter.encodeName("points");
+    private static final ByteString SUGGESTED      = FirestoreJsonWriter.encodeName("suggested");
+    private static final ByteString DETECTOR       = FirestoreJsonWriter.encodeName("detector");
+    private static final ByteString CONFIDENCE     = FirestoreJsonWriter.encodeName("confidence");
+    private static final ByteString HAMMING        = FirestoreJsonWriter.encodeName("hammingDistance");
+    private static final ByteString COVERAGE       = FirestoreJsonWriter.encodeName("coverage");
+    private static final ByteString AREA_FRACTION  = FirestoreJsonWriter.encodeName("areaFraction");
+    private static final ByteString SEEN_M2        = FirestoreJsonWriter.encodeName("seenM2");
+    private static final ByteString AREA_M2        = FirestoreJsonWriter.encodeName("areaM2");
+    private static final ByteString CENTRE         = FirestoreJsonWriter.encodeName("centre");
+    private static final ByteString CELL_M         = FirestoreJsonWriter.encodeName("cellM");
+    private static final ByteString TILE_CELLS     = FirestoreJsonWriter.encodeName("tileCells");
+    private static final ByteString TILES_X        = FirestoreJsonWriter.encodeName("tilesX");
+    private static final ByteString TILES_Y        = FirestoreJsonWriter.encodeName("tilesY");
+    private static final ByteString TX             = FirestoreJsonWriter.encodeName("tx");
+    private static final ByteString TY             = FirestoreJsonWriter.encodeName("ty");
+    private static final ByteString SEEN_CELLS     = FirestoreJsonWriter.encodeName("seenCells");
+    private static final ByteString RLE            = FirestoreJsonWriter.encodeName("rle");
+
+    private FirestoreTemplates() {
+    }
+
+    /**
+     * {@code searchAssignments/<id>}: where the drone is now.
+     */
+    public static final class LocationUpdate implements FirestoreFields {
+        public static final String[] FIELD_PATHS = { "droneLocation", "updatedAt" };
+
+        private final double mLatitude;
+        private final double mLongitude;
+        private final long   mTimeMs;
+
+        public LocationUpdate(double latitude, double longitude, long timeMs) {
+            mLatitude  = latitude;
+            mLongitude = longitude;
+            mTimeMs    = timeMs;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(DRONE_LOCATION).geoPointValue(mLatitude, mLongitude)
+                .name(UPDATED_AT).timestampValue(mTimeMs)
+                .endObject();
+        }
+    }
+
+    /**
+     * {@code emergencies/<id>}: bumped whenever something new is reported against it.
+     */
+    public static final class EmergencyTimestamp implements FirestoreFields {
+        public static final String[] FIELD_PATHS = { "updatedAt" };
+
+        private final long mTimeMs;
+
+        public EmergencyTimestamp(long timeMs) {
+            mTimeMs = timeMs;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(UPDATED_AT).timestampValue(mTimeMs)
+                .endObject();
+        }
+    }
+
+    /**
+     * A new document in {@code findings}.
+     */
+    public static final class Finding implements FirestoreFields {
+        private final String mEmergencyId;
+        private final String mDescription;
+        private final String mOperatorId;
+        private final double mLatitude;
+        private final double mLongitude;
+        private final String mImageRef;
+        private final long   mTimeMs;
+
+        /**
+         * @param imageRef {@code gs://} reference of the photo in Storage, or null for none
+         */
+        public Finding(String emergencyId, String description, String operatorId,
+                       double latitude, double longitude, String imageRef, long timeMs) {
+            mEmergencyId = emergencyId;
+            mDescription = description;
+            mOperatorId  = operatorId;
+            mLatitude    = latitude;
+            mLongitude   = longitude;
+            mImageRef    = imageRef;
+            mTimeMs      = timeMs;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(EMERGENCY_ID).stringValue(mEmergencyId)
+                .name(DESCRIPTION).stringValue(mDescription)
+                .name(OPERATOR_ID).stringValue(mOperatorId)
+                .name(LOCATION).beginMapValue()
+                    .name(LATITUDE).doubleValue(mLatitude)
+                    .name(LONGITUDE).doubleValue(mLongitude)
+                    .endMapValue();
+            if (mImageRef != null) {
+                // The photo may still be uploading; imageUploaded is set once it is in Storage
+                out.name(IMAGE_REF).stringValue(mImageRef)
+                    .name(IMAGE_UPLOADED).booleanValue(false);
+            }
+            out.name(TIMESTAMP).timestampValue(mTimeMs)
+                .endObject();
+        }
+    }
+
+    /**
+     * A new document in {@code findings} raised by on-board analysis rather than the operator,
+     * for someone to confirm or dismiss. The position is the drone's when the frame was taken.
+     */
+    public static final class SuggestedFinding implements FirestoreFields {
+        private final String mEmergencyId;
+        private final String mOperatorId;
+        private final String mDetector;
+        private final double mConfidence;
+        private final double mLatitude;
+        private final double mLongitude;
+        private final long   mTimeMs;
+
+        public SuggestedFinding(String emergencyId, String operatorId, String detector, double confidence,
+                                double latitude, double longitude, long timeMs) {
+            mEmergencyId = emergencyId;
+            mOperatorId  = operatorId;
+            mDetector    = detector;
+            mConfidence  = confidence;
+            mLatitude    = latitude;
+            mLongitude   = longitude;
+            mTimeMs      = timeMs;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(EMERGENCY_ID).stringValue(mEmergencyId)
+                .name(DESCRIPTION).stringValue("Possible sighting (" + mDetector + ")")
+                .name(OPERATOR_ID).stringValue(mOperatorId)
+                .name(LOCATION).beginMapValue()
+                    .name(LATITUDE).doubleValue(mLatitude)
+                    .name(LONGITUDE).doubleValue(mLongitude)
+                    .endMapValue()
+                .name(SUGGESTED).booleanValue(true)
+                .name(DETECTOR).stringValue(mDetector)
+                .name(CONFIDENCE).doubleValue(mConfidence)
+                .name(TIMESTAMP).timestampValue(mTimeMs)
+                .endObject();
+        }
+    }
+
+    /**
+     * {@code findings/<id>}: its photo has finished uploading.
+     */
+    public static final class ImageUploaded implements FirestoreFields {
+        public static final String[] FIELD_PATHS = { "imageUploaded" };
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(IMAGE_UPLOADED).booleanValue(true)
+                .endObject();
+        }
+    }
+
+    /**
+     * {@code searchAssignments/<id>}: how much of the assignment has been seen, and the layout of
+     * the grid its {@link CoverageTile}s belong to. See {@link CoverageGrid}.
+     */
+    public static final class CoverageSummary implements FirestoreFields {
+        public static final String[] FIELD_PATHS = { "coverage" };
+
+        private final double mAreaFraction;
+        private final double mSeenM2;
+        private final double mAreaM2;
+        private final double mCentreLat;
+        private final double mCentreLng;
+        private final double mCellM;
+        private final int    mTilesX;
+        private final int    mTilesY;
+        private final long   mTimeMs;
+
+        public CoverageSummary(CoverageGrid grid, long timeMs) {
+            double cellM2 = grid.getCellSize() * grid.getCellSize();
+            mAreaFraction = grid.getAreaCoverage();
+            mSeenM2       = grid.getSeenCells() * cellM2;
+            mAreaM2       = grid.getAreaCells() * cellM2;
+            mCentreLat    = grid.getCentreLatitude();
+            mCentreLng    = grid.getCentreLongitude();
+            mCellM        = grid.getCellSize();
+            mTilesX       = grid.getTilesX();
+            mTilesY       = grid.getTilesY();
+            mTimeMs       = timeMs;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(COVERAGE).beginMapValue()
+                    .name(AREA_FRACTION).doubleValue(mAreaFraction)
+                    .name(SEEN_M2).doubleValue(mSeenM2)
+                    .name(AREA_M2).doubleValue(mAreaM2)
+                    .name(CENTRE).geoPointValue(mCentreLat, mCentreLng)
+                    .name(CELL_M).doubleValue(mCellM)
+                    .name(TILE_CELLS).integerValue(CoverageGrid.TILE)
+                    .name(TILES_X).integerValue(mTilesX)
+                    .name(TILES_Y).integerValue(mTilesY)
+                    .name(UPDATED_AT).timestampValue(mTimeMs)
+                    .endMapValue()
+                .endObject();
+        }
+    }
+
+    /**
+     * {@code searchAssignments/<id>/coverageTiles/<tx>_<ty>}: one tile of the coverage grid, as
+     * written by {@link CoverageGrid#encodeTile}, base64.
+     */
+    public static final class CoverageTile implements FirestoreFields {
+        public static final String[] FIELD_PATHS = { "tx", "ty", "seenCells", "rle", "updatedAt" };
+
+        private final int    mTileX;
+        private final int    mTileY;
+        private final int    mSeenCells;
+        private final String mRle;
+        private final long   mTimeMs;
+
+        public CoverageTile(int tileX, int tileY, int seenCells, String rle, long timeMs) {
+            mTileX     = tileX;
+            mTileY     = tileY;
+            mSeenCells = seenCells;
+            mRle       = rle;
+            mTimeMs    = timeMs;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(TX).integerValue(mTileX)
+                .name(TY).integerValue(mTileY)
+                .name(SEEN_CELLS).integerValue(mSeenCells)
+                .name(RLE).stringValue(mRle)
+                .name(UPDATED_AT).timestampValue(mTimeMs)
+                .endObject();
+        }
+    }
+
+    /**
+     * One element of {@code findings/<id>.repeatCaptures}: the same spot was captured again, and
+     * that photo was dropped rather than uploaded. See {@link FindingDedupIndex}.
+     */
+    public static final class RepeatCapture implements FirestoreFields {
+        private final String mOperatorId;
+        private final double mLatitude;
+        private final double mLongitude;
+        private final int    mHammingDistance;
+        private final long   mTimeMs;
+
+        public RepeatCapture(String operatorId, double latitude, double longitude, int hammingDistance,
+                             long timeMs) {
+            mOperatorId      = operatorId;
+            mLatitude        = latitude;
+            mLongitude       = longitude;
+            mHammingDistance = hammingDistance;
+            mTimeMs          = timeMs;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(OPERATOR_ID).stringValue(mOperatorId)
+                .name(LOCATION).beginMapValue()
+                    .name(LATITUDE).doubleValue(mLatitude)
+                    .name(LONGITUDE).doubleValue(mLongitude)
+                    .endMapValue()
+                .name(HAMMING).integerValue(mHammingDistance)
+                .name(TIMESTAMP).timestampValue(mTimeMs)
+                .endObject();
+        }
+    }
+
+    /**
+     * One element of {@code searchAssignments/<id>.trackChunks}; see {@link BreadcrumbTrack}.
+     */
+    public static final class TrackChunk implements FirestoreFields {
+        private final String mPath;
+        private final String mAltitudes;
+        private final String mTimes;
+        private final int    mPoints;
+
+        public TrackChunk(String path, String altitudes, String times, int points) {
+            mPath      = path;
+            mAltitudes = altitudes;
+            mTimes     = times;
+            mPoints    = points;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.beginObject()
+                .name(PATH).stringValue(mPath)
+                .name(ALT).stringValue(mAltitudes)
+                .name(T).stringValue(mTimes)
+                .name(POINTS).integerValue(mPoints)
+                .endObject();
+        }
+    }
+
+    /**
+     * Fields that are already encoded, as read back from the outbox.
+     */
+    public static final class Raw implements FirestoreFields {
+        private final String mJson;
+
+        public Raw(String json) {
+            mJson = json;
+        }
+
+        @Override
+        public void writeTo(FirestoreJsonWriter out) throws IOException {
+            out.rawValue(mJson);
+        }
+    }
+}
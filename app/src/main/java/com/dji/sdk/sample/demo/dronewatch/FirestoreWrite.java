@@ -0,0 +1,284 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * A single pending Firestore document write, in the shape expected by the
+ * REST {@code Write} message used by {@code documents:batchWrite}.
+ */
+public class FirestoreWrite {
+
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH   = 1;
+
+    private static final String AUTO_ID_CHARS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+    private static final int AUTO_ID_LENGTH = 20;
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    private static final ByteString UPDATE            = FirestoreJsonWriter.encodeName("update");
+    private static final ByteString NAME              = FirestoreJsonWriter.encodeName("name");
+    private static final ByteString FIELDS            = FirestoreJsonWriter.encodeName("fields");
+    private static final ByteString UPDATE_MASK       = FirestoreJsonWriter.encodeName("updateMask");
+    private static final ByteString FIELD_PATHS       = FirestoreJsonWriter.encodeName("fieldPaths");
+    private static final ByteString CURRENT_DOCUMENT  = FirestoreJsonWriter.encodeName("currentDocument");
+    private static final ByteString EXISTS            = FirestoreJsonWriter.encodeName("exists");
+    private static final ByteString UPDATE_TRANSFORMS = FirestoreJsonWriter.encodeName("updateTransforms");
+    private static final ByteString FIELD_PATH        = FirestoreJsonWriter.encodeName("fieldPath");
+    private static final ByteString APPEND_MISSING    = FirestoreJsonWriter.encodeName("appendMissingElements");
+    private static final ByteString VALUES            = FirestoreJsonWriter.encodeName("values");
+    private static final ByteString MAP_VALUE         = FirestoreJsonWriter.encodeName("mapValue");
+
+    // An empty fields map, for writes that only carry a transform
+    private static final FirestoreFields NO_FIELDS = new FirestoreTemplates.Raw("{}");
+
+    /**
+     * Receives the outcome of a write once the batch carrying it has been answered.
+     * Called on the batcher thread.
+     */
+    public interface Callback {
+        void onResult(boolean success, String error);
+    }
+
+    private final String     mDocumentPath;
+    private final FirestoreFields mFields;
+    private final String[]   mUpdateMask;
+    private final boolean    mMustNotExist;
+    private boolean    mMustExist;
+    private String          mAppendField;
+    private FirestoreFields mAppendValue;
+    private int      mPriority = PRIORITY_NORMAL;
+    private Callback mCallback;
+    long mEnqueuedAtMs;
+    long mSequence;
+    long mOutboxId;
+    // Batcher thread: answers of FAILED_PRECONDITION so far
+    int  mMissingAttempts;
+
+    private FirestoreWrite(String documentPath, FirestoreFields fields, String[] updateMask, boolean mustNotExist) {
+        mDocumentPath = documentPath;
+        mFields       = fields;
+        mUpdateMask   = updateMask;
+        mMustNotExist = mustNotExist;
+    }
+
+    /**
+     * Patches only the given field paths of an existing document.
+     */
+    public static FirestoreWrite update(String documentPath, FirestoreFields fields, String... updateMask) {
+        return new FirestoreWrite(documentPath, fields, updateMask, false);
+    }
+
+    /**
+     * Like {@link #update}, but never creates the document. batchWrite does not apply writes in
+     * order, so the batcher retries it for a while in case the create is still on its way.
+     */
+    public static FirestoreWrite updateExisting(String documentPath, FirestoreFields fields, String... updateMask) {
+        FirestoreWrite write = new FirestoreWrite(documentPath, fields, updateMask, false);
+        write.mMustExist = true;
+        return write;
+    }
+
+    /**
+     * Creates a new document in the collection under a client-generated id, failing if it already exists.
+     */
+    public static FirestoreWrite create(String collectionPath, FirestoreFields fields) {
+        return create(collectionPath, newAutoId(), fields);
+    }
+
+    /**
+     * Same, with an id from {@link #newAutoId()} the caller needs to know up front.
+     */
+    public static FirestoreWrite create(String collectionPath, String documentId, FirestoreFields fields) {
+        return new FirestoreWrite(collectionPath + "/" + documentId, fields, null, true);
+    }
+
+    /**
+     * Adds a map with the given fields to an array field with the {@code appendMissingElements}
+     * transform, leaving every other field alone. Appending the same value twice is a no-op, so
+     * replays are harmless.
+     */
+    public static FirestoreWrite appendToArray(String documentPath, String fieldPath, FirestoreFields element) {
+        FirestoreWrite write = new FirestoreWrite(documentPath, NO_FIELDS, new String[0], false);
+        write.mAppendField = fieldPath;
+        write.mAppendValue = element;
+        return write;
+    }
+
+    /**
+     * Like {@link #appendToArray}, but never creates the document, so it cannot get in ahead of
+     * the create of a document that is still on its way; retried like {@link #updateExisting}.
+     */
+    public static FirestoreWrite appendToExistingArray(String documentPath, String fieldPath, FirestoreFields element) {
+        FirestoreWrite write = appendToArray(documentPath, fieldPath, element);
+        write.mMustExist = true;
+        return write;
+    }
+
+    /**
+     * Same 20-character alphabet and length the Firestore client SDKs use for auto ids.
+     */
+    public static String newAutoId() {
+        StringBuilder sb = new StringBuilder(AUTO_ID_LENGTH);
+        for (int i = 0; i < AUTO_ID_LENGTH; i++) {
+            sb.append(AUTO_ID_CHARS.charAt(sRandom.nextInt(AUTO_ID_CHARS.length())));
+        }
+        return sb.toString();
+    }
+
+    public FirestoreWrite setPriority(int priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    public FirestoreWrite setCallback(Callback callback) {
+        mCallback = callback;
+        return this;
+    }
+
+    public String getDocumentPath() {
+        return mDocumentPath;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public Callback getCallback() {
+        return mCallback;
+    }
+
+    /**
+     * Writes that share a key replace each other while they wait in the batcher, so only the latest
+     * value is sent. Only field-mask updates are coalesced; creates and array appends are always kept.
+     */
+    String getCoalesceKey() {
+        if (mUpdateMask == null || mAppendField != null) return null;
+        StringBuilder sb = new StringBuilder(mDocumentPath);
+        for (String path : mUpdateMask) {
+            sb.append('|').append(path);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * True for creates: the document id was generated on this device, so replaying the write
+     * can only ever hit the copy an earlier attempt already stored.
+     */
+    boolean isCreate() {
+        return mMustNotExist;
+    }
+
+    boolean mustExist() {
+        return mMustExist;
+    }
+
+    /**
+     * Serialized form kept in {@link DroneWatchOutbox}; callbacks are not persisted.
+     */
+    String toRecord() throws IOException {
+        Buffer buffer = new Buffer();
+        FirestoreJsonWriter out = new FirestoreJsonWriter(buffer);
+        out.beginObject()
+            .name("path").value(mDocumentPath)
+            .name("fields");
+        mFields.writeTo(out);
+        out.name("create").value(mMustNotExist)
+            .name("priority").value(mPriority);
+        if (mMustExist) {
+            out.name("mustExist").value(true);
+        }
+        if (mUpdateMask != null) {
+            out.name("mask");
+            writeFieldPaths(out);
+        }
+        if (mAppendField != null) {
+            out.name("append").beginObject()
+                .name("field").value(mAppendField)
+                .name("value");
+            writeAppendValue(out);
+            out.endObject();
+        }
+        out.endObject();
+        return buffer.readUtf8();
+    }
+
+    /**
+     * Restoring only happens once per session, so this side stays on org.json; the fields
+     * are kept as the JSON text they were stored as.
+     */
+    static FirestoreWrite fromRecord(String record) throws JSONException {
+        JSONObject json = new JSONObject(record);
+        JSONArray mask = json.optJSONArray("mask");
+        String[] updateMask = null;
+        if (mask != null) {
+            updateMask = new String[mask.length()];
+            for (int i = 0; i < updateMask.length; i++) {
+                updateMask[i] = mask.getString(i);
+            }
+        }
+        FirestoreWrite write = new FirestoreWrite(json.getString("path"),
+            new FirestoreTemplates.Raw(json.getJSONObject("fields").toString()),
+            updateMask, json.optBoolean("create"));
+        write.mPriority = json.optInt("priority", PRIORITY_NORMAL);
+        write.mMustExist = json.optBoolean("mustExist");
+        JSONObject append = json.optJSONObject("append");
+        if (append != null) {
+            write.mAppendField = append.getString("field");
+            write.mAppendValue = new FirestoreTemplates.Raw(append.getJSONObject("value")
+                .getJSONObject("mapValue").getJSONObject("fields").toString());
+        }
+        return write;
+    }
+
+    /**
+     * Writes the REST {@code Write} message for this write.
+     */
+    void writeTo(FirestoreJsonWriter out, String databaseRoot) throws IOException {
+        out.beginObject()
+            .name(UPDATE).beginObject()
+                .name(NAME).value(databaseRoot + "/documents/" + mDocumentPath)
+                .name(FIELDS);
+        mFields.writeTo(out);
+        out.endObject();
+        if (mUpdateMask != null) {
+            out.name(UPDATE_MASK).beginObject().name(FIELD_PATHS);
+            writeFieldPaths(out);
+            out.endObject();
+        }
+        if (mMustNotExist || mMustExist) {
+            out.name(CURRENT_DOCUMENT).beginObject().name(EXISTS).value(mMustExist).endObject();
+        }
+        if (mAppendField != null) {
+            out.name(UPDATE_TRANSFORMS).beginArray().beginObject()
+                .name(FIELD_PATH).value(mAppendField)
+                .name(APPEND_MISSING).beginObject().name(VALUES).beginArray();
+            writeAppendValue(out);
+            out.endArray().endObject()
+                .endObject().endArray();
+        }
+        out.endObject();
+    }
+
+    private void writeFieldPaths(FirestoreJsonWriter out) throws IOException {
+        out.beginArray();
+        for (String path : mUpdateMask) {
+            out.value(path);
+        }
+        out.endArray();
+    }
+
+    private void writeAppendValue(FirestoreJsonWriter out) throws IOException {
+        out.beginObject().name(MAP_VALUE).beginObject().name(FIELDS);
+        mAppendValue.writeTo(out);
+        out.endObject().endObject();
+    }
+}
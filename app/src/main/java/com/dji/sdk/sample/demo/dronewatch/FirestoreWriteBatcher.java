@@ -0,0 +1,610 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Gathers pending Firestore writes and sends them through the {@code documents:batchWrite}
+ * REST endpoint, so a finding, the emergency timestamp and the latest drone location share
+ * one request instead of costing one round trip each.
+ * <p>
+ * A batch goes out when it reaches {@link #MAX_BATCH_SIZE} writes, when its oldest write is
+ * {@link #MAX_BATCH_AGE_MS} old, or straight away when a {@link FirestoreWrite#PRIORITY_HIGH}
+ * write is enqueued. High priority writes are placed ahead of everything else in the batch.
+ * All state lives on a single worker thread.
+ * <p>
+ * With a {@link DroneWatchOutbox} attached, every write is persisted before it is sent and
+ * acknowledged once the server has taken it. The outbox is synced once per batch, before it is
+ * sent and again for its acknowledgements, and otherwise within {@link #MAX_BATCH_AGE_MS} of a
+ * write being enqueued. Network errors and server-side errors put the batcher offline: writes
+ * stay queued (and on disk) and are retried with backoff, or as soon as {@link #retryNow()}
+ * reports that connectivity is back. A request rejected as a whole is split until the write it
+ * fails on is alone, and only that one is dropped. Writes left in the outbox by a previous
+ * session are replayed when the batcher starts. A backlog is drained with several batches in
+ * flight at once.
+ * <p>
+ * Request bodies are streamed straight into the connection with {@link FirestoreJsonWriter} and
+ * the per-write status is pulled out of the response with {@link FirestoreResponseReader}.
+ */
+public class FirestoreWriteBatcher {
+    private static final String TAG = "FirestoreWriteBatcher";
+
+    public static final int  MAX_BATCH_SIZE    = 20;
+    public static final long MAX_BATCH_AGE_MS  = 5000;
+
+    // Batches in flight while draining a backlog; normal operation keeps one
+    private static final int  MAX_IN_FLIGHT    = 3;
+    private static final long RETRY_MIN_MS     = 5000;
+    private static final long RETRY_MAX_MS     = 60000;
+
+    // Every write we send is safe to repeat (see FirestoreWrite), so the client may retry a batch
+    // once on its own before the batcher goes offline
+    private static final int  BATCH_ATTEMPTS    = 2;
+    private static final long BATCH_DEADLINE_MS = 20000;
+    // Tries for an update of a document whose create has not landed yet
+    private static final int  MAX_MISSING_ATTEMPTS = 5;
+
+    // google.rpc.Code values returned per write by batchWrite
+    private static final int CODE_OK                  = 0;
+    private static final int CODE_DEADLINE_EXCEEDED   = 4;
+    private static final int CODE_ALREADY_EXISTS      = 6;
+    private static final int CODE_RESOURCE_EXHAUSTED  = 8;
+    private static final int CODE_FAILED_PRECONDITION = 9;
+    private static final int CODE_ABORTED             = 10;
+    private static final int CODE_INTERNAL            = 13;
+    private static final int CODE_UNAVAILABLE         = 14;
+    private static final int CODE_UNAUTHENTICATED     = 16;
+
+    private static final Comparator<FirestoreWrite> SEND_ORDER = new Comparator<FirestoreWrite>() {
+        @Override
+        public int compare(FirestoreWrite a, FirestoreWrite b) {
+            if (a.getPriority() != b.getPriority()) {
+                return b.getPriority() - a.getPriority();
+            }
+            return Long.compare(a.mSequence, b.mSequence);
+        }
+    };
+
+    private final DroneWatchApiClient mApi;
+    private final String mDatabaseRoot;
+    private final String mBatchWriteUrl;
+    private final DroneWatchOutbox mOutbox;
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    private final List<FirestoreWrite> mPending = new ArrayList<>();
+    private ScheduledFuture<?> mAgeFlush;
+    private ScheduledFuture<?> mRetry;
+    private ScheduledFuture<?> mSync;
+    // Waiting for the outbox sync that covers their writes
+    private final List<Runnable> mOnSynced = new ArrayList<>();
+    private int  mInFlight;
+    private boolean mOffline;
+    private long mRetryDelayMs = RETRY_MIN_MS;
+    private long mNextSequence;
+
+    /**
+     * @param outbox where writes are persisted until acknowledged, or null to keep them in memory only
+     */
+    public FirestoreWriteBatcher(DroneWatchApiClient api, DroneWatchOutbox outbox) {
+        mApi           = api;
+        mDatabaseRoot  = api.databaseRoot();
+        mBatchWriteUrl = api.batchWriteUrl();
+        mOutbox        = outbox;
+        if (mOutbox != null) {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    restoreFromOutbox();
+                }
+            });
+        }
+    }
+
+    public void enqueue(FirestoreWrite write) {
+        enqueue(write, null);
+    }
+
+    /**
+     * Same, and runs {@code onStored} on the batcher thread once the write is synced to the outbox
+     * (or queued, without an outbox). It is not run if the write could not be stored, so whatever
+     * it would have cleaned up is still there to try again with.
+     */
+    public void enqueue(final FirestoreWrite write, final Runnable onStored) {
+        boolean queued = post(new Runnable() {
+            @Override
+            public void run() {
+                boolean stored = persist(write);
+                addPending(write);
+                if (stored && onStored != null) {
+                    if (mOutbox != null) {
+                        mOnSynced.add(onStored);
+                    } else {
+                        onStored.run();
+                    }
+                }
+                scheduleSync();
+                if (write.getPriority() >= FirestoreWrite.PRIORITY_HIGH
+                    || mPending.size() >= MAX_BATCH_SIZE) {
+                    flushNow();
+                } else {
+                    scheduleAgeFlush();
+                }
+            }
+        });
+        if (!queued) {
+            Log.w(TAG, "Dropping write to " + write.getDocumentPath() + " after shutdown");
+        }
+    }
+
+    /**
+     * Sends whatever is pending without waiting for the age limit.
+     */
+    public void flush() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                flushNow();
+            }
+        });
+    }
+
+    /**
+     * Connectivity is back: leave offline mode and drain the backlog right away.
+     */
+    public void retryNow() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mOffline) return;
+                Log.i(TAG, "Retrying " + mPending.size() + " queued writes");
+                goOnline();
+                flushNow();
+            }
+        });
+    }
+
+    /**
+     * Flushes what is pending and stops accepting work once that batch has been handed to OkHttp.
+     * Anything not acknowledged stays in the outbox for the next session.
+     */
+    public void shutdown() {
+        boolean queued = post(new Runnable() {
+            @Override
+            public void run() {
+                if (!mOffline) flushNow();
+                syncOutbox();
+                if (mOutbox != null) mOutbox.close();
+            }
+        });
+        if (queued) mExecutor.shutdown();
+    }
+
+    // False once shut down; checking isShutdown() first would race with shutdown()
+    private boolean post(Runnable task) {
+        try {
+            mExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void restoreFromOutbox() {
+        try {
+            Map<Long, String> records = mOutbox.open();
+            for (Map.Entry<Long, String> e : records.entrySet()) {
+                try {
+                    FirestoreWrite write = FirestoreWrite.fromRecord(e.getValue());
+                    write.mOutboxId = e.getKey();
+                    addPending(write);
+                } catch (JSONException ex) {
+                    Log.e(TAG, "Dropping unreadable outbox record " + e.getKey(), ex);
+                    ack(e.getKey());
+                }
+            }
+            if (!records.isEmpty()) {
+                Log.i(TAG, "Replaying " + mPending.size() + " writes from outbox");
+                flushNow();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Outbox unavailable, writes will not survive a restart", e);
+        }
+    }
+
+    // False if the write is only in memory although there is an outbox
+    private boolean persist(FirestoreWrite write) {
+        if (mOutbox == null) return true;
+        try {
+            write.mOutboxId = mOutbox.append(write.toRecord());
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not persist write to " + write.getDocumentPath(), e);
+            return false;
+        }
+    }
+
+    private void ack(long outboxId) {
+        if (mOutbox == null || outboxId == 0) return;
+        try {
+            mOutbox.ack(outboxId);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not acknowledge outbox record " + outboxId, e);
+        }
+    }
+
+    /**
+     * One fsync for everything written to the outbox since the last, then the callbacks waiting
+     * on it.
+     */
+    private void syncOutbox() {
+        if (mSync != null) {
+            mSync.cancel(false);
+            mSync = null;
+        }
+        if (mOutbox == null) return;
+        List<Runnable> synced = new ArrayList<>(mOnSynced);
+        mOnSynced.clear();
+        try {
+            mOutbox.sync();
+        } catch (IOException e) {
+            // Their writes may not survive a crash, so what they would clean up stays
+            Log.e(TAG, "Could not sync outbox", e);
+            return;
+        }
+        for (Runnable r : synced) {
+            r.run();
+        }
+    }
+
+    // For writes that no flush is about to cover, e.g. while offline or a batch is in flight
+    private void scheduleSync() {
+        if (mOutbox == null || mSync != null) return;
+        try {
+            mSync = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mSync = null;
+                    syncOutbox();
+                }
+            }, MAX_BATCH_AGE_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down, which syncs anyway
+        }
+    }
+
+    private void addPending(FirestoreWrite write) {
+        String key = write.getCoalesceKey();
+        long oldestEnqueuedAt = System.currentTimeMillis();
+        write.mSequence = 0;
+        if (key != null) {
+            Iterator<FirestoreWrite> it = mPending.iterator();
+            while (it.hasNext()) {
+                FirestoreWrite pending = it.next();
+                if (key.equals(pending.getCoalesceKey())) {
+                    // Keep the place in line (and the age) of the write being replaced; the
+                    // replaced write is done as far as the outbox is concerned
+                    oldestEnqueuedAt = pending.mEnqueuedAtMs;
+                    write.mSequence = pending.mSequence;
+                    it.remove();
+                    supersede(pending, write);
+                    break;
+                }
+            }
+        }
+        if (write.mSequence == 0) write.mSequence = ++mNextSequence;
+        write.mEnqueuedAtMs = oldestEnqueuedAt;
+        mPending.add(write);
+    }
+
+    private void scheduleAgeFlush() {
+        if (mOffline || mInFlight > 0 || mPending.isEmpty() || mAgeFlush != null) return;
+        long oldest = Long.MAX_VALUE;
+        for (FirestoreWrite w : mPending) {
+            oldest = Math.min(oldest, w.mEnqueuedAtMs);
+        }
+        long delay = Math.max(0, oldest + MAX_BATCH_AGE_MS - System.currentTimeMillis());
+        try {
+            mAgeFlush = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mAgeFlush = null;
+                    flushNow();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down: what is pending stays in the outbox
+        }
+    }
+
+    private void flushNow() {
+        // Whatever is sent is on disk first
+        syncOutbox();
+        if (mOffline || mPending.isEmpty()) return;
+        if (mAgeFlush != null) {
+            mAgeFlush.cancel(false);
+            mAgeFlush = null;
+        }
+        Collections.sort(mPending, SEND_ORDER);
+        // One batch at a time normally; a backlog gets several pipelined batches
+        int maxInFlight = mPending.size() > MAX_BATCH_SIZE ? MAX_IN_FLIGHT : 1;
+        while (mInFlight < maxInFlight && !mPending.isEmpty()) {
+            sendBatch();
+        }
+    }
+
+    private void sendBatch() {
+        int count = Math.min(MAX_BATCH_SIZE, mPending.size());
+        List<FirestoreWrite> batch = new ArrayList<>(mPending.subList(0, count));
+        mPending.subList(0, count).clear();
+        mInFlight++;
+        send(batch);
+    }
+
+    // Counted in mInFlight by the caller
+    private void send(final List<FirestoreWrite> batch) {
+        final String databaseRoot = mDatabaseRoot;
+        Request req = mApi.authorizedRequest(mBatchWriteUrl)
+            .post(new FirestoreJsonWriter.Body() {
+                @Override
+                protected void write(FirestoreJsonWriter out) throws IOException {
+                    out.beginObject().name("writes").beginArray();
+                    for (FirestoreWrite w : batch) {
+                        w.writeTo(out, databaseRoot);
+                    }
+                    out.endArray().endObject();
+                }
+            })
+            .build();
+
+        mApi.enqueue("batchWrite", req, BATCH_DEADLINE_MS, BATCH_ATTEMPTS, new Callback() {
+            @Override public void onFailure(Call c, IOException e) {
+                Log.e(TAG, "Batch write failed (" + batch.size() + " writes)", e);
+                finish(batch, null, null, true, e.getMessage());
+            }
+            @Override public void onResponse(Call c, Response r) throws IOException {
+                if (!r.isSuccessful()) {
+                    String body = r.body().string();
+                    r.close();
+                    Log.e(TAG, "Batch write error " + r.code() + ": " + body);
+                    finish(batch, null, null, isRetryableHttp(r.code()), "HTTP " + r.code());
+                    return;
+                }
+                int[] codes = new int[batch.size()];
+                String[] messages = new String[batch.size()];
+                try {
+                    FirestoreResponseReader.readBatchWriteStatus(r.body().charStream(), codes, messages);
+                } catch (IOException | RuntimeException e) {
+                    // JsonReader reports malformed input as an IOException or IllegalStateException
+                    Log.e(TAG, "Unparseable batch write response", e);
+                    finish(batch, null, null, true, "Bad response");
+                    return;
+                } finally {
+                    r.close();
+                }
+                finish(batch, codes, messages, false, null);
+            }
+        });
+    }
+
+    private void finish(final List<FirestoreWrite> batch, final int[] codes, final String[] messages,
+                        final boolean retryable, final String error) {
+        boolean queued = post(new Runnable() {
+            @Override
+            public void run() {
+                mInFlight--;
+                deliver(batch, codes, messages, retryable, error);
+                // The batch's acknowledgements in one go
+                syncOutbox();
+                if (mOffline) return;
+                if (mPending.size() >= MAX_BATCH_SIZE || hasHighPriorityPending()) {
+                    flushNow();
+                } else {
+                    scheduleAgeFlush();
+                }
+            }
+        });
+        if (!queued) reportAfterShutdown(batch, codes, messages, error);
+    }
+
+    /**
+     * Answered after shutdown(): the outbox is closed, so whatever the server did not take is
+     * replayed next session. Each callback still hears how its own write went.
+     */
+    private static void reportAfterShutdown(List<FirestoreWrite> batch, int[] codes, String[] messages,
+                                            String error) {
+        for (int i = 0; i < batch.size(); i++) {
+            FirestoreWrite w = batch.get(i);
+            if (w.getCallback() == null) continue;
+            if (error != null) {
+                w.getCallback().onResult(false, error);
+            } else if (succeeded(w, codes[i])) {
+                w.getCallback().onResult(true, null);
+            } else {
+                w.getCallback().onResult(false, writeError(codes, messages, i));
+            }
+        }
+    }
+
+    /**
+     * batchWrite applies each write independently and answers with one {@code google.rpc.Status}
+     * per write, in request order; a missing or zero code means that write succeeded.
+     */
+    private void deliver(List<FirestoreWrite> batch, int[] codes, String[] messages,
+                         boolean retryable, String error) {
+        if (error != null && !retryable && batch.size() > 1) {
+            // A request rejected as a whole may be down to one bad write: halve the batch until
+            // that write is on its own, so the rest still go through
+            int half = batch.size() / 2;
+            Log.w(TAG, "Splitting a rejected batch of " + batch.size() + " writes");
+            mInFlight += 2;
+            send(new ArrayList<>(batch.subList(0, half)));
+            send(new ArrayList<>(batch.subList(half, batch.size())));
+            return;
+        }
+        // Only trouble reaching the server or on its side is worth backing off for
+        boolean offline = false;
+        for (int i = 0; i < batch.size(); i++) {
+            FirestoreWrite w = batch.get(i);
+            if (error != null) {
+                if (retryable) {
+                    requeue(w);
+                    offline = true;
+                } else {
+                    Log.e(TAG, "Write to " + w.getDocumentPath() + " rejected on its own (" + error
+                        + "), dropping it");
+                    complete(w, false, error);
+                }
+                continue;
+            }
+            int code = codes[i];
+            if (succeeded(w, code)) {
+                complete(w, true, null);
+            } else if (isServerTrouble(code)) {
+                requeue(w);
+                offline = true;
+            } else if (code == CODE_ABORTED
+                       || (code == CODE_FAILED_PRECONDITION && w.mustExist()
+                           && ++w.mMissingAttempts < MAX_MISSING_ATTEMPTS)) {
+                // Contention, or the create it depends on may be in a later batch or unordered
+                // within this one: it goes with the next batch, without holding up the others
+                w.mEnqueuedAtMs = System.currentTimeMillis();
+                requeue(w);
+            } else {
+                String writeError = writeError(codes, messages, i);
+                Log.e(TAG, "Write to " + w.getDocumentPath() + " rejected: " + writeError);
+                complete(w, false, writeError);
+            }
+        }
+        if (offline) {
+            goOffline();
+        } else if (error == null) {
+            goOnline();
+        }
+    }
+
+    // ALREADY_EXISTS on a create is an earlier attempt of this very write landing
+    private static boolean succeeded(FirestoreWrite w, int code) {
+        return code == CODE_OK || (code == CODE_ALREADY_EXISTS && w.isCreate());
+    }
+
+    private static String writeError(int[] codes, String[] messages, int i) {
+        return messages[i] != null ? messages[i] : "code " + codes[i];
+    }
+
+    private void complete(FirestoreWrite w, boolean success, String error) {
+        ack(w.mOutboxId);
+        if (w.getCallback() != null) {
+            w.getCallback().onResult(success, error);
+        }
+    }
+
+    /**
+     * Puts a write back in line for the next attempt, unless a newer value for the same
+     * fields arrived while it was in flight.
+     */
+    private void requeue(FirestoreWrite w) {
+        String key = w.getCoalesceKey();
+        if (key != null) {
+            for (FirestoreWrite pending : mPending) {
+                if (key.equals(pending.getCoalesceKey())) {
+                    supersede(w, pending);
+                    return;
+                }
+            }
+        }
+        mPending.add(w);
+    }
+
+    /**
+     * Drops a write in favour of a newer one for the same fields. Its caller hears how the
+     * newer write goes, since that is what decides the value the fields end up with.
+     */
+    private void supersede(FirestoreWrite old, FirestoreWrite newer) {
+        ack(old.mOutboxId);
+        final FirestoreWrite.Callback oldCallback = old.getCallback();
+        if (oldCallback == null) return;
+        final FirestoreWrite.Callback newCallback = newer.getCallback();
+        newer.setCallback(new FirestoreWrite.Callback() {
+            @Override
+            public void onResult(boolean success, String error) {
+                if (newCallback != null) newCallback.onResult(success, error);
+                oldCallback.onResult(success, error);
+            }
+        });
+    }
+
+    private void goOffline() {
+        if (mAgeFlush != null) {
+            mAgeFlush.cancel(false);
+            mAgeFlush = null;
+        }
+        if (mRetry != null) return;
+        if (!mOffline) {
+            Log.w(TAG, "Going offline with " + mPending.size() + " writes queued");
+        }
+        mOffline = true;
+        try {
+            mRetry = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mRetry = null;
+                    mOffline = false;
+                    flushNow();
+                }
+            }, mRetryDelayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down: the writes stay in the outbox for the next session
+            return;
+        }
+        // Exponential backoff, with jitter so a fleet of devices does not retry in lockstep
+        mRetryDelayMs = Math.min(RETRY_MAX_MS, mRetryDelayMs * 2);
+        mRetryDelayMs += (long) (Math.random() * RETRY_MIN_MS);
+    }
+
+    private void goOnline() {
+        mOffline = false;
+        mRetryDelayMs = RETRY_MIN_MS;
+        if (mRetry != null) {
+            mRetry.cancel(false);
+            mRetry = null;
+        }
+    }
+
+    // A 401 gets here only when the token could not be refreshed for now; keep the writes until it
+    // can. Any other 4xx is about the request itself and would fail again just the same
+    private static boolean isRetryableHttp(int httpCode) {
+        return httpCode == 401 || httpCode == 408 || httpCode == 429 || httpCode >= 500;
+    }
+
+    // The per-write counterparts of 5xx, 429 and 401
+    private static boolean isServerTrouble(int code) {
+        return code == CODE_DEADLINE_EXCEEDED || code == CODE_RESOURCE_EXHAUSTED
+            || code == CODE_INTERNAL || code == CODE_UNAVAILABLE || code == CODE_UNAUTHENTICATED;
+    }
+
+    private boolean hasHighPriorityPending() {
+        for (FirestoreWrite w : mPending) {
+            if (w.getPriority() >= FirestoreWrite.PRIORITY_HIGH) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,197 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fragmented MP4 (ISO/IEC 14496-12 and -15) for a single H.264 track, one frame per fragment,
+ * so a viewer can start at any keyframe and shows each frame as soon as it arrives. The init
+ * segment carries the SPS and PPS; each fragment is a {@link #FRAGMENT_HEADER}-byte moof and mdat
+ * header followed by the frame with its NAL units length-prefixed instead of start-coded.
+ * <p>
+ * Timestamps are in a 90 kHz timescale.
+ */
+public final class Fmp4Writer {
+
+    public static final int TIMESCALE = 90000;
+    // moof(8) mfhd(16) traf(8) tfhd(16) tfdt(20) trun(32), then the mdat header(8)
+    public static final int FRAGMENT_HEADER = 108;
+    private static final int MOOF_SIZE = FRAGMENT_HEADER - 8;
+    // Assumed frame duration until the stream shows otherwise; 30 fps
+    private static final int DEFAULT_DURATION = TIMESCALE / 30;
+
+    private static final int SAMPLE_SYNC     = 0x02000000;
+    private static final int SAMPLE_NON_SYNC = 0x01010000;
+
+    private Fmp4Writer() {
+    }
+
+    /**
+     * The ftyp and moov boxes a viewer needs before the first fragment.
+     *
+     * @param sps the sequence parameter set, without a start code; likewise {@code pps}
+     */
+    public static byte[] initSegment(byte[] sps, byte[] pps, int width, int height) {
+        ByteBuffer b = ByteBuffer.allocate(1024 + sps.length + pps.length);
+
+        int ftyp = begin(b, "ftyp");
+        b.putInt(fourCc("iso5")).putInt(512);
+        b.putInt(fourCc("iso5")).putInt(fourCc("iso6")).putInt(fourCc("avc1")).putInt(fourCc("mp41"));
+        end(b, ftyp);
+
+        int moov = begin(b, "moov");
+        int mvhd = beginFull(b, "mvhd", 0, 0);
+        b.putInt(0).putInt(0).putInt(1000).putInt(0);   // times, timescale, duration
+        b.putInt(0x00010000).putShort((short) 0x0100);  // rate, volume
+        b.put(new byte[10]);
+        putMatrix(b);
+        b.put(new byte[24]);
+        b.putInt(2);                                    // next_track_ID
+        end(b, mvhd);
+
+        int trak = begin(b, "trak");
+        int tkhd = beginFull(b, "tkhd", 0, 3);          // enabled, in movie
+        b.putInt(0).putInt(0).putInt(1).putInt(0).putInt(0);
+        b.put(new byte[8]);
+        b.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        putMatrix(b);
+        b.putInt(width << 16).putInt(height << 16);
+        end(b, tkhd);
+
+        int mdia = begin(b, "mdia");
+        int mdhd = beginFull(b, "mdhd", 0, 0);
+        b.putInt(0).putInt(0).putInt(TIMESCALE).putInt(0);
+        b.putShort((short) 0x55C4).putShort((short) 0); // "und"
+        end(b, mdhd);
+        int hdlr = beginFull(b, "hdlr", 0, 0);
+        b.putInt(0).putInt(fourCc("vide")).put(new byte[12]).put("VideoHandler".getBytes()).put((byte) 0);
+        end(b, hdlr);
+
+        int minf = begin(b, "minf");
+        int vmhd = beginFull(b, "vmhd", 0, 1);
+        b.put(new byte[8]);
+        end(b, vmhd);
+        int dinf = begin(b, "dinf");
+        int dref = beginFull(b, "dref", 0, 0);
+        b.putInt(1);
+        int url = beginFull(b, "url ", 0, 1);           // media is in this file
+        end(b, url);
+        end(b, dref);
+        end(b, dinf);
+
+        int stbl = begin(b, "stbl");
+        int stsd = beginFull(b, "stsd", 0, 0);
+        b.putInt(1);
+        int avc1 = begin(b, "avc1");
+        b.put(new byte[6]).putShort((short) 1);         // data_reference_index
+        b.put(new byte[16]);
+        b.putShort((short) width).putShort((short) height);
+        b.putInt(0x00480000).putInt(0x00480000).putInt(0).putShort((short) 1);
+        b.put(new byte[32]);                            // compressorname
+        b.putShort((short) 0x0018).putShort((short) -1);
+        int avcC = begin(b, "avcC");
+        b.put((byte) 1).put(sps[1]).put(sps[2]).put(sps[3]);
+        b.put((byte) 0xFF);                             // four-byte NAL lengths
+        b.put((byte) 0xE1).putShort((short) sps.length).put(sps);
+        b.put((byte) 1).putShort((short) pps.length).put(pps);
+        end(b, avcC);
+        end(b, avc1);
+        end(b, stsd);
+        // No samples in the moov; they all come in fragments
+        int stts = beginFull(b, "stts", 0, 0);
+        b.putInt(0);
+        end(b, stts);
+        int stsc = beginFull(b, "stsc", 0, 0);
+        b.putInt(0);
+        end(b, stsc);
+        int stsz = beginFull(b, "stsz", 0, 0);
+        b.putInt(0).putInt(0);
+        end(b, stsz);
+        int stco = beginFull(b, "stco", 0, 0);
+        b.putInt(0);
+        end(b, stco);
+        end(b, stbl);
+        end(b, minf);
+        end(b, mdia);
+        end(b, trak);
+
+        int mvex = begin(b, "mvex");
+        int trex = beginFull(b, "trex", 0, 0);
+        b.putInt(1).putInt(1).putInt(DEFAULT_DURATION).putInt(0).putInt(SAMPLE_NON_SYNC);
+        end(b, trex);
+        end(b, mvex);
+        end(b, moov);
+
+        byte[] out = new byte[b.position()];
+        b.flip();
+        b.get(out);
+        return out;
+    }
+
+    /**
+     * Writes the moof and mdat header for one frame at {@code out}'s position.
+     *
+     * @param decodeTime when the frame is due, in {@link #TIMESCALE} units
+     * @param duration   how long it is shown, likewise
+     */
+    public static void putFragmentHeader(ByteBuffer out, int sequence, long decodeTime, int duration,
+                                         int sampleSize, boolean key) {
+        out.putInt(MOOF_SIZE).putInt(fourCc("moof"));
+        out.putInt(16).putInt(fourCc("mfhd")).putInt(0).putInt(sequence);
+        out.putInt(76).putInt(fourCc("traf"));
+        // default-base-is-moof: data offsets count from the start of the moof
+        out.putInt(16).putInt(fourCc("tfhd")).putInt(0x020000).putInt(1);
+        out.putInt(20).putInt(fourCc("tfdt")).putInt(0x01000000).putLong(decodeTime);
+        // data-offset, sample-duration, sample-size and sample-flags present
+        out.putInt(32).putInt(fourCc("trun")).putInt(0x000701).putInt(1).putInt(FRAGMENT_HEADER);
+        out.putInt(duration).putInt(sampleSize).putInt(key ? SAMPLE_SYNC : SAMPLE_NON_SYNC);
+        out.putInt(8 + sampleSize).putInt(fourCc("mdat"));
+    }
+
+    /**
+     * Turns a frame of NAL units each behind a four-byte start code, as kept in a
+     * {@link FrameRing}, into the length-prefixed form MP4 wants, in place. The sizes match, as
+     * each start code becomes a four-byte length.
+     *
+     * @return false if the frame does not start with a four-byte start code
+     */
+    public static boolean startCodesToLengths(ByteBuffer frame, int offset, int length) {
+        int end = offset + length;
+        int at = offset;
+        while (at + 4 <= end) {
+            if (frame.getInt(at) != 1) return false;
+            // Emulation prevention keeps 00 00 00 01 out of the units themselves
+            int next = at + 4;
+            while (next + 4 <= end && frame.getInt(next) != 1) next++;
+            if (next + 4 > end) next = end;
+            frame.putInt(at, next - at - 4);
+            at = next;
+        }
+        return at == end;
+    }
+
+    private static int begin(ByteBuffer b, String type) {
+        int start = b.position();
+        b.putInt(0).putInt(fourCc(type));
+        return start;
+    }
+
+    private static int beginFull(ByteBuffer b, String type, int version, int flags) {
+        int start = begin(b, type);
+        b.putInt((version << 24) | flags);
+        return start;
+    }
+
+    private static void end(ByteBuffer b, int start) {
+        b.putInt(start, b.position() - start);
+    }
+
+    private static void putMatrix(ByteBuffer b) {
+        b.putInt(0x00010000).putInt(0).putInt(0);
+        b.putInt(0).putInt(0x00010000).putInt(0);
+        b.putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    private static int fourCc(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+}
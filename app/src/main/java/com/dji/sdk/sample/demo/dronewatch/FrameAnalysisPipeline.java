@@ -0,0 +1,206 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs small video frames through a chain of {@link FrameDetector}s on one background thread,
+ * on the CPU only.
+ * <p>
+ * Frames come from a fixed pool: a source takes one with {@link #obtainFrame()}, fills it and
+ * {@link #submit}s it. When analysis falls behind, the pool runs dry and the source skips
+ * frames without even copying them. The queue of frames waiting for analysis also drops the
+ * oldest when full, so what gets analysed is always close to live. Every stage is timed.
+ * <p>
+ * Nothing here depends on Android, so recorded frames can be replayed through the detectors
+ * off-device.
+ */
+public class FrameAnalysisPipeline {
+
+    // Frames waiting for analysis; the pool adds one being filled and one being analysed
+    private static final int QUEUE_CAPACITY = 2;
+    private static final int POOL_SIZE      = QUEUE_CAPACITY + 2;
+
+    public interface Listener {
+        /**
+         * Hits from every detector for one frame. Called on the analysis thread; the frame goes
+         * back to the pool once this returns.
+         */
+        void onDetections(AnalysisFrame frame, List<Detection> detections);
+    }
+
+    private final FrameDetector[] mDetectors;
+    private final Listener mListener;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final ArrayList<Detection> mDetections = new ArrayList<>();
+
+    // Stage 0 is the wait in the queue, 1 the luma conversion, then one per detector
+    private final StageStats[] mStages;
+
+    // Guarded by mQueue
+    private final ArrayDeque<AnalysisFrame> mQueue = new ArrayDeque<>(QUEUE_CAPACITY);
+    private final ArrayDeque<AnalysisFrame> mFree  = new ArrayDeque<>(POOL_SIZE);
+    private final long[] mQueuedAtNs = new long[POOL_SIZE];
+    private final AnalysisFrame[] mAll = new AnalysisFrame[POOL_SIZE];
+    private boolean mDraining;
+    private boolean mShutdown;
+    private long mAnalysed;
+    private long mDropped;
+    private long mSkipped;
+
+    public FrameAnalysisPipeline(int frameWidth, int frameHeight, List<FrameDetector> detectors,
+                                 Listener listener) {
+        mDetectors = detectors.toArray(new FrameDetector[0]);
+        mListener  = listener;
+        mStages = new StageStats[mDetectors.length + 2];
+        mStages[0] = new StageStats("queue");
+        mStages[1] = new StageStats("luma");
+        for (int i = 0; i < mDetectors.length; i++) {
+            mStages[i + 2] = new StageStats(mDetectors[i].getName());
+        }
+        for (int i = 0; i < POOL_SIZE; i++) {
+            mAll[i] = new AnalysisFrame(frameWidth, frameHeight);
+            mFree.add(mAll[i]);
+        }
+    }
+
+    /**
+     * A frame to fill, or null when analysis is behind and this frame should be skipped.
+     */
+    public AnalysisFrame obtainFrame() {
+        synchronized (mQueue) {
+            AnalysisFrame frame = mShutdown ? null : mFree.poll();
+            if (frame == null) mSkipped++;
+            return frame;
+        }
+    }
+
+    /**
+     * Gives back a frame from {@link #obtainFrame()} that was not submitted.
+     */
+    public void recycle(AnalysisFrame frame) {
+        synchronized (mQueue) {
+            mFree.add(frame);
+        }
+    }
+
+    /**
+     * Queues a filled frame, dropping the oldest waiting one if the queue is full.
+     */
+    public void submit(AnalysisFrame frame) {
+        synchronized (mQueue) {
+            if (mShutdown) {
+                mFree.add(frame);
+                return;
+            }
+            if (mQueue.size() >= QUEUE_CAPACITY) {
+                mFree.add(mQueue.pollFirst());
+                mDropped++;
+            }
+            mQueuedAtNs[indexOf(frame)] = System.nanoTime();
+            mQueue.addLast(frame);
+            if (mDraining) return;
+            mDraining = true;
+            // Under the lock, so shutdown() cannot slip in between
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    public void shutdown() {
+        synchronized (mQueue) {
+            mShutdown = true;
+            mFree.addAll(mQueue);
+            mQueue.clear();
+        }
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Frame counts and per-stage timings, for the log.
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        synchronized (mQueue) {
+            sb.append(mAnalysed).append(" analysed, ").append(mDropped).append(" dropped, ")
+                .append(mSkipped).append(" skipped");
+        }
+        for (StageStats stage : mStages) sb.append("; ").append(stage);
+        return sb.toString();
+    }
+
+    // Analysis thread
+    private void drain() {
+        while (true) {
+            AnalysisFrame frame;
+            long queuedAtNs;
+            synchronized (mQueue) {
+                frame = mQueue.pollFirst();
+                if (frame == null) {
+                    mDraining = false;
+                    return;
+                }
+                queuedAtNs = mQueuedAtNs[indexOf(frame)];
+            }
+            long t = System.nanoTime();
+            mStages[0].record(t - queuedAtNs);
+
+            frame.computeLuma();
+            long now = System.nanoTime();
+            mStages[1].record(now - t);
+
+            mDetections.clear();
+            for (int i = 0; i < mDetectors.length; i++) {
+                t = now;
+                mDetectors[i].detect(frame, mDetections);
+                now = System.nanoTime();
+                mStages[i + 2].record(now - t);
+            }
+            if (!mDetections.isEmpty()) mListener.onDetections(frame, mDetections);
+
+            synchronized (mQueue) {
+                mAnalysed++;
+                mFree.add(frame);
+            }
+        }
+    }
+
+    // With mQueue held
+    private int indexOf(AnalysisFrame frame) {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            if (mAll[i] == frame) return i;
+        }
+        throw new IllegalArgumentException("Frame not from this pipeline");
+    }
+
+    private static final class StageStats {
+        private final String mName;
+        private long mCount;
+        private long mTotalNs;
+        private long mMaxNs;
+
+        StageStats(String name) {
+            mName = name;
+        }
+
+        synchronized void record(long ns) {
+            mCount++;
+            mTotalNs += ns;
+            mMaxNs = Math.max(mMaxNs, ns);
+        }
+
+        @Override
+        public synchronized String toString() {
+            double avgMs = mCount == 0 ? 0 : mTotalNs / 1e6 / mCount;
+            return String.format(Locale.US, "%s avg %.2fms max %.2fms", mName, avgMs, mMaxNs / 1e6);
+        }
+    }
+}
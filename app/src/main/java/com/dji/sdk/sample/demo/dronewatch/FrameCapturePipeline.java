@@ -0,0 +1,423 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.graphics.Bitmap;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.PixelCopy;
+import android.view.Surface;
+import android.view.TextureView;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grabs video frames for findings and writes them out as JPEG files for
+ * {@link FindingImageUploader}, keeping the copy and the encode off the UI thread.
+ * <p>
+ * With a {@link YuvFrameTap} set, the frame comes straight from the decoder at the resolution of
+ * the stream, without a readback from the display. Without one, or when no decoded frame turns up
+ * in time, the view is copied instead: from Android N on with {@link PixelCopy}, with the result
+ * delivered on a thread of its own, and on older devices with
+ * {@link TextureView#getBitmap(Bitmap)} on the main thread. The view copies land in a few pooled
+ * bitmaps that are reused from capture to capture. JPEG encoding runs on a single background
+ * thread. With {@link #MAX_IN_FLIGHT} captures already under way a new one is turned down instead
+ * of queued, which bounds both memory and the encode backlog during rapid captures.
+ * <p>
+ * Each saved frame comes with its {@link PerceptualHash}, taken from the same pixels before
+ * encoding, so repeat captures can be spotted without decoding the JPEG again.
+ */
+public class FrameCapturePipeline {
+    private static final String TAG = "FrameCapturePipeline";
+
+    // Frames being copied or encoded at once; also bounds the encode queue and the bitmap pool
+    private static final int MAX_IN_FLIGHT = 3;
+    // How long a capture waits for a decoded frame before copying the view instead
+    private static final long DECODED_FRAME_WAIT_MS = 500;
+    private static final int JPEG_QUALITY = 90;
+    private static final int FILE_BUFFER  = 64 * 1024;
+    // Every n-th pixel and row goes into the perceptual hash
+    private static final int HASH_STEP    = 4;
+
+    public interface Callback {
+        /**
+         * The JPEG is on disk, and is uploaded once the finding is recorded and
+         * {@link FindingImageUploader#upload} is called. Called on the encoder thread.
+         *
+         * @param imageHash {@link PerceptualHash} of the frame
+         * @param latencyMs from {@link #capture} until now
+         */
+        void onFrameSaved(File image, long imageHash, long latencyMs);
+
+        /**
+         * No photo for this capture. Called on the encoder, copy or main thread.
+         */
+        void onCaptureFailed(String reason);
+    }
+
+    private final TextureView mView;
+    private final FindingImageUploader mUploader;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mCopyThread = new HandlerThread("FrameCopy");
+    private final Handler mCopyHandler;
+    private final ThreadPoolExecutor mEncoder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(MAX_IN_FLIGHT));
+    private final CaptureStats mStats = new CaptureStats();
+    // Encoder thread only
+    private int[] mHashRow;
+
+    // Pool state, guarded by itself
+    private final ArrayDeque<Bitmap> mFreeBitmaps = new ArrayDeque<>(MAX_IN_FLIGHT);
+    private int mInFlight;
+    private boolean mShutdown;
+
+    private volatile YuvFrameTap mYuvTap;
+
+    // Main thread only
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mSurface;
+
+    public FrameCapturePipeline(TextureView view, FindingImageUploader uploader) {
+        mView     = view;
+        mUploader = uploader;
+        mCopyThread.start();
+        mCopyHandler = new Handler(mCopyThread.getLooper());
+    }
+
+    /**
+     * Takes decoded frames from this tap from now on, or copies the view again if null.
+     */
+    public void setYuvTap(YuvFrameTap tap) {
+        mYuvTap = tap;
+    }
+
+    /**
+     * Starts grabbing the current frame. Call on the main thread; it returns right away.
+     *
+     * @return false if the capture was turned down, in which case the callback is not called
+     */
+    public boolean capture(final String findingId, final Callback callback) {
+        final long startMs = SystemClock.elapsedRealtime();
+        if (!acquireSlot()) {
+            Log.w(TAG, "Capture " + findingId + " dropped, " + MAX_IN_FLIGHT + " frames already in flight");
+            mStats.recordDropped();
+            return false;
+        }
+        final YuvFrameTap tap = mYuvTap;
+        if (tap == null) {
+            captureFromView(findingId, startMs, callback);
+            return true;
+        }
+
+        final YuvFrameTap.FrameListener listener = new YuvFrameTap.FrameListener() {
+            @Override
+            public void onFrame(YuvFrameTap.Frame frame) {
+                encodeDecoded(findingId, tap, frame, startMs, callback);
+            }
+        };
+        tap.requestFrame(listener);
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (tap.cancel(listener)) {
+                    Log.w(TAG, "No decoded frame within " + DECODED_FRAME_WAIT_MS + " ms, copying the view");
+                    captureFromView(findingId, startMs, callback);
+                }
+            }
+        }, DECODED_FRAME_WAIT_MS);
+        return true;
+    }
+
+    public CaptureStats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Drops the surface wrapping the video texture; call when the texture goes away.
+     * Main thread only.
+     */
+    public void releaseSurface() {
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+        mSurfaceTexture = null;
+    }
+
+    /**
+     * Lets queued frames finish encoding, then frees the pool. Main thread only.
+     */
+    public void shutdown() {
+        releaseSurface();
+        mCopyThread.quitSafely();
+        mEncoder.shutdown();
+        synchronized (mFreeBitmaps) {
+            mShutdown = true;
+            for (Bitmap b : mFreeBitmaps) b.recycle();
+            mFreeBitmaps.clear();
+        }
+    }
+
+    // Main thread, with a slot held
+    private void captureFromView(final String findingId, final long startMs, final Callback callback) {
+        int width  = mView.getWidth();
+        int height = mView.getHeight();
+        if (!mView.isAvailable() || width == 0 || height == 0) {
+            failed(callback, "Video not available");
+            return;
+        }
+        final Bitmap bitmap = acquireBitmap(width, height);
+        Surface surface = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N ? videoSurface() : null;
+        if (surface == null) {
+            copyFromView(findingId, bitmap, startMs, callback);
+            return;
+        }
+        try {
+            PixelCopy.request(surface, bitmap, new PixelCopy.OnPixelCopyFinishedListener() {
+                @Override
+                public void onPixelCopyFinished(int result) {
+                    if (result == PixelCopy.SUCCESS) {
+                        encodeBitmap(findingId, bitmap, startMs, callback);
+                    } else {
+                        // Nothing queued on the surface yet, or a copy error: try the view instead
+                        Log.w(TAG, "PixelCopy failed (" + result + "), falling back to the view");
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                copyFromView(findingId, bitmap, startMs, callback);
+                            }
+                        });
+                    }
+                }
+            }, mCopyHandler);
+        } catch (IllegalArgumentException e) {
+            // The surface was released under us
+            Log.w(TAG, "PixelCopy rejected the surface", e);
+            releaseSurface();
+            copyFromView(findingId, bitmap, startMs, callback);
+        }
+    }
+
+    // A second producer-side handle on the decoder's texture, for PixelCopy to read from
+    private Surface videoSurface() {
+        SurfaceTexture texture = mView.getSurfaceTexture();
+        if (texture != mSurfaceTexture) {
+            releaseSurface();
+            if (texture != null) {
+                mSurfaceTexture = texture;
+                mSurface = new Surface(texture);
+            }
+        }
+        return mSurface;
+    }
+
+    // Main thread
+    private void copyFromView(String findingId, Bitmap bitmap, long startMs, Callback callback) {
+        if (!mView.isAvailable() || mView.getBitmap(bitmap) == null) {
+            releaseBitmap(bitmap);
+            failed(callback, "Frame grab failed");
+            return;
+        }
+        encodeBitmap(findingId, bitmap, startMs, callback);
+    }
+
+    private void encodeBitmap(String findingId, final Bitmap bitmap, long startMs, Callback callback) {
+        encode(findingId, startMs, callback, new JpegSource() {
+            @Override
+            public boolean writeJpeg(OutputStream out) {
+                return bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            }
+
+            @Override
+            public long perceptualHash() {
+                int width = bitmap.getWidth();
+                int height = bitmap.getHeight();
+                if (mHashRow == null || mHashRow.length < width) mHashRow = new int[width];
+                PerceptualHash hash = new PerceptualHash(width, height);
+                for (int y = 0; y < height; y += HASH_STEP) {
+                    bitmap.getPixels(mHashRow, 0, width, 0, y, width, 1);
+                    hash.addArgbRow(y, mHashRow, HASH_STEP);
+                }
+                return hash.hash();
+            }
+
+            @Override
+            public void release() {
+                releaseBitmap(bitmap);
+            }
+        });
+    }
+
+    // Decoder thread
+    private void encodeDecoded(String findingId, final YuvFrameTap tap, final YuvFrameTap.Frame frame,
+                               long startMs, Callback callback) {
+        encode(findingId, startMs, callback, new JpegSource() {
+            @Override
+            public boolean writeJpeg(OutputStream out) {
+                return tap.writeJpeg(frame, JPEG_QUALITY, out);
+            }
+
+            @Override
+            public long perceptualHash() {
+                return tap.perceptualHash(frame, HASH_STEP);
+            }
+
+            @Override
+            public void release() {
+                tap.release(frame);
+            }
+        });
+    }
+
+    private interface JpegSource {
+        boolean writeJpeg(OutputStream out) throws IOException;
+
+        // Encoder thread, before release()
+        long perceptualHash();
+
+        void release();
+    }
+
+    private void encode(final String findingId, final long startMs, final Callback callback,
+                        final JpegSource source) {
+        // Never rejected for a full queue: each queued frame holds one of MAX_IN_FLIGHT slots
+        try {
+            mEncoder.execute(new Runnable() {
+                @Override
+                public void run() {
+                    File image = null;
+                    boolean saved = false;
+                    long hash = 0;
+                    try {
+                        hash = source.perceptualHash();
+                        image = mUploader.newImageFile(findingId);
+                        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(image), FILE_BUFFER)) {
+                            saved = source.writeJpeg(out);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // A bad frame from the decoder must not take the slot with it
+                        Log.e(TAG, "Could not save frame for " + findingId, e);
+                        saved = false;
+                    } finally {
+                        try {
+                            source.release();
+                        } finally {
+                            releaseSlot();
+                        }
+                    }
+                    if (!saved) {
+                        if (image != null) image.delete();
+                        mStats.recordFailed();
+                        callback.onCaptureFailed("Could not save photo");
+                        return;
+                    }
+                    long latencyMs = SystemClock.elapsedRealtime() - startMs;
+                    mStats.record(latencyMs);
+                    callback.onFrameSaved(image, hash, latencyMs);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shut down meanwhile
+            source.release();
+            releaseSlot();
+        }
+    }
+
+    private void failed(Callback callback, String reason) {
+        mStats.recordFailed();
+        releaseSlot();
+        callback.onCaptureFailed(reason);
+    }
+
+    private boolean acquireSlot() {
+        synchronized (mFreeBitmaps) {
+            if (mShutdown || mInFlight >= MAX_IN_FLIGHT) return false;
+            mInFlight++;
+            return true;
+        }
+    }
+
+    private void releaseSlot() {
+        synchronized (mFreeBitmaps) {
+            mInFlight--;
+        }
+    }
+
+    // With a slot held, so the pool never grows past MAX_IN_FLIGHT
+    private Bitmap acquireBitmap(int width, int height) {
+        synchronized (mFreeBitmaps) {
+            Bitmap bitmap = mFreeBitmaps.poll();
+            if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+                // The view was resized; the pool refills at the new size
+                bitmap.recycle();
+                bitmap = null;
+            }
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            return bitmap;
+        }
+    }
+
+    private void releaseBitmap(Bitmap bitmap) {
+        synchronized (mFreeBitmaps) {
+            if (mShutdown) {
+                bitmap.recycle();
+            } else {
+                mFreeBitmaps.push(bitmap);
+            }
+        }
+    }
+
+    /**
+     * Capture-to-upload-ready latency: from {@link #capture} until the JPEG is on disk.
+     */
+    public static final class CaptureStats {
+        private final LatencyHistogram mLatency = new LatencyHistogram(50, 100, 200, 400, 800, 1600);
+        private long mDropped;
+        private long mFailed;
+        private long mTotalMs;
+        private long mMaxMs;
+
+        synchronized void record(long latencyMs) {
+            mLatency.record(latencyMs);
+            mTotalMs += latencyMs;
+            mMaxMs = Math.max(mMaxMs, latencyMs);
+        }
+
+        synchronized void recordDropped() {
+            mDropped++;
+        }
+
+        synchronized void recordFailed() {
+            mFailed++;
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, or -1 when above the last bound.
+         */
+        public synchronized long percentileMs(double percentile) {
+            return mLatency.percentileMs(percentile);
+        }
+
+        @Override
+        public synchronized String toString() {
+            long saved = mLatency.count();
+            return saved + " saved, avg " + (saved == 0 ? 0 : mTotalMs / saved) + "ms, p95<="
+                + percentileMs(95) + "ms, max " + mMaxMs + "ms, dropped " + mDropped
+                + ", failed " + mFailed + ", buckets " + mLatency;
+        }
+    }
+}
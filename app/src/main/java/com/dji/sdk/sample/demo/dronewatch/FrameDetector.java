@@ -0,0 +1,20 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.List;
+
+/**
+ * One stage of {@link FrameAnalysisPipeline}. Implementations run on the CPU, on the analysis
+ * thread only, and see frames in the order they were taken.
+ */
+public interface FrameDetector {
+
+    /**
+     * Short, stable name; used for stats and stored with suggested findings.
+     */
+    String getName();
+
+    /**
+     * Looks at one frame and adds whatever it finds to {@code out}.
+     */
+    void detect(AnalysisFrame frame, List<Detection> out);
+}
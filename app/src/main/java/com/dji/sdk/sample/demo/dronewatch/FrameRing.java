@@ -0,0 +1,213 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The last stretch of encoded video, one access unit (frame) per entry, in a preallocated direct
+ * buffer. Frames are numbered in order; each is stored whole and contiguous in Annex B form so it
+ * can be handed to a muxer or decoder as a slice of the buffer without copying. When the buffer
+ * or the frame table is full the oldest frames are overwritten. The sequence numbers of recent
+ * keyframes are kept separately, so playback can start at a keyframe near a given time.
+ * <p>
+ * Frames are built by {@link #append}ing NAL units and then {@link #commit}ting. Thread-safe;
+ * the writer holds the lock only to copy a NAL unit in.
+ */
+public class FrameRing {
+
+    private static final int KEYFRAMES = 256;
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mMaxFrame;
+    private final int mSlots;
+
+    // Per frame, indexed by sequence number modulo mSlots
+    private final int[]     mOffset;
+    private final int[]     mLength;
+    private final long[]    mTimeUs;
+    private final boolean[] mKey;
+
+    // Sequence numbers of keyframes, newest at mKeyCount - 1
+    private final long[] mKeys = new long[KEYFRAMES];
+    private long mKeyCount;
+
+    private long mNext;
+    private long mOldest;
+    private int  mWritePos;
+    // The frame being built, or mOpenStart < 0
+    private int  mOpenStart = -1;
+    private int  mOpenLength;
+
+    /**
+     * @param slots most frames kept, whatever their size
+     */
+    public FrameRing(int capacity, int slots) {
+        mBuffer   = ByteBuffer.allocateDirect(capacity);
+        mCapacity = capacity;
+        // A quarter, so a frame moved to the start never overlaps where it was
+        mMaxFrame = capacity / 4;
+        mSlots    = slots;
+        mOffset   = new int[slots];
+        mLength   = new int[slots];
+        mTimeUs   = new long[slots];
+        mKey      = new boolean[slots];
+    }
+
+    /**
+     * Adds bytes to the frame being built.
+     *
+     * @return false if the frame grew too large; it is then dropped
+     */
+    public synchronized boolean append(byte[] src, int offset, int length) {
+        if (mOpenStart < 0) {
+            mOpenStart = mWritePos;
+            mOpenLength = 0;
+        }
+        if (mOpenLength + length > mMaxFrame) {
+            discard();
+            return false;
+        }
+        if (mOpenStart + mOpenLength + length > mCapacity) {
+            // Keep frames contiguous: move what there is so far to the start. The frames left
+            // past it are the oldest; give them up too, so eviction stays in sequence order
+            while (mOldest < mNext && mOffset[(int) (mOldest % mSlots)] >= mOpenStart) mOldest++;
+            evict(0, mOpenLength + length);
+            ByteBuffer from = mBuffer.duplicate();
+            from.limit(mOpenStart + mOpenLength).position(mOpenStart);
+            ByteBuffer to = mBuffer.duplicate();
+            to.position(0);
+            to.put(from);
+            mOpenStart = 0;
+        }
+        int at = mOpenStart + mOpenLength;
+        evict(at, length);
+        ByteBuffer to = mBuffer.duplicate();
+        to.position(at);
+        to.put(src, offset, length);
+        mOpenLength += length;
+        return true;
+    }
+
+    /**
+     * Finishes the frame being built.
+     *
+     * @return its sequence number, or -1 if nothing was appended
+     */
+    public synchronized long commit(long timeUs, boolean key) {
+        if (mOpenStart < 0) return -1;
+        if (mNext - mOldest == mSlots) mOldest++;
+        long seq = mNext++;
+        int slot = (int) (seq % mSlots);
+        mOffset[slot] = mOpenStart;
+        mLength[slot] = mOpenLength;
+        mTimeUs[slot] = timeUs;
+        mKey[slot]    = key;
+        if (key) mKeys[(int) (mKeyCount++ % KEYFRAMES)] = seq;
+        mWritePos  = mOpenStart + mOpenLength;
+        mOpenStart = -1;
+        notifyAll();
+        return seq;
+    }
+
+    /**
+     * Drops the frame being built.
+     */
+    public synchronized void discard() {
+        mOpenStart = -1;
+    }
+
+    /**
+     * The whole buffer; frames are at {@link #offset} for {@link #length} bytes. Only read it
+     * from the writing thread, which is the only one that can overwrite it.
+     */
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    public synchronized int offset(long seq) {
+        return mOffset[(int) (seq % mSlots)];
+    }
+
+    public synchronized int length(long seq) {
+        return mLength[(int) (seq % mSlots)];
+    }
+
+    public synchronized long timeUs(long seq) {
+        return mTimeUs[(int) (seq % mSlots)];
+    }
+
+    public synchronized boolean isKey(long seq) {
+        return mKey[(int) (seq % mSlots)];
+    }
+
+    /**
+     * Sequence number the next frame will get; frames before it and from {@link #oldest()} on
+     * are available.
+     */
+    public synchronized long next() {
+        return mNext;
+    }
+
+    public synchronized long oldest() {
+        return mOldest;
+    }
+
+    /**
+     * Waits until frame {@code seq} has been committed.
+     *
+     * @return false if it still has not after the timeout
+     */
+    public synchronized boolean awaitFrame(long seq, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (mNext <= seq) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * The latest keyframe at or before a time, or failing that the oldest keyframe still kept;
+     * -1 if none is.
+     */
+    public synchronized long keyframeAtOrBefore(long timeUs) {
+        long found = -1;
+        long first = Math.max(0, mKeyCount - KEYFRAMES);
+        for (long k = mKeyCount - 1; k >= first; k--) {
+            long seq = mKeys[(int) (k % KEYFRAMES)];
+            if (seq < mOldest) break;
+            found = seq;
+            if (mTimeUs[(int) (seq % mSlots)] <= timeUs) break;
+        }
+        return found;
+    }
+
+    /**
+     * Copies a frame out, from any thread.
+     *
+     * @param dst receives the frame from its position; must have room
+     * @return its length, or -1 if it has been overwritten or is not there yet
+     */
+    public synchronized int read(long seq, ByteBuffer dst) {
+        if (seq < mOldest || seq >= mNext) return -1;
+        int slot = (int) (seq % mSlots);
+        if (dst.remaining() < mLength[slot]) return -1;
+        ByteBuffer from = mBuffer.duplicate();
+        from.limit(mOffset[slot] + mLength[slot]).position(mOffset[slot]);
+        dst.put(from);
+        return mLength[slot];
+    }
+
+    // Forgets the oldest frames while they overlap [start, start + length)
+    private void evict(int start, int length) {
+        int end = start + length;
+        while (mOldest < mNext) {
+            int slot = (int) (mOldest % mSlots);
+            int frameStart = mOffset[slot];
+            int frameEnd = frameStart + mLength[slot];
+            if (frameEnd <= start || frameStart >= end) break;
+            mOldest++;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Standard base-32 geohash: nearby points share a prefix, and a cell's eight neighbours are
+ * found by stepping one cell size in each direction.
+ */
+public final class Geohash {
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        char[] out = new char[precision];
+        boolean lngBit = true;
+        for (int i = 0; i < precision; i++) {
+            int ch = 0;
+            for (int b = 0; b < 5; b++) {
+                ch <<= 1;
+                if (lngBit) {
+                    double mid = (minLng + maxLng) / 2;
+                    if (longitude >= mid) {
+                        ch |= 1;
+                        minLng = mid;
+                    } else {
+                        maxLng = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (latitude >= mid) {
+                        ch |= 1;
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                lngBit = !lngBit;
+            }
+            out[i] = BASE32[ch];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Height of a cell in degrees of latitude.
+     */
+    public static double cellHeight(int precision) {
+        return 180.0 / (1L << (precision * 5 / 2));
+    }
+
+    /**
+     * Width of a cell in degrees of longitude.
+     */
+    public static double cellWidth(int precision) {
+        return 360.0 / (1L << ((precision * 5 + 1) / 2));
+    }
+
+    /**
+     * The cell holding the point and the eight around it, centre first. Cells past a pole or
+     * across the antimeridian come out wherever the clamped or wrapped point falls.
+     */
+    public static String[] withNeighbours(double latitude, double longitude, int precision) {
+        double dLat = cellHeight(precision);
+        double dLng = cellWidth(precision);
+        String[] cells = new String[9];
+        int i = 0;
+        cells[i++] = encode(latitude, longitude, precision);
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx == 0 && dy == 0) continue;
+                double lat = Math.max(-90, Math.min(90 - 1e-9, latitude + dy * dLat));
+                double lng = longitude + dx * dLng;
+                if (lng >= 180) lng -= 360;
+                if (lng < -180) lng += 360;
+                cells[i++] = encode(lat, lng, precision);
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,35 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Latest gimbal pitch and yaw, written by the gimbal state callback and read from any thread.
+ * Both angles live in one volatile word, so a reader never sees half an update.
+ */
+public final class GimbalAttitude {
+
+    // Pitch and yaw as float bits; 0 until the first report
+    private volatile long mBits;
+
+    /**
+     * Degrees; pitch -90 is straight down, yaw is relative to true north.
+     */
+    public void set(float pitch, float yaw) {
+        long bits = ((long) Float.floatToIntBits(pitch) << 32) | (Float.floatToIntBits(yaw) & 0xFFFFFFFFL);
+        // All zero is also "level and facing north"; nudge it so it still counts as reported
+        mBits = bits == 0 ? 1 : bits;
+    }
+
+    /**
+     * One consistent reading for {@link #pitch} and {@link #yaw}, or 0 if nothing was reported yet.
+     */
+    public long snapshot() {
+        return mBits;
+    }
+
+    public static float pitch(long snapshot) {
+        return Float.intBitsToFloat((int) (snapshot >>> 32));
+    }
+
+    public static float yaw(long snapshot) {
+        return Float.intBitsToFloat((int) snapshot);
+    }
+}
@@ -0,0 +1,84 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Turns a point in a video frame into a position on the ground, from where the drone is, how
+ * the gimbal is pointing and the camera's field of view. The ground is taken to be flat at the
+ * take-off altitude, which is as good as the drone's altitude reading anyway; rays that meet it
+ * too far out to trust are refused.
+ * <p>
+ * Pinhole camera with square pixels, no lens distortion, and no gimbal roll.
+ */
+public final class GroundProjector {
+
+    private static final double EARTH_RADIUS_M = 6371008.8;
+    // Rays flatter than this (about 5.7 degrees below the horizon) land too far out to trust
+    private static final double MIN_DOWN_SLOPE = 0.1;
+    private static final float  MIN_ALTITUDE_M = 2f;
+
+    private final int    mWidth;
+    private final int    mHeight;
+    // Focal length in pixels
+    private final double mFocal;
+
+    /**
+     * @param horizontalFovDeg field of view across the full frame width
+     */
+    public GroundProjector(int frameWidth, int frameHeight, float horizontalFovDeg) {
+        mWidth  = frameWidth;
+        mHeight = frameHeight;
+        mFocal  = frameWidth / 2.0 / Math.tan(Math.toRadians(horizontalFovDeg) / 2);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @param altitudeM     height above the ground
+     * @param pitchDeg      gimbal pitch, 0 level and -90 straight down
+     * @param yawDeg        gimbal yaw relative to true north
+     * @param out           receives latitude and longitude
+     * @return false when the point is at or above the horizon, or too far out
+     */
+    public boolean project(double latitude, double longitude, float altitudeM, float pitchDeg,
+                           float yawDeg, float x, float y, double[] out) {
+        if (!offset(altitudeM, pitchDeg, yawDeg, x, y, out)) return false;
+        double northM = out[0];
+        double eastM  = out[1];
+        out[0] = latitude + Math.toDegrees(northM / EARTH_RADIUS_M);
+        out[1] = longitude + Math.toDegrees(eastM / (EARTH_RADIUS_M * Math.cos(Math.toRadians(latitude))));
+        return true;
+    }
+
+    /**
+     * Like {@link #project}, but gives the spot as metres north and east of the drone.
+     */
+    public boolean offset(float altitudeM, float pitchDeg, float yawDeg, float x, float y, double[] out) {
+        if (altitudeM < MIN_ALTITUDE_M) return false;
+        double pitch = Math.toRadians(pitchDeg);
+        double yaw   = Math.toRadians(yawDeg);
+        double sinP = Math.sin(pitch), cosP = Math.cos(pitch);
+        double sinY = Math.sin(yaw),   cosY = Math.cos(yaw);
+
+        // Offsets from the image centre; image x runs right, image y runs down
+        double dx = x - mWidth / 2.0;
+        double dy = y - mHeight / 2.0;
+
+        // North-east-down: forward is the optical axis, up the top of the image, right its right edge
+        double north = mFocal * cosP * cosY + dx * -sinY - dy * -sinP * cosY;
+        double east  = mFocal * cosP * sinY + dx * cosY  - dy * -sinP * sinY;
+        double down  = mFocal * -sinP                    - dy * -cosP;
+
+        double horizontal = Math.sqrt(north * north + east * east);
+        if (down <= 0 || down < MIN_DOWN_SLOPE * horizontal) return false;
+
+        double scale = altitudeM / down;
+        out[0] = north * scale;
+        out[1] = east * scale;
+        return true;
+    }
+}
@@ -0,0 +1,158 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the picture size out of an H.264 sequence parameter set (ITU-T H.264 7.3.2.1.1), which
+ * is all a muxer or decoder needs besides the raw SPS and PPS themselves, plus the NAL unit types
+ * the recorder cares about.
+ */
+public final class H264Sps {
+
+    public static final int NAL_SLICE = 1;
+    public static final int NAL_IDR   = 5;
+    public static final int NAL_SEI   = 6;
+    public static final int NAL_SPS   = 7;
+    public static final int NAL_PPS   = 8;
+    public static final int NAL_AUD   = 9;
+
+    private final byte[] mRbsp;
+    private final int mLength;
+    private int mBit;
+
+    private H264Sps(byte[] rbsp, int length) {
+        mRbsp = rbsp;
+        mLength = length;
+    }
+
+    public static int nalType(byte header) {
+        return header & 0x1F;
+    }
+
+    /**
+     * A NAL unit behind a four-byte start code, the form MediaFormat wants for csd-0 and csd-1.
+     */
+    public static ByteBuffer withStartCode(byte[] nal) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + nal.length);
+        buffer.putInt(1).put(nal);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param nal the SPS NAL unit, header byte first, without a start code
+     * @param out receives the width and height in pixels, after cropping
+     * @return false if it is not an SPS or is cut short
+     */
+    public static boolean readSize(byte[] nal, int offset, int length, int[] out) {
+        if (length < 4 || nalType(nal[offset]) != NAL_SPS) return false;
+        // Drop the emulation prevention bytes: 00 00 03 becomes 00 00
+        byte[] rbsp = new byte[length - 1];
+        int n = 0;
+        int zeros = 0;
+        for (int i = offset + 1; i < offset + length; i++) {
+            byte b = nal[i];
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp[n++] = b;
+        }
+        try {
+            return new H264Sps(rbsp, n).parse(out);
+        } catch (IndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    private boolean parse(int[] out) {
+        int profile = bits(8);
+        bits(16);                           // constraint flags, level
+        ue();                               // seq_parameter_set_id
+        int chromaFormat = 1;
+        boolean separateColourPlanes = false;
+        if (profile == 100 || profile == 110 || profile == 122 || profile == 244 || profile == 44
+            || profile == 83 || profile == 86 || profile == 118 || profile == 128
+            || profile == 138 || profile == 139 || profile == 134 || profile == 135) {
+            chromaFormat = ue();
+            if (chromaFormat == 3) separateColourPlanes = bits(1) == 1;
+            ue();                           // bit_depth_luma_minus8
+            ue();                           // bit_depth_chroma_minus8
+            bits(1);                        // qpprime_y_zero_transform_bypass_flag
+            if (bits(1) == 1) {
+                int lists = chromaFormat != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++) {
+                    if (bits(1) == 1) skipScalingList(i < 6 ? 16 : 64);
+                }
+            }
+        }
+        ue();                               // log2_max_frame_num_minus4
+        int pocType = ue();
+        if (pocType == 0) {
+            ue();                           // log2_max_pic_order_cnt_lsb_minus4
+        } else if (pocType == 1) {
+            bits(1);                        // delta_pic_order_always_zero_flag
+            se();                           // offset_for_non_ref_pic
+            se();                           // offset_for_top_to_bottom_field
+            int cycle = ue();
+            for (int i = 0; i < cycle; i++) se();
+        }
+        ue();                               // max_num_ref_frames
+        bits(1);                            // gaps_in_frame_num_value_allowed_flag
+        int widthMbs  = ue() + 1;
+        int heightMap = ue() + 1;
+        int frameMbsOnly = bits(1);
+        if (frameMbsOnly == 0) bits(1);     // mb_adaptive_frame_field_flag
+        bits(1);                            // direct_8x8_inference_flag
+
+        int width  = widthMbs * 16;
+        int height = (2 - frameMbsOnly) * heightMap * 16;
+        if (bits(1) == 1) {
+            int left = ue(), right = ue(), top = ue(), bottom = ue();
+            int arrayType = separateColourPlanes ? 0 : chromaFormat;
+            int cropX = arrayType == 0 ? 1 : (arrayType == 3 ? 1 : 2);
+            int cropY = (arrayType == 0 ? 1 : (arrayType == 1 ? 2 : 1)) * (2 - frameMbsOnly);
+            width  -= cropX * (left + right);
+            height -= cropY * (top + bottom);
+        }
+        if (width <= 0 || height <= 0) return false;
+        out[0] = width;
+        out[1] = height;
+        return true;
+    }
+
+    private void skipScalingList(int size) {
+        int last = 8;
+        int next = 8;
+        for (int j = 0; j < size; j++) {
+            if (next != 0) next = (last + se() + 256) % 256;
+            last = next == 0 ? last : next;
+        }
+    }
+
+    private int bits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            if (mBit >= mLength * 8) throw new IndexOutOfBoundsException();
+            value = (value << 1) | ((mRbsp[mBit >>> 3] >>> (7 - (mBit & 7))) & 1);
+            mBit++;
+        }
+        return value;
+    }
+
+    // Unsigned exp-Golomb
+    private int ue() {
+        int zeros = 0;
+        while (bits(1) == 0) {
+            if (++zeros > 31) throw new IndexOutOfBoundsException();
+        }
+        return zeros == 0 ? 0 : (1 << zeros) - 1 + bits(zeros);
+    }
+
+    // Signed exp-Golomb
+    private int se() {
+        int k = ue();
+        return (k & 1) != 0 ? (k + 1) / 2 : -(k / 2);
+    }
+}
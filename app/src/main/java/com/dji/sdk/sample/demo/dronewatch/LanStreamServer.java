@@ -0,0 +1,369 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves the live video to viewers on the local network, for a command post without internet.
+ * {@code GET /live.mp4?token=...} gets fragmented MP4, one frame per fragment (browsers via MSE,
+ * VLC, ffplay); {@code GET /live.h264?token=...} gets the raw Annex B stream. The token is made
+ * afresh for each server, so only someone shown {@link #getUrl} can watch.
+ * <p>
+ * Every viewer reads the frames the {@link StreamRecorder} already keeps in its {@link FrameRing};
+ * there is no copy of the stream per viewer, only a cursor and a one-frame buffer. Each viewer has
+ * its own thread and blocking socket, so a slow one only holds itself up: once it falls more than
+ * {@link #MAX_LAG_US} behind, or its next frame is overwritten, it skips ahead to the newest
+ * keyframe. Viewers start at a keyframe too. Only clients on the local network with the token
+ * are served.
+ */
+public class LanStreamServer {
+    private static final String TAG = "LanStreamServer";
+
+    public static final int  MAX_CLIENTS = 4;
+    public static final long MAX_LAG_US  = 2L * 1000 * 1000;
+
+    private static final int  REQUEST_TIMEOUT_MS = 5000;
+    private static final int  MAX_REQUEST_BYTES  = 4096;
+    private static final long FRAME_WAIT_MS      = 1000;
+    private static final int  SEND_BUFFER_BYTES  = 256 << 10;
+    private static final int  TOKEN_BYTES        = 16;
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private final StreamRecorder mRecorder;
+    private final int mPort;
+    private final String mToken = newToken();
+    private ServerSocket mServer;
+    private Thread mAcceptThread;
+    private final List<Client> mClients = new ArrayList<>();
+    private volatile boolean mRunning;
+
+    private final AtomicLong mServed = new AtomicLong();
+    private final AtomicLong mSkips = new AtomicLong();
+
+    public LanStreamServer(StreamRecorder recorder, int port) {
+        mRecorder = recorder;
+        mPort = port;
+    }
+
+    public synchronized void start() {
+        if (mServer != null) return;
+        try {
+            mServer = new ServerSocket();
+            mServer.setReuseAddress(true);
+            mServer.bind(new InetSocketAddress(mPort));
+        } catch (IOException e) {
+            Log.e(TAG, "LAN streaming disabled: cannot listen on port " + mPort, e);
+            mServer = null;
+            return;
+        }
+        mRunning = true;
+        final ServerSocket server = mServer;
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept(server);
+            }
+        }, TAG);
+        mAcceptThread.start();
+    }
+
+    /**
+     * The port actually listened on, or -1 when not running.
+     */
+    public synchronized int getPort() {
+        return mServer != null ? mServer.getLocalPort() : -1;
+    }
+
+    /**
+     * Closes the listening socket and every viewer's connection.
+     */
+    public void stop() {
+        Thread acceptThread;
+        List<Client> clients;
+        synchronized (this) {
+            if (mServer == null) return;
+            mRunning = false;
+            closeQuietly(mServer);
+            mServer = null;
+            acceptThread = mAcceptThread;
+            mAcceptThread = null;
+        }
+        synchronized (mClients) {
+            clients = new ArrayList<>(mClients);
+        }
+        for (Client client : clients) closeQuietly(client.mSocket);
+        try {
+            acceptThread.join();
+            for (Client client : clients) client.mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Where a viewer on this network watches the MP4 stream, token included, or null when not
+     * running or off the network.
+     */
+    public String getUrl() {
+        String address = localAddress();
+        int port = getPort();
+        if (address == null || port < 0) return null;
+        return "http://" + address + ":" + port + "/live.mp4?token=" + mToken;
+    }
+
+    public String getStats() {
+        int clients;
+        synchronized (mClients) {
+            clients = mClients.size();
+        }
+        return clients + " viewers, " + mServed.get() + " frames served, " + mSkips.get()
+            + " skips to a keyframe";
+    }
+
+    /**
+     * The phone's own address on the local network, for showing viewers where to connect, or
+     * null if it has none.
+     */
+    public static String localAddress() {
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp() || nif.isLoopback()) continue;
+                for (InetAddress address : Collections.list(nif.getInetAddresses())) {
+                    if (address.isSiteLocalAddress()) return address.getHostAddress();
+                }
+            }
+        } catch (SocketException e) {
+            Log.w(TAG, "Listing network interfaces failed", e);
+        }
+        return null;
+    }
+
+    // Accept thread
+    private void accept(ServerSocket server) {
+        while (mRunning) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (mRunning) Log.e(TAG, "Accepting a viewer failed", e);
+                return;
+            }
+            InetAddress remote = socket.getInetAddress();
+            if (!remote.isSiteLocalAddress() && !remote.isLoopbackAddress() && !remote.isLinkLocalAddress()) {
+                Log.w(TAG, "Refusing viewer from " + remote);
+                closeQuietly(socket);
+                continue;
+            }
+            Client client = null;
+            synchronized (mClients) {
+                if (mClients.size() < MAX_CLIENTS) {
+                    client = new Client(socket);
+                    mClients.add(client);
+                }
+            }
+            if (client != null) {
+                client.mThread.start();
+            } else {
+                respondQuietly(socket, "503 Service Unavailable");
+            }
+        }
+    }
+
+    private static byte[] annexB(byte[] sps, byte[] pps) {
+        byte[] bytes = new byte[8 + sps.length + pps.length];
+        ByteBuffer.wrap(bytes).putInt(1).put(sps).putInt(1).put(pps);
+        return bytes;
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    // Constant time, so the token cannot be guessed a character at a time
+    private boolean hasToken(String query) {
+        if (query == null) return false;
+        for (String param : query.split("&")) {
+            if (param.startsWith("token=")) {
+                return MessageDigest.isEqual(param.substring(6).getBytes(US_ASCII), mToken.getBytes(US_ASCII));
+            }
+        }
+        return false;
+    }
+
+    private static void respondQuietly(Socket socket, String status) {
+        try {
+            socket.getOutputStream().write(("HTTP/1.1 " + status + "\r\nConnection: close\r\n\r\n").getBytes());
+        } catch (IOException e) {
+            // Gone already
+        }
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    private final class Client implements Runnable {
+        private final Socket mSocket;
+        private final Thread mThread;
+        private ByteBuffer mFrame = ByteBuffer.allocate(512 << 10);
+
+        Client(Socket socket) {
+            mSocket = socket;
+            mThread = new Thread(this, TAG + " " + socket.getInetAddress().getHostAddress());
+        }
+
+        @Override
+        public void run() {
+            try {
+                String target = readRequestTarget();
+                int query = target != null ? target.indexOf('?') : -1;
+                String path = query >= 0 ? target.substring(0, query) : target;
+                if (path == null) {
+                    respondQuietly(mSocket, "400 Bad Request");
+                } else if (!hasToken(query >= 0 ? target.substring(query + 1) : null)) {
+                    Log.w(TAG, "Refusing viewer " + mSocket.getInetAddress() + " without the token");
+                    respondQuietly(mSocket, "403 Forbidden");
+                } else if ("/live.mp4".equals(path)) {
+                    serve(true);
+                } else if ("/live.h264".equals(path)) {
+                    serve(false);
+                } else {
+                    respondQuietly(mSocket, "404 Not Found");
+                }
+            } catch (IOException e) {
+                // The viewer went away, or the server is stopping
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeQuietly(mSocket);
+                synchronized (mClients) {
+                    mClients.remove(this);
+                }
+            }
+        }
+
+        // The path and query of a GET request, or null
+        private String readRequestTarget() throws IOException {
+            mSocket.setSoTimeout(REQUEST_TIMEOUT_MS);
+            InputStream in = mSocket.getInputStream();
+            byte[] head = new byte[MAX_REQUEST_BYTES];
+            int length = 0;
+            while (length < head.length) {
+                int b = in.read();
+                if (b < 0) return null;
+                head[length++] = (byte) b;
+                if (length >= 4 && head[length - 4] == '\r' && head[length - 3] == '\n'
+                    && head[length - 2] == '\r' && head[length - 1] == '\n') {
+                    break;
+                }
+            }
+            String[] requestLine = new String(head, 0, length, US_ASCII).split("\r\n", 2)[0].split(" ");
+            if (requestLine.length < 2 || !"GET".equals(requestLine[0])) return null;
+            return requestLine[1];
+        }
+
+        private void serve(boolean mp4) throws IOException, InterruptedException {
+            FrameRing frames = mRecorder.getFrames();
+            long seq = -1;
+            while (mRunning && seq < 0) {
+                seq = frames.keyframeAtOrBefore(Long.MAX_VALUE);
+                if (seq < 0) frames.awaitFrame(frames.next(), FRAME_WAIT_MS);
+            }
+            if (seq < 0) return;
+            byte[] sps = mRecorder.getSps();
+            byte[] pps = mRecorder.getPps();
+            int[] size = new int[2];
+            if (sps == null || pps == null || !H264Sps.readSize(sps, 0, sps.length, size)) return;
+
+            mSocket.setTcpNoDelay(true);
+            mSocket.setSendBufferSize(SEND_BUFFER_BYTES);
+            OutputStream out = mSocket.getOutputStream();
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: " + (mp4 ? "video/mp4" : "video/h264")
+                + "\r\nCache-Control: no-store\r\nConnection: close\r\n\r\n").getBytes());
+            if (mp4) out.write(Fmp4Writer.initSegment(sps, pps, size[0], size[1]));
+            Log.i(TAG, "Serving " + mSocket.getInetAddress() + (mp4 ? " fragmented MP4" : " H.264"));
+
+            int fragment = 1;
+            long startUs = frames.timeUs(seq);
+            long lastDecodeTime = -1;
+            int duration = Fmp4Writer.TIMESCALE / 30;
+            // The raw stream carries no SPS or PPS of its own; a decoder needs them ahead of a
+            // keyframe it starts from
+            byte[] parameterSets = mp4 ? null : annexB(sps, pps);
+            boolean sendParameterSets = !mp4;
+            while (mRunning) {
+                if (!frames.awaitFrame(seq, FRAME_WAIT_MS)) continue;
+                // A new SPS may mean a new picture size; the viewer has to start over
+                if (mRecorder.getSps() != sps) return;
+                long newest = frames.next() - 1;
+                if (seq < frames.oldest() || frames.timeUs(newest) - frames.timeUs(seq) > MAX_LAG_US) {
+                    long key = frames.keyframeAtOrBefore(Long.MAX_VALUE);
+                    if (key < 0) {
+                        // Not one keyframe left in the ring: carry on from the next to arrive
+                        frames.awaitFrame(frames.next(), FRAME_WAIT_MS);
+                        continue;
+                    }
+                    if (key > seq || seq < frames.oldest()) {
+                        seq = key;
+                        lastDecodeTime = -1;
+                        sendParameterSets = true;
+                        mSkips.incrementAndGet();
+                        continue;
+                    }
+                }
+
+                int header = mp4 ? Fmp4Writer.FRAGMENT_HEADER : 0;
+                int length = frames.length(seq);
+                if (mFrame.capacity() < header + length) mFrame = ByteBuffer.allocate(header + length);
+                long timeUs = frames.timeUs(seq);
+                boolean key = frames.isKey(seq);
+                mFrame.clear();
+                mFrame.position(header);
+                length = frames.read(seq, mFrame);
+                if (length < 0) continue;   // overwritten since; skipped ahead next time round
+                if (mp4) {
+                    if (!Fmp4Writer.startCodesToLengths(mFrame, header, length)) return;
+                    long decodeTime = Math.max((timeUs - startUs) * Fmp4Writer.TIMESCALE / 1000000,
+                        lastDecodeTime + 1);
+                    if (lastDecodeTime >= 0) duration = (int) (decodeTime - lastDecodeTime);
+                    lastDecodeTime = decodeTime;
+                    mFrame.position(0);
+                    Fmp4Writer.putFragmentHeader(mFrame, fragment++, decodeTime, duration, length, key);
+                } else if (sendParameterSets && key) {
+                    out.write(parameterSets);
+                    sendParameterSets = false;
+                }
+                out.write(mFrame.array(), 0, header + length);
+                seq++;
+                mServed.incrementAndGet();
+            }
+        }
+    }
+}
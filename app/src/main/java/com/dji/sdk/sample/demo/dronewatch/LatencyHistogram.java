@@ -0,0 +1,52 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.Arrays;
+
+/**
+ * Latencies counted into fixed buckets, cheap enough to record every call, with percentiles
+ * answered to the nearest bucket bound. Not thread safe; the stats holding one guard it.
+ */
+final class LatencyHistogram {
+    private final long[] mBoundsMs;
+    private final long[] mBuckets;
+    private long mCount;
+
+    /**
+     * @param boundsMs upper bounds of the buckets, ascending; one more, open-ended bucket
+     *                 takes everything above the last
+     */
+    LatencyHistogram(long... boundsMs) {
+        mBoundsMs = boundsMs;
+        mBuckets  = new long[boundsMs.length + 1];
+    }
+
+    void record(long latencyMs) {
+        int bucket = 0;
+        while (bucket < mBoundsMs.length && latencyMs > mBoundsMs[bucket]) bucket++;
+        mBuckets[bucket]++;
+        mCount++;
+    }
+
+    long count() {
+        return mCount;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, or -1 when above the last bound.
+     */
+    long percentileMs(double percentile) {
+        if (mCount == 0) return 0;
+        long target = (long) Math.ceil(mCount * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < mBoundsMs.length; i++) {
+            seen += mBuckets[i];
+            if (seen >= target) return mBoundsMs[i];
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(mBuckets);
+    }
+}
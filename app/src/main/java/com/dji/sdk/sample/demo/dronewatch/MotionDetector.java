@@ -0,0 +1,90 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.List;
+
+/**
+ * Flags small regions that changed since the previous frame while the rest of the scene held
+ * still: someone walking or waving under a hovering drone. Frames where most of the picture
+ * changed (the drone or gimbal moving) are skipped, and an overall brightness shift such as an
+ * exposure change is taken out before comparing.
+ */
+public class MotionDetector implements FrameDetector {
+
+    private static final int   CELL_SIZE         = 16;
+    // A pixel changed if its luma moved by more than this after the brightness correction
+    private static final int   PIXEL_THRESHOLD   = 28;
+    // A cell changed if this share of its pixels did
+    private static final float CELL_FRACTION     = 0.2f;
+    // More of the grid changing than this means the camera moved
+    private static final float GLOBAL_FRACTION   = 0.25f;
+    // Frames further apart than this are not compared
+    private static final long  MAX_GAP_MS        = 1500;
+    private static final int   MAX_CLUSTER_CELLS = 12;
+
+    private final CellClusters mClusters;
+    private final byte[]    mPrevious;
+    private final int[]     mChanged;
+    private final boolean[] mFlagged;
+    private final float[]   mScores;
+    private long mPreviousTimeMs = -1;
+    private int  mPreviousMean;
+
+    public MotionDetector(int frameWidth, int frameHeight) {
+        mClusters = new CellClusters(frameWidth, frameHeight, CELL_SIZE);
+        int cells = mClusters.cols() * mClusters.rows();
+        mPrevious = new byte[frameWidth * frameHeight];
+        mChanged  = new int[cells];
+        mFlagged  = new boolean[cells];
+        mScores   = new float[cells];
+    }
+
+    @Override
+    public String getName() {
+        return "motion";
+    }
+
+    @Override
+    public void detect(AnalysisFrame frame, List<Detection> out) {
+        byte[] luma = frame.luma;
+        long sum = 0;
+        for (byte b : luma) sum += b & 0xFF;
+        int mean = (int) (sum / luma.length);
+
+        boolean comparable = mPreviousTimeMs >= 0 && frame.timeMs - mPreviousTimeMs <= MAX_GAP_MS;
+        if (comparable) compare(frame, mean, out);
+
+        System.arraycopy(luma, 0, mPrevious, 0, luma.length);
+        mPreviousMean   = mean;
+        mPreviousTimeMs = frame.timeMs;
+    }
+
+    private void compare(AnalysisFrame frame, int mean, List<Detection> out) {
+        int cols = mClusters.cols();
+        int rows = mClusters.rows();
+        int width = frame.width;
+        int shift = mean - mPreviousMean;
+        byte[] luma = frame.luma;
+        byte[] prev = mPrevious;
+
+        for (int i = 0; i < mChanged.length; i++) mChanged[i] = 0;
+        for (int y = 0; y < rows * CELL_SIZE; y++) {
+            int rowBase = (y / CELL_SIZE) * cols;
+            int p = y * width;
+            for (int x = 0; x < cols * CELL_SIZE; x++, p++) {
+                int d = (luma[p] & 0xFF) - (prev[p] & 0xFF) - shift;
+                if (d > PIXEL_THRESHOLD || d < -PIXEL_THRESHOLD) mChanged[rowBase + x / CELL_SIZE]++;
+            }
+        }
+
+        int cellPixels = CELL_SIZE * CELL_SIZE;
+        int flagged = 0;
+        for (int i = 0; i < mChanged.length; i++) {
+            float fraction = (float) mChanged[i] / cellPixels;
+            mFlagged[i] = fraction >= CELL_FRACTION;
+            mScores[i]  = fraction;
+            if (mFlagged[i]) flagged++;
+        }
+        if (flagged == 0 || flagged > GLOBAL_FRACTION * mChanged.length) return;
+        mClusters.collect(mFlagged, mScores, 1, MAX_CLUSTER_CELLS, getName(), out);
+    }
+}
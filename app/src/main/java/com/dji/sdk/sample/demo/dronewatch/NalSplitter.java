@@ -0,0 +1,104 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.Arrays;
+
+/**
+ * Splits an H.264 Annex B byte stream, arriving in packets of any size, into NAL units. A unit is
+ * only known to be complete when the next start code arrives, so the bytes from the last start
+ * code on are carried over to the next packet; a start code split across packets is found too.
+ * <p>
+ * Packets are copied straight into the splitter's own array: {@link #reserve} makes room for one
+ * at {@link #end()}, then {@link #push} scans it. Not thread-safe.
+ */
+public class NalSplitter {
+
+    public interface Listener {
+        /**
+         * @param nal    the unit, header byte first, without its start code; only valid during
+         *               the call
+         * @param timeNs time of the packet its start code arrived in
+         */
+        void onNal(byte[] nal, int offset, int length, long timeNs);
+    }
+
+    private final Listener mListener;
+    private byte[] mPending = new byte[256 << 10];
+    private int  mLength;
+    private int  mScanned;
+    private int  mNalStart = -1;
+    private long mNalTimeNs;
+
+    public NalSplitter(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Where the next packet goes in the array returned by {@link #reserve}; also the number of
+     * bytes carried over.
+     */
+    public int end() {
+        return mLength;
+    }
+
+    /**
+     * @return the array to copy the next packet of {@code size} bytes into, at {@link #end()}
+     */
+    public byte[] reserve(int size) {
+        if (mLength + size > mPending.length) {
+            mPending = Arrays.copyOf(mPending, Math.max(mLength + size, mPending.length * 2));
+        }
+        return mPending;
+    }
+
+    /**
+     * Scans a packet copied in at {@link #end()}, reporting every NAL unit it completes.
+     */
+    public void push(int size, long timeNs) {
+        mLength += size;
+        byte[] b = mPending;
+        int end = mLength;
+        int i = mScanned;
+        while (i + 2 < end) {
+            // No start code can begin at i, i + 1 or i + 2 unless b[i + 2] is 0 or 1
+            int third = b[i + 2] & 0xFF;
+            if (third > 1) {
+                i += 3;
+            } else if (third == 1 && b[i + 1] == 0 && b[i] == 0) {
+                if (mNalStart >= 0) {
+                    // Trailing zeros belong to a four-byte start code
+                    int nalEnd = i;
+                    while (nalEnd > mNalStart && b[nalEnd - 1] == 0) nalEnd--;
+                    if (nalEnd > mNalStart) mListener.onNal(b, mNalStart, nalEnd - mNalStart, mNalTimeNs);
+                }
+                i += 3;
+                mNalStart = i;
+                mNalTimeNs = timeNs;
+            } else {
+                i++;
+            }
+        }
+        // Keep the open NAL unit, or the last two bytes, which may begin a start code
+        int keep = mNalStart >= 0 ? mNalStart : i;
+        System.arraycopy(b, keep, b, 0, end - keep);
+        mLength = end - keep;
+        mScanned = i - keep;
+        if (mNalStart >= 0) mNalStart = 0;
+    }
+
+    /**
+     * Copies a packet in and scans it.
+     */
+    public void push(byte[] data, int offset, int size, long timeNs) {
+        System.arraycopy(data, offset, reserve(size), mLength, size);
+        push(size, timeNs);
+    }
+
+    /**
+     * Forgets everything carried over, after a break in the stream.
+     */
+    public void reset() {
+        mLength = 0;
+        mScanned = 0;
+        mNalStart = -1;
+    }
+}
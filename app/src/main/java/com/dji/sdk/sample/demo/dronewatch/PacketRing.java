@@ -0,0 +1,138 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Single-producer, single-consumer ring of variable-length byte packets in one preallocated
+ * direct buffer. Each packet is stored as a 4-byte length, an 8-byte receive time and the bytes
+ * themselves, contiguously; a packet that does not fit before the end of the buffer starts over
+ * at the beginning, after a wrap marker.
+ * <p>
+ * {@link #offer} never waits and never allocates: when the consumer has fallen behind and the
+ * packet does not fit, it is dropped and counted, and the next packet is marked as following a
+ * gap. The write and read cursors are volatile, so the consumer sees a packet's bytes once it
+ * sees the cursor that publishes it.
+ */
+public class PacketRing {
+
+    private static final int HEADER = 12;
+    private static final int WRAP   = -1;
+    // Set in a packet's length when packets were dropped just before it
+    private static final int GAP    = 1 << 30;
+
+    private final int mCapacity;
+    // Separate views, so neither side's position is disturbed by the other
+    private final ByteBuffer mProducerView;
+    private final ByteBuffer mConsumerView;
+
+    // Bytes ever written and consumed; a packet is published by advancing mHead past it
+    private volatile long mHead;
+    private volatile long mTail;
+    private volatile long mDropped;
+    // Producer only
+    private boolean mGap;
+    // Consumer only
+    private long mLastTimeNs;
+    private boolean mFollowsGap;
+
+    public PacketRing(int capacity) {
+        mCapacity = capacity;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(capacity);
+        mProducerView = buffer.duplicate();
+        mConsumerView = buffer.duplicate();
+    }
+
+    /**
+     * Packets turned away because the ring was full.
+     */
+    public long dropped() {
+        return mDropped;
+    }
+
+    /**
+     * Copies a packet in. Producer thread only.
+     *
+     * @return false if it was dropped
+     */
+    public boolean offer(byte[] data, int size, long timeNs) {
+        long head = mHead;
+        int pos = (int) (head % mCapacity);
+        int need = HEADER + size;
+        int toEnd = mCapacity - pos;
+        long advance = toEnd < need ? toEnd + need : need;
+        if (need > mCapacity || head + advance - mTail > mCapacity) {
+            mDropped++;
+            mGap = true;
+            return false;
+        }
+        ByteBuffer view = mProducerView;
+        if (toEnd < need) {
+            // Too short a tail for a header is skipped by the consumer without a marker
+            if (toEnd >= HEADER) view.putInt(pos, WRAP);
+            pos = 0;
+        }
+        view.putInt(pos, mGap ? size | GAP : size);
+        view.putLong(pos + 4, timeNs);
+        view.position(pos + HEADER);
+        view.put(data, 0, size);
+        mHead = head + advance;
+        mGap = false;
+        return true;
+    }
+
+    /**
+     * Size of the next packet, or -1 if there is none. Consumer thread only.
+     */
+    public int peekSize() {
+        long tail = mTail;
+        if (tail == mHead) return -1;
+        int header = mConsumerView.getInt(skipWrap(tail));
+        mFollowsGap = (header & GAP) != 0;
+        return header & ~GAP;
+    }
+
+    /**
+     * Copies the next packet out and frees its space. Consumer thread only.
+     *
+     * @param dst must have room for {@link #peekSize()} bytes from {@code offset}
+     * @return its size, or -1 if there is none
+     */
+    public int take(byte[] dst, int offset) {
+        long tail = mTail;
+        if (tail == mHead) return -1;
+        int pos = skipWrap(tail);
+        ByteBuffer view = mConsumerView;
+        int header = view.getInt(pos);
+        int size = header & ~GAP;
+        mFollowsGap = (header & GAP) != 0;
+        mLastTimeNs = view.getLong(pos + 4);
+        view.position(pos + HEADER);
+        view.get(dst, offset, size);
+        // Past the wrap gap, if any, and the packet
+        long start = pos < tail % mCapacity ? tail + (mCapacity - tail % mCapacity) : tail;
+        mTail = start + HEADER + size;
+        return size;
+    }
+
+    /**
+     * Receive time of the packet last returned by {@link #take}. Consumer thread only.
+     */
+    public long lastTimeNs() {
+        return mLastTimeNs;
+    }
+
+    /**
+     * Whether packets were dropped right before the packet last peeked at or taken, so the stream
+     * is broken there. Consumer thread only.
+     */
+    public boolean followsGap() {
+        return mFollowsGap;
+    }
+
+    // Where the packet at this cursor starts, past a wrap marker or a too-short tail
+    private int skipWrap(long tail) {
+        int pos = (int) (tail % mCapacity);
+        if (mCapacity - pos < HEADER || mConsumerView.getInt(pos) == WRAP) return 0;
+        return pos;
+    }
+}
@@ -0,0 +1,82 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 64-bit difference hash (dHash) of a picture: the frame is averaged down to a 9x8 grid, and
+ * each bit says whether a cell is darker than its right-hand neighbour. Two shots of the same
+ * scene differ in a handful of bits despite re-encoding, small shifts or an exposure change;
+ * unrelated scenes differ in about half. Compare with {@link #distance}.
+ * <p>
+ * Rows are fed in one at a time, so a caller never needs the whole frame as one array. Only every
+ * few pixels are sampled, which is plenty for cells this large.
+ */
+public final class PerceptualHash {
+    private static final int COLS = 9;
+    private static final int ROWS = 8;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final long[] mSums   = new long[COLS * ROWS];
+    private final int[]  mCounts = new int[COLS * ROWS];
+
+    public PerceptualHash(int width, int height) {
+        mWidth  = width;
+        mHeight = height;
+    }
+
+    /**
+     * Number of differing bits; 0 for the same picture, about 32 for unrelated ones.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Hash of a whole luma plane, reading every {@code step}-th pixel and row.
+     */
+    public static long ofLuma(ByteBuffer luma, int stride, int width, int height, int step) {
+        PerceptualHash hash = new PerceptualHash(width, height);
+        for (int y = 0; y < height; y += step) hash.addLumaRow(y, luma, y * stride, step);
+        return hash.hash();
+    }
+
+    /**
+     * Adds every {@code step}-th pixel of row {@code y}, starting at absolute index {@code offset}.
+     */
+    public void addLumaRow(int y, ByteBuffer luma, int offset, int step) {
+        int base = (y * ROWS / mHeight) * COLS;
+        for (int x = 0; x < mWidth; x += step) {
+            int cell = base + x * COLS / mWidth;
+            mSums[cell] += luma.get(offset + x) & 0xFF;
+            mCounts[cell]++;
+        }
+    }
+
+    /**
+     * Adds every {@code step}-th pixel of an ARGB row {@code y}.
+     */
+    public void addArgbRow(int y, int[] argb, int step) {
+        int base = (y * ROWS / mHeight) * COLS;
+        for (int x = 0; x < mWidth; x += step) {
+            int c = argb[x];
+            int cell = base + x * COLS / mWidth;
+            // Same BT.601 weights as AnalysisFrame
+            mSums[cell] += (77 * ((c >> 16) & 0xFF) + 150 * ((c >> 8) & 0xFF) + 29 * (c & 0xFF)) >> 8;
+            mCounts[cell]++;
+        }
+    }
+
+    public long hash() {
+        long bits = 0;
+        for (int r = 0; r < ROWS; r++) {
+            for (int c = 0; c < COLS - 1; c++) {
+                int a = r * COLS + c;
+                // mean(a) < mean(a + 1), without dividing
+                boolean darker = mSums[a] * Math.max(1, mCounts[a + 1]) < mSums[a + 1] * Math.max(1, mCounts[a]);
+                bits = (bits << 1) | (darker ? 1 : 0);
+            }
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,55 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Encoded polyline format (as used by Google Maps): each value is delta-encoded against the
+ * previous point, zig-zag mapped and written as a varint of 5-bit groups in printable ASCII.
+ * Any stock polyline decoder on the command post side can read the lat/lng path; the same
+ * varint scheme carries the extra per-point integer streams (altitude, time).
+ */
+public final class PolylineEncoder {
+
+    /**
+     * 1e5 is the standard polyline precision, about 1.1 m; finer than any simplification tolerance.
+     */
+    public static final double PRECISION = 1e5;
+
+    private PolylineEncoder() {
+    }
+
+    /**
+     * Appends the lat/lng path of the selected points.
+     */
+    public static void encodePath(double[] lat, double[] lng, int[] indices, int count, StringBuilder sb) {
+        long prevLat = 0;
+        long prevLng = 0;
+        for (int i = 0; i < count; i++) {
+            long la = Math.round(lat[indices[i]] * PRECISION);
+            long ln = Math.round(lng[indices[i]] * PRECISION);
+            encodeSigned(la - prevLat, sb);
+            encodeSigned(ln - prevLng, sb);
+            prevLat = la;
+            prevLng = ln;
+        }
+    }
+
+    /**
+     * Appends one delta-encoded integer stream, e.g. whole-metre altitudes or seconds.
+     */
+    public static void encodeDeltas(long[] values, int[] indices, int count, StringBuilder sb) {
+        long prev = 0;
+        for (int i = 0; i < count; i++) {
+            long v = values[indices[i]];
+            encodeSigned(v - prev, sb);
+            prev = v;
+        }
+    }
+
+    public static void encodeSigned(long value, StringBuilder sb) {
+        long v = value < 0 ? ~(value << 1) : value << 1;
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+}
@@ -0,0 +1,202 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Instant replay: plays the recent video kept in a {@link StreamRecorder}'s {@link FrameRing}
+ * onto a second surface with its own {@link MediaCodec} decoder, while the live feed carries on.
+ * <p>
+ * A replay starts a given time back from the newest frame. It decodes from the keyframe at or
+ * before that point, dropping the pictures before it unrendered (or, if that keyframe is more than
+ * {@link #MAX_PREROLL_US} earlier, shows it straight away), and then plays on in real time,
+ * trailing the live feed by the same amount, until stopped. Frames are copied straight from the
+ * ring into the decoder's input buffers, so nothing is buffered besides the ring itself. If the
+ * replay falls so far behind that the frames it needs have been overwritten, it ends.
+ */
+public class ReplayPlayer {
+    private static final String TAG = "ReplayPlayer";
+
+    public interface Listener {
+        /**
+         * Called on the replay thread when the replay ends by itself, unless it was stopped or
+         * another replay started first.
+         */
+        void onReplayEnded(String reason);
+    }
+
+    private static final String MIME = "video/avc";
+    private static final int  MAX_INPUT_BYTES    = 2 << 20;
+    private static final long DEQUEUE_TIMEOUT_US = 10000;
+    // Pictures decoded unseen to reach the start point; a second of them decodes in well under 200 ms
+    private static final long MAX_PREROLL_US     = 1000L * 1000;
+    // A longer wait for the next picture means the arrival times jumped; play on from there
+    private static final long MAX_FRAME_WAIT_NS  = 1000L * 1000 * 1000;
+
+    private final StreamRecorder mRecorder;
+    private final int[] mSize = new int[2];
+    private Thread mThread;
+    private volatile boolean mRunning;
+    private volatile long mLastSeekMs = -1;
+    // Bumped by every start() and stop(), so a replay that ends late does not speak for a newer one
+    private int mGeneration;
+
+    public ReplayPlayer(StreamRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    public synchronized boolean isPlaying() {
+        return mThread != null && mThread.isAlive();
+    }
+
+    /**
+     * Time from the last {@link #start} to its first picture on screen, or -1.
+     */
+    public long getLastSeekMs() {
+        return mLastSeekMs;
+    }
+
+    /**
+     * Starts replaying onto a surface.
+     *
+     * @param backUs how far behind the newest frame to start
+     * @return false if a replay is already playing
+     */
+    public synchronized boolean start(final Surface surface, final long backUs, final Listener listener) {
+        if (isPlaying()) return false;
+        mRunning = true;
+        final int generation = ++mGeneration;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String reason = play(surface, backUs);
+                if (reason != null && isCurrent(generation)) listener.onReplayEnded(reason);
+            }
+        }, TAG);
+        mThread.start();
+        return true;
+    }
+
+    /**
+     * Stops the replay and waits for the decoder to be released, after which the surface may go.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+            mGeneration++;
+        }
+        if (thread == null) return;
+        mRunning = false;
+        // It may be waiting to show the next picture
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized boolean isCurrent(int generation) {
+        return generation == mGeneration && mRunning;
+    }
+
+    // Replay thread; returns why it ended, or null when stopped
+    private String play(Surface surface, long backUs) {
+        long requestNs = System.nanoTime();
+        FrameRing frames = mRecorder.getFrames();
+        byte[] sps = mRecorder.getSps();
+        byte[] pps = mRecorder.getPps();
+        long newest = frames.next() - 1;
+        if (sps == null || pps == null || newest < frames.oldest()) return "Nothing recorded yet";
+        if (!H264Sps.readSize(sps, 0, sps.length, mSize)) return "Unreadable SPS";
+        long targetUs = frames.timeUs(newest) - backUs;
+        long seq = frames.keyframeAtOrBefore(targetUs);
+        if (seq < 0) return "No keyframe recorded yet";
+        // With long keyframe intervals, show from the keyframe rather than decode a lot unseen
+        if (targetUs - frames.timeUs(seq) > MAX_PREROLL_US) targetUs = frames.timeUs(seq);
+
+        MediaCodec codec = null;
+        try {
+            codec = MediaCodec.createDecoderByType(MIME);
+            MediaFormat format = MediaFormat.createVideoFormat(MIME, mSize[0], mSize[1]);
+            format.setByteBuffer("csd-0", H264Sps.withStartCode(sps));
+            format.setByteBuffer("csd-1", H264Sps.withStartCode(pps));
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, MAX_INPUT_BYTES);
+            codec.configure(format, surface, null, 0);
+            codec.start();
+            return decode(codec, frames, seq, targetUs, requestNs);
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "Replay failed", e);
+            return "Replay failed: " + e.getMessage();
+        } finally {
+            if (codec != null) {
+                try {
+                    codec.stop();
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "Stopping the replay decoder failed", e);
+                }
+                codec.release();
+            }
+        }
+    }
+
+    private String decode(MediaCodec codec, FrameRing frames, long seq, long targetUs, long requestNs) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean rendering = false;
+        long anchorNs = 0;
+        long anchorUs = 0;
+        while (mRunning) {
+            if (seq < frames.next()) {
+                int in = codec.dequeueInputBuffer(0);
+                if (in >= 0) {
+                    ByteBuffer buffer = codec.getInputBuffer(in);
+                    buffer.clear();
+                    // Time first: if the frame is overwritten after this, the read fails
+                    long timeUs = frames.timeUs(seq);
+                    int length = frames.read(seq, buffer);
+                    if (length < 0 && seq < frames.oldest()) {
+                        codec.queueInputBuffer(in, 0, 0, timeUs, 0);
+                        return "Replay fell behind the recording";
+                    }
+                    // A frame too large for the buffer goes in empty; the next keyframe repairs it
+                    codec.queueInputBuffer(in, 0, Math.max(length, 0), timeUs, 0);
+                    seq++;
+                }
+            }
+
+            int out = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+            if (out < 0) continue;
+            if (info.presentationTimeUs < targetUs) {
+                // Between the keyframe and where the replay starts
+                codec.releaseOutputBuffer(out, false);
+                continue;
+            }
+            long nowNs = System.nanoTime();
+            if (!rendering) {
+                rendering = true;
+                mLastSeekMs = (nowNs - requestNs) / 1000000;
+                Log.i(TAG, "Replay showing " + (info.presentationTimeUs - targetUs) / 1000
+                    + " ms after its start point, " + mLastSeekMs + " ms after the request");
+                anchorNs = nowNs;
+                anchorUs = info.presentationTimeUs;
+            }
+            long waitNs = anchorNs + (info.presentationTimeUs - anchorUs) * 1000 - nowNs;
+            if (waitNs > MAX_FRAME_WAIT_NS) {
+                anchorNs = nowNs;
+                anchorUs = info.presentationTimeUs;
+            } else if (waitNs > 0) {
+                LockSupport.parkNanos(waitNs);
+            }
+            codec.releaseOutputBuffer(out, true);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scores how sharp a frame is by the variance of the Laplacian of its luma: motion blur and
+ * defocus flatten edges, which shows up as a lower variance. Scores only compare frames of the
+ * same scene, such as the last second of video.
+ * <p>
+ * The luma plane is shrunk to about {@code targetWidth} pixels across while it is read, one
+ * source row per output row averaged horizontally, and the Laplacian of each output row is
+ * accumulated as soon as the row below it is in, so a frame costs one pass over a fraction of
+ * its rows and nothing is allocated per frame. Plain Java, so it can be benchmarked off-device.
+ */
+public final class SharpnessScorer {
+
+    private final int mTargetWidth;
+    private byte[] mRow = new byte[0];
+
+    public SharpnessScorer(int targetWidth) {
+        mTargetWidth = targetWidth;
+    }
+
+    public int scaledWidth(int width) {
+        return width / factor(width);
+    }
+
+    public int scaledHeight(int width, int height) {
+        return height / factor(width);
+    }
+
+    /**
+     * Shrinks the luma plane into {@code out} and scores it. Not thread-safe.
+     *
+     * @param luma   the plane from index 0; its position is changed
+     * @param out    receives {@link #scaledWidth} x {@link #scaledHeight} bytes at {@code outOffset}
+     * @return the variance of the 4-neighbour Laplacian, 0 for frames under 3 x 3 once shrunk
+     */
+    public double score(ByteBuffer luma, int stride, int width, int height, byte[] out, int outOffset) {
+        int factor = factor(width);
+        int w = width / factor;
+        int h = height / factor;
+        int rowBytes = w * factor;
+        if (mRow.length < rowBytes) mRow = new byte[rowBytes];
+        byte[] row = mRow;
+
+        long sum = 0;
+        long sumSq = 0;
+        for (int r = 0; r < h; r++) {
+            // The middle row of each block stands in for the block
+            luma.position((r * factor + factor / 2) * stride);
+            luma.get(row, 0, rowBytes);
+            int o = outOffset + r * w;
+            for (int c = 0, s = 0; c < w; c++) {
+                int acc = 0;
+                for (int k = 0; k < factor; k++) acc += row[s++] & 0xFF;
+                out[o + c] = (byte) (acc / factor);
+            }
+            if (r < 2) continue;
+
+            // Row r is in, so row r - 1 has both its neighbours
+            int up = o - 2 * w;
+            int mid = o - w;
+            for (int c = 1; c < w - 1; c++) {
+                int lap = (out[up + c] & 0xFF) + (out[o + c] & 0xFF)
+                    + (out[mid + c - 1] & 0xFF) + (out[mid + c + 1] & 0xFF)
+                    - 4 * (out[mid + c] & 0xFF);
+                sum += lap;
+                sumSq += lap * lap;
+            }
+        }
+        long n = (long) Math.max(0, h - 2) * Math.max(0, w - 2);
+        if (n == 0) return 0;
+        double mean = (double) sum / n;
+        return (double) sumSq / n - mean * mean;
+    }
+
+    private int factor(int width) {
+        return Math.max(1, width / mTargetWidth);
+    }
+}
@@ -0,0 +1,364 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the raw H.264 stream from the aircraft to MP4 files on the phone, so there is ground-side
+ * video even when the aircraft's SD card fails.
+ * <p>
+ * The video callback only copies each packet into a preallocated {@link PacketRing} and returns;
+ * when the recorder falls behind, packets are dropped rather than making the callback, and so the
+ * decoder, wait. A writer thread splits the stream with a {@link NalSplitter}, keeps the latest
+ * SPS and PPS, groups slices into frames in a {@link FrameRing}, and writes each frame to a
+ * {@link MediaMuxer} straight out of that ring. A new file is started at the first keyframe
+ * after {@link #SEGMENT_US}, or when the SPS changes; the oldest files are deleted once they
+ * take more than {@link #MAX_RECORDING_BYTES}.
+ * <p>
+ * After a drop the stream is broken, so nothing more is muxed until the next keyframe.
+ * Timestamps are packet arrival times, as the elementary stream carries none.
+ */
+public class StreamRecorder {
+    private static final String TAG = "StreamRecorder";
+
+    public static final long SEGMENT_US          = 60L * 1000 * 1000;
+    public static final long MAX_RECORDING_BYTES = 2L << 30;
+
+    // About 4 s of 8 Mbit/s video waiting for the writer, and half a minute kept for replay
+    private static final int  PACKET_RING_BYTES = 4 << 20;
+    private static final int  FRAME_RING_BYTES  = 32 << 20;
+    private static final int  FRAME_SLOTS       = 4096;
+    // Longest the writer sleeps between polls when there is nothing to do
+    private static final long IDLE_WAIT_NS      = 5L * 1000 * 1000;
+    // A NAL unit longer than this can only be a broken stream
+    private static final int  MAX_PENDING_BYTES = 8 << 20;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    private static final String MIME = "video/avc";
+
+    private final File mDir;
+    private final PacketRing mPackets = new PacketRing(PACKET_RING_BYTES);
+    private final FrameRing mFrames = new FrameRing(FRAME_RING_BYTES, FRAME_SLOTS);
+    private volatile boolean mRunning;
+    private Thread mThread;
+
+    // Video callback thread
+    private volatile long mOffered;
+    private volatile long mOfferNs;
+    private volatile long mMaxOfferNs;
+
+    // Writer thread
+    private final NalSplitter mSplitter = new NalSplitter(new NalSplitter.Listener() {
+        @Override
+        public void onNal(byte[] nal, int offset, int length, long timeNs) {
+            StreamRecorder.this.onNal(nal, offset, length, timeNs);
+        }
+    });
+    // Written by the writer thread, read by replay
+    private volatile byte[] mSps;
+    private volatile byte[] mPps;
+    private boolean mFormatChanged;
+    private final int[] mSize = new int[2];
+    // The frame being built
+    private boolean mFrameOpen;
+    private boolean mFrameKey;
+    private long mFrameTimeNs;
+    private boolean mWaitForKey = true;
+    private MediaMuxer mMuxer;
+    private File mSegmentFile;
+    private int  mTrack;
+    private long mSegmentStartUs;
+    private long mLastPtsUs;
+    private int  mSegmentFrames;
+    private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+    private volatile long mFramesBuilt;
+    private volatile long mFramesMuxed;
+    private volatile int  mSegments;
+
+    /**
+     * @param dir where the segments go, or null when there is no storage for them (as from
+     *            {@code getExternalFilesDir} with shared storage unmounted); then nothing is recorded
+     */
+    public StreamRecorder(File dir) {
+        mDir = dir;
+    }
+
+    /**
+     * The recent frames, for replaying from memory.
+     */
+    public FrameRing getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * The latest sequence parameter set, without a start code, or null before one has arrived.
+     */
+    public byte[] getSps() {
+        return mSps;
+    }
+
+    /**
+     * The latest picture parameter set, like {@link #getSps()}.
+     */
+    public byte[] getPps() {
+        return mPps;
+    }
+
+    public synchronized void start() {
+        if (mThread != null) return;
+        if (mDir == null) {
+            Log.e(TAG, "Stream recording disabled: no storage available");
+            return;
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.e(TAG, "Stream recording disabled: cannot create " + mDir);
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stops taking packets, writes out what is queued and closes the current file.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread == null) return;
+        mRunning = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * False before {@link #start} and after {@link #stop}, and when there is nowhere to record to.
+     */
+    public synchronized boolean isRecording() {
+        return mThread != null;
+    }
+
+    /**
+     * Queues a packet of the encoded stream. Called on the video callback thread; never waits.
+     */
+    public void offer(byte[] data, int size) {
+        if (!mRunning) return;
+        long start = System.nanoTime();
+        mPackets.offer(data, size, start);
+        long spent = System.nanoTime() - start;
+        mOffered++;
+        mOfferNs += spent;
+        if (spent > mMaxOfferNs) mMaxOfferNs = spent;
+    }
+
+    public String getStats() {
+        long offered = mOffered;
+        return offered + " packets, " + mPackets.dropped() + " dropped, "
+            + (offered == 0 ? 0 : mOfferNs / offered / 1000.0) + " us/packet (max "
+            + mMaxOfferNs / 1000.0 + "), " + mFramesBuilt + " frames, " + mFramesMuxed + " muxed into "
+            + mSegments + " files";
+    }
+
+    // Writer thread
+    private void drain() {
+        while (true) {
+            int size = mPackets.peekSize();
+            if (size < 0) {
+                if (!mRunning) break;
+                LockSupport.parkNanos(IDLE_WAIT_NS);
+                continue;
+            }
+            if (mPackets.followsGap()) {
+                resync();
+            } else if (mSplitter.end() + size > MAX_PENDING_BYTES) {
+                Log.w(TAG, "No NAL boundary in " + mSplitter.end() + " bytes, resynchronising");
+                resync();
+            }
+            mPackets.take(mSplitter.reserve(size), mSplitter.end());
+            mSplitter.push(size, mPackets.lastTimeNs());
+        }
+        closeSegment();
+    }
+
+    private void onNal(byte[] b, int offset, int length, long timeNs) {
+        int type = H264Sps.nalType(b[offset]);
+        switch (type) {
+            case H264Sps.NAL_SPS:
+                finishFrame();
+                if (!sameBytes(mSps, b, offset, length)) {
+                    mSps = Arrays.copyOfRange(b, offset, offset + length);
+                    mFormatChanged = true;
+                }
+                break;
+            case H264Sps.NAL_PPS:
+                finishFrame();
+                if (!sameBytes(mPps, b, offset, length)) {
+                    mPps = Arrays.copyOfRange(b, offset, offset + length);
+                    mFormatChanged = true;
+                }
+                break;
+            case H264Sps.NAL_AUD:
+                finishFrame();
+                break;
+            case H264Sps.NAL_SLICE:
+            case H264Sps.NAL_IDR:
+                if (length < 2) return;
+                // first_mb_in_slice is 0, its exp-Golomb code a single 1 bit: a new picture
+                if ((b[offset + 1] & 0x80) != 0) finishFrame();
+                if (!mFrameOpen) {
+                    mFrameOpen = true;
+                    mFrameTimeNs = timeNs;
+                }
+                if (!mFrames.append(START_CODE, 0, START_CODE.length) || !mFrames.append(b, offset, length)) {
+                    Log.w(TAG, "Dropping an oversized frame");
+                    mFrames.discard();
+                    mFrameOpen = false;
+                    mFrameKey = false;
+                    mWaitForKey = true;
+                    return;
+                }
+                mFrameKey |= type == H264Sps.NAL_IDR;
+                break;
+            default:
+                // SEI and the rest carry nothing the file needs
+                break;
+        }
+    }
+
+    private void finishFrame() {
+        if (!mFrameOpen) return;
+        boolean key = mFrameKey;
+        long timeUs = mFrameTimeNs / 1000;
+        long seq = mFrames.commit(timeUs, key);
+        mFrameOpen = false;
+        mFrameKey = false;
+        mFramesBuilt++;
+        if (seq >= 0) mux(seq, key, timeUs);
+    }
+
+    private void mux(long seq, boolean key, long timeUs) {
+        if (mWaitForKey) {
+            if (!key) return;
+            mWaitForKey = false;
+        }
+        if (key && (mMuxer == null || mFormatChanged || timeUs - mSegmentStartUs >= SEGMENT_US)) {
+            startSegment(timeUs);
+        }
+        if (mMuxer == null) return;
+        long ptsUs = Math.max(timeUs - mSegmentStartUs, mLastPtsUs + 1);
+        mLastPtsUs = ptsUs;
+        mInfo.set(mFrames.offset(seq), mFrames.length(seq), ptsUs, key ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0);
+        try {
+            mMuxer.writeSampleData(mTrack, mFrames.buffer(), mInfo);
+            mSegmentFrames++;
+            mFramesMuxed++;
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "Writing a frame to " + mSegmentFile + " failed", e);
+            closeSegment();
+            mWaitForKey = true;
+        }
+    }
+
+    private void startSegment(long timeUs) {
+        closeSegment();
+        mFormatChanged = false;
+        if (mSps == null || mPps == null) return;
+        if (!H264Sps.readSize(mSps, 0, mSps.length, mSize)) {
+            Log.w(TAG, "Unreadable SPS, not recording until the next one");
+            return;
+        }
+        deleteOldSegments();
+        MediaFormat format = MediaFormat.createVideoFormat(MIME, mSize[0], mSize[1]);
+        format.setByteBuffer("csd-0", H264Sps.withStartCode(mSps));
+        format.setByteBuffer("csd-1", H264Sps.withStartCode(mPps));
+        mSegmentFile = new File(mDir, "video-" + System.currentTimeMillis() + ".mp4");
+        try {
+            mMuxer = new MediaMuxer(mSegmentFile.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            mTrack = mMuxer.addTrack(format);
+            mMuxer.start();
+        } catch (IOException | IllegalStateException | IllegalArgumentException e) {
+            Log.e(TAG, "Cannot start " + mSegmentFile, e);
+            if (mMuxer != null) mMuxer.release();
+            mMuxer = null;
+            return;
+        }
+        mSegmentStartUs = timeUs;
+        mLastPtsUs = -1;
+        mSegmentFrames = 0;
+        mSegments++;
+    }
+
+    private void closeSegment() {
+        if (mMuxer == null) return;
+        try {
+            // Stopping with no samples throws, and leaves nothing worth keeping anyway
+            if (mSegmentFrames > 0) mMuxer.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Finishing " + mSegmentFile + " failed", e);
+        } finally {
+            mMuxer.release();
+            mMuxer = null;
+        }
+        if (mSegmentFrames == 0 && !mSegmentFile.delete()) {
+            Log.w(TAG, "Could not delete empty " + mSegmentFile);
+        }
+    }
+
+    private void deleteOldSegments() {
+        File[] files = mDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(".mp4");
+            }
+        });
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) total += file.length();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length && total > MAX_RECORDING_BYTES; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) total -= length;
+        }
+    }
+
+    // Forgets a broken stream up to here
+    private void resync() {
+        mSplitter.reset();
+        mFrames.discard();
+        mFrameOpen = false;
+        mFrameKey = false;
+        mWaitForKey = true;
+    }
+
+    private static boolean sameBytes(byte[] a, byte[] b, int offset, int length) {
+        if (a == null || a.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[offset + i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains a {@link TelemetryRing} to disk once a second as fixed-size little-endian records:
+ * {@code timeMs(8) lat(8) lng(8) alt(4) velocity(4) heading(4) battery(1) pad(3)}.
+ * <p>
+ * Keeps its own cursor into the ring, so it never slows the writer; if it falls more than a
+ * ring's worth behind, the skipped samples are counted and logged rather than blocking anyone.
+ */
+public class TelemetryRecorder {
+    private static final String TAG = "TelemetryRecorder";
+
+    public static final int RECORD_SIZE = 40;
+    private static final int RECORDS_PER_WRITE = 64;
+    private static final long DRAIN_INTERVAL_MS = 1000;
+
+    private final TelemetryRing mRing;
+    private final File mFile;
+    private final TelemetryRing.Sample mSample = new TelemetryRing.Sample();
+    private final ByteBuffer mBuffer =
+        ByteBuffer.allocateDirect(RECORD_SIZE * RECORDS_PER_WRITE).order(ByteOrder.LITTLE_ENDIAN);
+    private ScheduledExecutorService mExecutor;
+    private FileChannel mChannel;
+    private long mCursor;
+    private long mLost;
+
+    public TelemetryRecorder(TelemetryRing ring, File file) {
+        mRing = ring;
+        mFile = file;
+    }
+
+    public synchronized void start() {
+        if (mExecutor != null) return;
+        try {
+            File dir = mFile.getParentFile();
+            if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            mChannel = new FileOutputStream(mFile, true).getChannel();
+        } catch (IOException e) {
+            Log.e(TAG, "Telemetry recording disabled", e);
+            return;
+        }
+        mCursor = mRing.published();
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, DRAIN_INTERVAL_MS, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = mExecutor;
+            mExecutor = null;
+        }
+        if (executor == null) return;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            drain();
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Closing telemetry file failed", e);
+            }
+            if (mLost > 0) {
+                Log.w(TAG, mLost + " telemetry samples were overwritten before they could be recorded");
+            }
+        }
+    }
+
+    private synchronized void drain() {
+        long published = mRing.published();
+        if (mCursor < mRing.oldest()) {
+            mLost += mRing.oldest() - mCursor;
+            mCursor = mRing.oldest();
+        }
+        try {
+            while (mCursor < published) {
+                if (mRing.read(mCursor, mSample)) {
+                    mBuffer.putLong(mSample.timeMs)
+                        .putDouble(mSample.latitude)
+                        .putDouble(mSample.longitude)
+                        .putFloat(mSample.altitude)
+                        .putFloat(mSample.velocity)
+                        .putFloat(mSample.heading)
+                        .put((byte) mSample.batteryPercent)
+                        .put((byte) 0).put((byte) 0).put((byte) 0);
+                } else {
+                    mLost++;
+                }
+                mCursor++;
+                if (!mBuffer.hasRemaining()) writeBuffer();
+            }
+            writeBuffer();
+        } catch (IOException e) {
+            Log.e(TAG, "Writing telemetry failed", e);
+            mBuffer.clear();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+}
@@ -0,0 +1,138 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Fixed-capacity ring of flight telemetry stored as primitive columns.
+ * <p>
+ * Exactly one thread (the {@code FlightController} state callback) calls {@link #write}; any
+ * number of threads read through their own {@link Sample}, which is filled in place. Neither
+ * side allocates. A reader copies a slot and then checks that the writer has not lapped it in
+ * the meantime, retrying or reporting the sample as lost when it has, so every sample a reader
+ * sees is internally consistent.
+ */
+public class TelemetryRing {
+
+    /**
+     * Reader-owned copy of one sample. Reuse one instance per consumer.
+     */
+    public static final class Sample {
+        public long   index;
+        public long   timeMs;
+        public double latitude;
+        public double longitude;
+        public float  altitude;
+        public float  velocity;
+        public float  heading;
+        public int    batteryPercent;
+
+        // Written after copying a slot: a volatile store keeps the copy from being
+        // reordered past the re-check of the write cursor that follows it
+        private volatile long mFence;
+    }
+
+    private final int mCapacity;
+    private final int mMask;
+
+    private final long[]   mTimeMs;
+    private final double[] mLatitude;
+    private final double[] mLongitude;
+    private final float[]  mAltitude;
+    private final float[]  mVelocity;
+    private final float[]  mHeading;
+    private final byte[]   mBattery;
+
+    // Number of samples published; slot (n - 1) & mask holds the latest
+    private volatile long mPublished;
+    private volatile int  mBatteryPercent = -1;
+
+    /**
+     * @param capacity rounded up to a power of two; at 10 Hz, 4096 holds about seven minutes
+     */
+    public TelemetryRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mCapacity  = size;
+        mMask      = size - 1;
+        mTimeMs    = new long[size];
+        mLatitude  = new double[size];
+        mLongitude = new double[size];
+        mAltitude  = new float[size];
+        mVelocity  = new float[size];
+        mHeading   = new float[size];
+        mBattery   = new byte[size];
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Battery level is reported by its own callback; it is stamped onto every sample written after it.
+     */
+    public void setBatteryPercent(int percent) {
+        mBatteryPercent = percent;
+    }
+
+    /**
+     * Single writer only.
+     */
+    public void write(long timeMs, double latitude, double longitude,
+                      float altitude, float velocity, float heading) {
+        long index = mPublished;
+        int slot = (int) (index & mMask);
+        mTimeMs[slot]    = timeMs;
+        mLatitude[slot]  = latitude;
+        mLongitude[slot] = longitude;
+        mAltitude[slot]  = altitude;
+        mVelocity[slot]  = velocity;
+        mHeading[slot]   = heading;
+        mBattery[slot]   = (byte) mBatteryPercent;
+        mPublished = index + 1;
+    }
+
+    /**
+     * Total number of samples written so far; the next sample gets this index.
+     */
+    public long published() {
+        return mPublished;
+    }
+
+    /**
+     * Oldest index still held by the ring.
+     */
+    public long oldest() {
+        return Math.max(0, mPublished - mCapacity);
+    }
+
+    /**
+     * Copies the newest sample into {@code out}.
+     *
+     * @return false if nothing has been written yet
+     */
+    public boolean readLatest(Sample out) {
+        while (true) {
+            long published = mPublished;
+            if (published == 0) return false;
+            if (read(published - 1, out)) return true;
+        }
+    }
+
+    /**
+     * Copies the sample at {@code index} into {@code out}.
+     *
+     * @return false if it has not been written yet or has already been overwritten
+     */
+    public boolean read(long index, Sample out) {
+        if (index < 0 || index >= mPublished) return false;
+        int slot = (int) (index & mMask);
+        out.timeMs         = mTimeMs[slot];
+        out.latitude       = mLatitude[slot];
+        out.longitude      = mLongitude[slot];
+        out.altitude       = mAltitude[slot];
+        out.velocity       = mVelocity[slot];
+        out.heading        = mHeading[slot];
+        out.batteryPercent = mBattery[slot];
+        out.index          = index;
+        out.mFence         = index;
+        // The writer only touches this slot again once it is on index + capacity
+        return mPublished < index + mCapacity;
+    }
+}
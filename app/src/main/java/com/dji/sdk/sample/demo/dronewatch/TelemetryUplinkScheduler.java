@@ -0,0 +1,107 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Decides which flight controller samples are worth sending to the server.
+ * <p>
+ * Fed with every {@code FlightControllerState} update (about 10 Hz), it lets a sample through
+ * when the aircraft has moved, turned or climbed past a dead-band since the last sent sample,
+ * but never more often than the minimum interval. A hovering aircraft still sends a heartbeat
+ * every maximum interval. While a burst is active (a finding is being captured) the dead-bands
+ * are ignored and samples go out at the burst interval.
+ * <p>
+ * Time is passed in by the caller, so a recorded state stream can be replayed through it.
+ */
+public class TelemetryUplinkScheduler {
+
+    private static final double EARTH_RADIUS_M = 6371000.0;
+
+    private long  mMinIntervalMs       = 1000;
+    private long  mMaxIntervalMs       = 15000;
+    private long  mBurstIntervalMs     = 500;
+    private float mDistanceDeadbandM   = 10f;
+    private float mHeadingDeadbandDeg  = 20f;
+    private float mAltitudeDeadbandM   = 3f;
+
+    private boolean mHasSent;
+    private long    mLastSentMs;
+    private double  mLastLat;
+    private double  mLastLng;
+    private float   mLastAlt;
+    private float   mLastHeading;
+    private long    mBurstUntilMs;
+
+    public synchronized TelemetryUplinkScheduler setIntervals(long minMs, long maxMs, long burstMs) {
+        mMinIntervalMs   = minMs;
+        mMaxIntervalMs   = maxMs;
+        mBurstIntervalMs = burstMs;
+        return this;
+    }
+
+    public synchronized TelemetryUplinkScheduler setDeadbands(float distanceM, float headingDeg, float altitudeM) {
+        mDistanceDeadbandM  = distanceM;
+        mHeadingDeadbandDeg = headingDeg;
+        mAltitudeDeadbandM  = altitudeM;
+        return this;
+    }
+
+    /**
+     * Sends at the burst interval, regardless of motion, until {@code nowMs + durationMs}.
+     */
+    public synchronized void startBurst(long nowMs, long durationMs) {
+        mBurstUntilMs = Math.max(mBurstUntilMs, nowMs + durationMs);
+    }
+
+    public synchronized boolean isBursting(long nowMs) {
+        return nowMs < mBurstUntilMs;
+    }
+
+    /**
+     * Forgets the last sent sample so the next one goes out immediately, e.g. after resuming.
+     */
+    public synchronized void reset() {
+        mHasSent = false;
+    }
+
+    /**
+     * @return true if this sample should be sent; it then becomes the reference for the dead-bands.
+     */
+    public synchronized boolean offer(long nowMs, double lat, double lng, float alt, float heading) {
+        if (Double.isNaN(lat) || Double.isNaN(lng)) return false;
+        if (!mHasSent || shouldSend(nowMs, lat, lng, alt, heading)) {
+            mHasSent     = true;
+            mLastSentMs  = nowMs;
+            mLastLat     = lat;
+            mLastLng     = lng;
+            mLastAlt     = alt;
+            mLastHeading = heading;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean shouldSend(long nowMs, double lat, double lng, float alt, float heading) {
+        long elapsed = nowMs - mLastSentMs;
+        if (isBursting(nowMs)) {
+            return elapsed >= mBurstIntervalMs;
+        }
+        if (elapsed < mMinIntervalMs) return false;
+        if (elapsed >= mMaxIntervalMs) return true;
+        return distanceMeters(mLastLat, mLastLng, lat, lng) >= mDistanceDeadbandM
+            || Math.abs(alt - mLastAlt) >= mAltitudeDeadbandM
+            || headingDelta(mLastHeading, heading) >= mHeadingDeadbandDeg;
+    }
+
+    /**
+     * Equirectangular approximation; plenty for dead-bands of a few metres.
+     */
+    static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double x = Math.toRadians(lng2 - lng1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_M;
+    }
+
+    static float headingDelta(float a, float b) {
+        float d = Math.abs(a - b) % 360f;
+        return d > 180f ? 360f - d : d;
+    }
+}
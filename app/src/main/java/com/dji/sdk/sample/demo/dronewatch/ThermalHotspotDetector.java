@@ -0,0 +1,299 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import java.util.List;
+
+/**
+ * Flags small warm blobs on a thermal feed: a person or animal on cool ground at night.
+ * <p>
+ * The live feed carries the camera's palette rather than radiometric values, so this works on
+ * luma and assumes a white-hot style palette where brighter means warmer. A pixel is hot when it
+ * is well above the frame's own level; hot pixels are joined into 8-connected blobs in one
+ * union-find pass, and blobs of a plausible size are followed from frame to frame by centroid.
+ * Only a blob seen in most of the recent frames is reported, which filters out single-frame
+ * noise and glints. All work arrays are allocated once.
+ * <p>
+ * Off until {@link #setEnabled} is called, since the same frames also carry the visual feed.
+ */
+public class ThermalHotspotDetector implements FrameDetector {
+
+    // Hot means at least this bright and this many standard deviations above the frame mean
+    private static final int   MIN_LEVEL         = 150;
+    private static final float SIGMA             = 3f;
+    // More of the frame than this over the threshold is a warm scene, not a hotspot
+    private static final float MAX_HOT_FRACTION  = 0.02f;
+    private static final int   MIN_AREA          = 2;
+    private static final float MAX_AREA_FRACTION = 0.01f;
+    // A blob continues a track if its centroid is within this share of the frame width
+    private static final float MATCH_FRACTION    = 0.04f;
+    // Reported once seen in MIN_HITS of the last WINDOW frames
+    private static final int   WINDOW            = 5;
+    private static final int   MIN_HITS          = 3;
+    private static final int   MAX_TRACKS        = 16;
+    // Frames further apart than this start the tracks over
+    private static final long  MAX_GAP_MS        = 1500;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mMaxArea;
+    private final float mMatchDistance2;
+    private volatile boolean mEnabled;
+
+    private final int[] mHistogram = new int[256];
+    // Provisional label per pixel, 0 for cold
+    private final int[] mLabels;
+    // Per provisional label; mParent links labels that turned out to touch
+    private final int[] mParent;
+    private final int[] mArea;
+    private final int[] mSumX;
+    private final int[] mSumY;
+    private final int[] mPeak;
+    private final int[] mLeft;
+    private final int[] mTop;
+    private final int[] mRight;
+    private final int[] mBottom;
+
+    // Tracks; mHistory holds one bit per frame, newest lowest, and 0 marks a free slot
+    private final int[]   mHistory    = new int[MAX_TRACKS];
+    private final float[] mTrackX     = new float[MAX_TRACKS];
+    private final float[] mTrackY     = new float[MAX_TRACKS];
+    private final float[] mContrast   = new float[MAX_TRACKS];
+    private final int[]   mTrackBox   = new int[MAX_TRACKS * 4];
+    private final boolean[] mMatched  = new boolean[MAX_TRACKS];
+    private long mPreviousTimeMs = -1;
+
+    public ThermalHotspotDetector(int frameWidth, int frameHeight) {
+        mWidth  = frameWidth;
+        mHeight = frameHeight;
+        int pixels = frameWidth * frameHeight;
+        mMaxArea = Math.max(MIN_AREA, (int) (pixels * MAX_AREA_FRACTION));
+        float match = frameWidth * MATCH_FRACTION;
+        mMatchDistance2 = match * match;
+        mLabels = new int[pixels];
+        // Every hot pixel could start a label, but no more than the hot-pixel cap get this far
+        int maxLabels = (int) (pixels * MAX_HOT_FRACTION) + 2;
+        mParent = new int[maxLabels];
+        mArea   = new int[maxLabels];
+        mSumX   = new int[maxLabels];
+        mSumY   = new int[maxLabels];
+        mPeak   = new int[maxLabels];
+        mLeft   = new int[maxLabels];
+        mTop    = new int[maxLabels];
+        mRight  = new int[maxLabels];
+        mBottom = new int[maxLabels];
+    }
+
+    @Override
+    public String getName() {
+        return "thermal";
+    }
+
+    /**
+     * Turns detection on while the feed shows the thermal camera. Any thread.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    @Override
+    public void detect(AnalysisFrame frame, List<Detection> out) {
+        if (!mEnabled) {
+            mPreviousTimeMs = -1;
+            return;
+        }
+        if (mPreviousTimeMs < 0 || frame.timeMs - mPreviousTimeMs > MAX_GAP_MS) clearTracks();
+        mPreviousTimeMs = frame.timeMs;
+        for (int t = 0; t < MAX_TRACKS; t++) mHistory[t] <<= 1;
+
+        byte[] luma = frame.luma;
+        int[] hist = mHistogram;
+        for (int i = 0; i < 256; i++) hist[i] = 0;
+        for (byte b : luma) hist[b & 0xFF]++;
+        long sum = 0;
+        long sumSq = 0;
+        for (int v = 0; v < 256; v++) {
+            sum   += (long) hist[v] * v;
+            sumSq += (long) hist[v] * v * v;
+        }
+        int n = luma.length;
+        float mean = (float) sum / n;
+        float sd = (float) Math.sqrt(Math.max(0f, (float) sumSq / n - mean * mean));
+        int threshold = Math.max(MIN_LEVEL, (int) Math.ceil(mean + SIGMA * sd));
+
+        int hot = 0;
+        for (int v = threshold; v < 256; v++) hot += hist[v];
+        if (hot > 0 && hot <= n * MAX_HOT_FRACTION) {
+            int labels = label(luma, threshold);
+            track(labels, mean);
+        }
+        retireTracks();
+        report(out);
+    }
+
+    /**
+     * Labels hot pixels and accumulates blob statistics onto each label's root.
+     *
+     * @return one past the highest provisional label used
+     */
+    private int label(byte[] luma, int threshold) {
+        int w = mWidth;
+        int h = mHeight;
+        int[] labels = mLabels;
+        int next = 1;
+        for (int y = 0, p = 0; y < h; y++) {
+            for (int x = 0; x < w; x++, p++) {
+                int v = luma[p] & 0xFF;
+                if (v < threshold) {
+                    labels[p] = 0;
+                    continue;
+                }
+                // Already-visited 8-neighbours: left, and the three above
+                int l = 0;
+                if (x > 0) l = labels[p - 1];
+                if (y > 0) {
+                    int q = p - w;
+                    if (x > 0)     l = join(l, labels[q - 1]);
+                    l = join(l, labels[q]);
+                    if (x < w - 1) l = join(l, labels[q + 1]);
+                }
+                if (l == 0) {
+                    l = next++;
+                    mParent[l] = l;
+                    mArea[l] = 0;
+                    mSumX[l] = 0;
+                    mSumY[l] = 0;
+                    mPeak[l] = 0;
+                    mLeft[l] = x;
+                    mTop[l] = y;
+                    mRight[l] = x;
+                    mBottom[l] = y;
+                }
+                labels[p] = l;
+                mArea[l]++;
+                mSumX[l] += x;
+                mSumY[l] += y;
+                if (v > mPeak[l]) mPeak[l] = v;
+                if (x < mLeft[l]) mLeft[l] = x;
+                if (x > mRight[l]) mRight[l] = x;
+                mBottom[l] = y;
+            }
+        }
+        // Fold each label's statistics into its root; children always have higher labels
+        for (int l = next - 1; l > 0; l--) {
+            int r = find(l);
+            if (r == l) continue;
+            mArea[r] += mArea[l];
+            mSumX[r] += mSumX[l];
+            mSumY[r] += mSumY[l];
+            mPeak[r]   = Math.max(mPeak[r], mPeak[l]);
+            mLeft[r]   = Math.min(mLeft[r], mLeft[l]);
+            mTop[r]    = Math.min(mTop[r], mTop[l]);
+            mRight[r]  = Math.max(mRight[r], mRight[l]);
+            mBottom[r] = Math.max(mBottom[r], mBottom[l]);
+            mArea[l] = 0;
+        }
+        return next;
+    }
+
+    // Union of two labels (0 meaning none); returns the surviving root, always the lower one
+    private int join(int a, int b) {
+        if (b == 0) return a;
+        if (a == 0) return find(b);
+        int ra = find(a);
+        int rb = find(b);
+        if (ra == rb) return ra;
+        if (ra < rb) {
+            mParent[rb] = ra;
+            return ra;
+        }
+        mParent[ra] = rb;
+        return rb;
+    }
+
+    private int find(int l) {
+        int[] parent = mParent;
+        while (parent[l] != l) {
+            parent[l] = parent[parent[l]];
+            l = parent[l];
+        }
+        return l;
+    }
+
+    private void track(int labels, float mean) {
+        for (int t = 0; t < MAX_TRACKS; t++) mMatched[t] = false;
+        float headroom = Math.max(1f, 255f - mean);
+        for (int l = 1; l < labels; l++) {
+            int area = mArea[l];
+            if (mParent[l] != l || area < MIN_AREA || area > mMaxArea) continue;
+            float cx = (float) mSumX[l] / area;
+            float cy = (float) mSumY[l] / area;
+            float contrast = Math.min(1f, (mPeak[l] - mean) / headroom);
+
+            int best = -1;
+            float bestD2 = mMatchDistance2;
+            for (int t = 0; t < MAX_TRACKS; t++) {
+                if (mHistory[t] == 0 || mMatched[t]) continue;
+                float dx = mTrackX[t] - cx;
+                float dy = mTrackY[t] - cy;
+                float d2 = dx * dx + dy * dy;
+                if (d2 <= bestD2) {
+                    bestD2 = d2;
+                    best = t;
+                }
+            }
+            if (best < 0) {
+                best = freeTrack();
+                if (best < 0) continue;
+                mContrast[best] = contrast;
+            } else {
+                // Smooth so one dim frame does not sink a steady hotspot
+                mContrast[best] = 0.7f * mContrast[best] + 0.3f * contrast;
+            }
+            mMatched[best] = true;
+            mHistory[best] |= 1;
+            mTrackX[best] = cx;
+            mTrackY[best] = cy;
+            int box = best * 4;
+            mTrackBox[box]     = mLeft[l];
+            mTrackBox[box + 1] = mTop[l];
+            mTrackBox[box + 2] = mRight[l] + 1;
+            mTrackBox[box + 3] = mBottom[l] + 1;
+        }
+    }
+
+    // A free slot, or the one seen least recently; -1 if every track was seen this frame
+    private int freeTrack() {
+        int stalest = -1;
+        for (int t = 0; t < MAX_TRACKS; t++) {
+            if (mHistory[t] == 0) return t;
+            // The lowest set bit is when a track was last seen: the higher, the longer ago
+            if (!mMatched[t] && (stalest < 0
+                || Integer.lowestOneBit(mHistory[t]) > Integer.lowestOneBit(mHistory[stalest]))) {
+                stalest = t;
+            }
+        }
+        return stalest;
+    }
+
+    private void retireTracks() {
+        int window = (1 << WINDOW) - 1;
+        for (int t = 0; t < MAX_TRACKS; t++) mHistory[t] &= window;
+    }
+
+    private void clearTracks() {
+        for (int t = 0; t < MAX_TRACKS; t++) mHistory[t] = 0;
+    }
+
+    private void report(List<Detection> out) {
+        for (int t = 0; t < MAX_TRACKS; t++) {
+            // Only tracks that are still being seen
+            if ((mHistory[t] & 1) == 0) continue;
+            int hits = Integer.bitCount(mHistory[t]);
+            if (hits < MIN_HITS) continue;
+            float persistence = (float) hits / WINDOW;
+            float score = persistence * (0.5f + 0.5f * mContrast[t]);
+            int box = t * 4;
+            out.add(new Detection(getName(), score,
+                mTrackBox[box], mTrackBox[box + 1], mTrackBox[box + 2], mTrackBox[box + 3]));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+/**
+ * Douglas-Peucker simplification of a flown track, with a tolerance that follows the camera
+ * footprint: the higher the aircraft, the wider the strip of ground it sees, and the more a
+ * point may stray from the simplified line without changing what the track says was searched.
+ * <p>
+ * Iterative and backed by scratch arrays sized once, so simplifying a chunk does not allocate.
+ */
+public class TrackSimplifier {
+
+    private static final double EARTH_RADIUS_M = 6371000.0;
+
+    private final double mToleranceFraction;
+    private final double mMinToleranceM;
+    private final double mMaxToleranceM;
+    private final double mHalfFovTan;
+
+    private final double[] mX;
+    private final double[] mY;
+    private final double[] mTolerance;
+    private final boolean[] mKeep;
+    private final int[] mStack;
+
+    /**
+     * @param capacity          most points a single call will be given
+     * @param horizontalFovDeg  camera horizontal field of view
+     * @param toleranceFraction allowed deviation as a fraction of the footprint width
+     */
+    public TrackSimplifier(int capacity, double horizontalFovDeg, double toleranceFraction,
+                           double minToleranceM, double maxToleranceM) {
+        mHalfFovTan        = Math.tan(Math.toRadians(horizontalFovDeg) / 2);
+        mToleranceFraction = toleranceFraction;
+        mMinToleranceM     = minToleranceM;
+        mMaxToleranceM     = maxToleranceM;
+        mX         = new double[capacity];
+        mY         = new double[capacity];
+        mTolerance = new double[capacity];
+        mKeep      = new boolean[capacity];
+        mStack     = new int[2 * capacity];
+    }
+
+    /**
+     * Ground footprint width for a nadir camera at this height, scaled to a tolerance and clamped.
+     */
+    public double toleranceFor(double altitudeM) {
+        double footprint = 2 * Math.max(0, altitudeM) * mHalfFovTan;
+        return Math.min(mMaxToleranceM, Math.max(mMinToleranceM, footprint * mToleranceFraction));
+    }
+
+    /**
+     * Writes the indices of the points to keep, in order, into {@code out} and returns how many
+     * there are. The first and last points are always kept.
+     */
+    public int simplify(double[] lat, double[] lng, float[] alt, int count, int[] out) {
+        if (count <= 2) {
+            for (int i = 0; i < count; i++) out[i] = i;
+            return count;
+        }
+        // Local flat projection around the first point is accurate to well under a metre
+        // over the few kilometres a chunk covers
+        double cosLat = Math.cos(Math.toRadians(lat[0]));
+        for (int i = 0; i < count; i++) {
+            mX[i] = Math.toRadians(lng[i] - lng[0]) * cosLat * EARTH_RADIUS_M;
+            mY[i] = Math.toRadians(lat[i] - lat[0]) * EARTH_RADIUS_M;
+            mTolerance[i] = toleranceFor(alt[i]);
+            mKeep[i] = false;
+        }
+        mKeep[0] = true;
+        mKeep[count - 1] = true;
+
+        int top = 0;
+        mStack[top++] = 0;
+        mStack[top++] = count - 1;
+        while (top > 0) {
+            int last  = mStack[--top];
+            int first = mStack[--top];
+            int worst = -1;
+            double worstExcess = 0;
+            for (int i = first + 1; i < last; i++) {
+                double excess = distanceToSegment(i, first, last) - mTolerance[i];
+                if (excess > worstExcess) {
+                    worstExcess = excess;
+                    worst = i;
+                }
+            }
+            if (worst >= 0) {
+                mKeep[worst] = true;
+                mStack[top++] = first;
+                mStack[top++] = worst;
+                mStack[top++] = worst;
+                mStack[top++] = last;
+            }
+        }
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (mKeep[i]) out[kept++] = i;
+        }
+        return kept;
+    }
+
+    private double distanceToSegment(int p, int a, int b) {
+        double dx = mX[b] - mX[a];
+        double dy = mY[b] - mY[a];
+        double px = mX[p] - mX[a];
+        double py = mY[p] - mY[a];
+        double lengthSq = dx * dx + dy * dy;
+        if (lengthSq == 0) return Math.sqrt(px * px + py * py);
+        double t = Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSq));
+        double ex = px - t * dx;
+        double ey = py - t * dy;
+        return Math.sqrt(ex * ex + ey * ey);
+    }
+}
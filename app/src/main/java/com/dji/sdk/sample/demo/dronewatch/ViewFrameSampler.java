@@ -0,0 +1,165 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.graphics.Bitmap;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.PixelCopy;
+import android.view.Surface;
+import android.view.TextureView;
+
+/**
+ * Feeds a {@link FrameAnalysisPipeline} a few times a second with the live video, scaled down to
+ * the pipeline's frame size by {@link PixelCopy} on the way out of the decoder's surface. Each
+ * frame is stamped with the latest position from the {@link TelemetryRing} and the latest
+ * {@link GimbalAttitude}, if one has been reported.
+ * <p>
+ * At most one copy is in flight, and a tick is skipped outright when the pipeline has no free
+ * frame, so a slow detector never backs up the video. Needs Android N for PixelCopy from a
+ * surface; on older devices analysis stays off.
+ */
+public class ViewFrameSampler {
+    private static final String TAG = "ViewFrameSampler";
+
+    private final TextureView mView;
+    private final FrameAnalysisPipeline mPipeline;
+    private final TelemetryRing mTelemetry;
+    private final GimbalAttitude mGimbal;
+    private final long mIntervalMs;
+    private final Bitmap mBitmap;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HandlerThread mCopyThread = new HandlerThread("AnalysisCopy");
+    private final Handler mCopyHandler;
+    private final TelemetryRing.Sample mSample = new TelemetryRing.Sample();
+
+    // Main thread only
+    private boolean mRunning;
+    private boolean mCopying;
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mSurface;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) return;
+            mMainHandler.postDelayed(this, mIntervalMs);
+            sample();
+        }
+    };
+
+    public ViewFrameSampler(TextureView view, FrameAnalysisPipeline pipeline, TelemetryRing telemetry,
+                            GimbalAttitude gimbal, int width, int height, long intervalMs) {
+        mView       = view;
+        mPipeline   = pipeline;
+        mTelemetry  = telemetry;
+        mGimbal     = gimbal;
+        mIntervalMs = intervalMs;
+        mBitmap     = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mCopyThread.start();
+        mCopyHandler = new Handler(mCopyThread.getLooper());
+    }
+
+    /**
+     * Main thread.
+     */
+    public void start() {
+        if (mRunning) return;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            Log.w(TAG, "Frame analysis needs Android 7.0 or later");
+            return;
+        }
+        mRunning = true;
+        mMainHandler.postDelayed(mTick, mIntervalMs);
+    }
+
+    /**
+     * Main thread.
+     */
+    public void stop() {
+        mRunning = false;
+        mMainHandler.removeCallbacks(mTick);
+    }
+
+    /**
+     * Drops the surface wrapping the video texture; call when the texture goes away. Main thread.
+     */
+    public void releaseSurface() {
+        if (mSurface != null) {
+            mSurface.release();
+            mSurface = null;
+        }
+        mSurfaceTexture = null;
+    }
+
+    /**
+     * Stops for good. Main thread.
+     */
+    public void shutdown() {
+        stop();
+        releaseSurface();
+        mCopyThread.quitSafely();
+    }
+
+    private void sample() {
+        if (mCopying || !mView.isAvailable()) return;
+        SurfaceTexture texture = mView.getSurfaceTexture();
+        if (texture != mSurfaceTexture) {
+            releaseSurface();
+            if (texture == null) return;
+            mSurfaceTexture = texture;
+            mSurface = new Surface(texture);
+        }
+        final AnalysisFrame frame = mPipeline.obtainFrame();
+        if (frame == null) return;   // analysis is behind: skip this one
+
+        mCopying = true;
+        try {
+            PixelCopy.request(mSurface, mBitmap, new PixelCopy.OnPixelCopyFinishedListener() {
+                @Override
+                public void onPixelCopyFinished(int result) {
+                    if (result == PixelCopy.SUCCESS) {
+                        mBitmap.getPixels(frame.argb, 0, frame.width, 0, 0, frame.width, frame.height);
+                        stamp(frame);
+                        mPipeline.submit(frame);
+                    } else {
+                        mPipeline.recycle(frame);
+                    }
+                    mMainHandler.post(mCopyDone);
+                }
+            }, mCopyHandler);
+        } catch (IllegalArgumentException e) {
+            // The surface was released under us
+            releaseSurface();
+            mPipeline.recycle(frame);
+            mCopying = false;
+        }
+    }
+
+    private final Runnable mCopyDone = new Runnable() {
+        @Override
+        public void run() {
+            mCopying = false;
+        }
+    };
+
+    // Copy thread
+    private void stamp(AnalysisFrame frame) {
+        frame.timeMs = System.currentTimeMillis();
+        frame.hasPosition = mTelemetry.readLatest(mSample);
+        if (frame.hasPosition) {
+            frame.latitude  = mSample.latitude;
+            frame.longitude = mSample.longitude;
+            frame.altitude  = mSample.altitude;
+            frame.heading   = mSample.heading;
+        }
+        long attitude = mGimbal.snapshot();
+        frame.hasGimbal = attitude != 0;
+        if (frame.hasGimbal) {
+            frame.gimbalPitch = GimbalAttitude.pitch(attitude);
+            frame.gimbalYaw   = GimbalAttitude.yaw(attitude);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package com.dji.sdk.sample.demo.dronewatch;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import dji.sdk.codec.DJICodecManager;
+
+/**
+ * Taps decoded frames from {@link DJICodecManager} at the native resolution of the stream,
+ * for finding photos that are sharper than a copy of the on-screen view.
+ * <p>
+ * The tap is only switched on while someone wants a frame: {@link #prime} or
+ * {@link #requestFrame} turns YUV output on, and it goes off again once nothing has asked for
+ * {@link #HOLD_MS}. While it is on, every frame is scored for sharpness with a
+ * {@link SharpnessScorer}, and the frames that could still turn out the sharpest of the capture
+ * window are kept at full size in direct buffers that are reused from frame to frame. A request
+ * gets the sharpest of those, so a capture skips the blur of a gimbal move just before it.
+ * A frame handed out is pinned until {@link #release}, so the decoder never overwrites it, and
+ * conversion to JPEG ({@link #writeJpeg}) happens only for that frame, on the caller's thread.
+ */
+public class YuvFrameTap implements DJICodecManager.YuvDataCallback {
+    private static final String TAG = "YuvFrameTap";
+
+    // Full-size frames kept as candidates; the pool adds one being filled and one being encoded
+    private static final int MAX_CANDIDATES = 4;
+    private static final int MAX_FRAMES     = MAX_CANDIDATES + 2;
+    // A frame this recent means the tap is flowing and a request need not wait for the next one
+    private static final long FRESH_MS = 100;
+    // Keep YUV output on this long after the last request, so bursts of captures share it
+    private static final long HOLD_MS  = 2000;
+    // Frames are scored shrunk to about this many pixels across
+    private static final int SCORE_TARGET_WIDTH = 160;
+
+    // Not in MediaFormat before API 23; the decoder reports them for padded buffers
+    private static final String KEY_STRIDE       = "stride";
+    private static final String KEY_SLICE_HEIGHT = "slice-height";
+
+    public interface Switch {
+        /**
+         * Turns the decoder's YUV output on or off. Called on the main thread.
+         */
+        void setYuvEnabled(boolean enabled);
+    }
+
+    public interface FrameListener {
+        /**
+         * A decoded frame, pinned until passed to {@link #release}. Called on the decoder thread,
+         * or right away on the caller's if a recent frame is at hand.
+         */
+        void onFrame(Frame frame);
+    }
+
+    /**
+     * A decoded frame and the layout needed to read it.
+     */
+    public static final class Frame {
+        private ByteBuffer mBuffer;
+        private int  mSize;
+        private int  mWidth;
+        private int  mHeight;
+        private int  mStride;
+        private int  mSliceHeight;
+        private int  mColorFormat;
+        private long mTimeMs;
+        private double mSharpness;
+        private int  mPins;
+        private boolean mCandidate;
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * Variance of the Laplacian, see {@link SharpnessScorer}; only comparable within a scene.
+         */
+        public double getSharpness() {
+            return mSharpness;
+        }
+    }
+
+    private final Switch mSwitch;
+    private final long mWindowMs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final SharpnessScorer mScorer = new SharpnessScorer(SCORE_TARGET_WIDTH);
+    private final ArrayList<Frame> mFrames = new ArrayList<>(MAX_FRAMES);
+    // Sharpness strictly decreasing from oldest to newest: the head is the best in the window
+    private final ArrayDeque<Frame> mCandidates = new ArrayDeque<>(MAX_CANDIDATES + 1);
+    private final ArrayList<FrameListener> mWaiting = new ArrayList<>();
+
+    // Guarded by mFrames
+    private long  mLastRequestMs;
+    private boolean mEnabled;
+    private boolean mShutdown;
+
+    // Decoder thread only: the shrunk luma a score is worked out on
+    private byte[] mScoreScratch = new byte[0];
+
+    // Encoder thread only
+    private byte[] mNv21;
+    private byte[] mRowU;
+    private byte[] mRowV;
+
+    private final Runnable mDisableIfIdle = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mFrames) {
+                long idleMs = SystemClock.elapsedRealtime() - mLastRequestMs;
+                if (!mEnabled) return;
+                if (idleMs < HOLD_MS && !mShutdown) {
+                    mMainHandler.postDelayed(this, HOLD_MS - idleMs);
+                    return;
+                }
+                mEnabled = false;
+                clearCandidates();
+                mWaiting.clear();
+            }
+            mSwitch.setYuvEnabled(false);
+        }
+    };
+
+    /**
+     * @param windowMs how far back a request looks for the sharpest frame
+     */
+    public YuvFrameTap(Switch yuvSwitch, long windowMs) {
+        mSwitch   = yuvSwitch;
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Starts scoring frames ahead of a capture that is about to be requested, e.g. when the
+     * shutter is pressed. Main thread.
+     */
+    public void prime() {
+        boolean enable;
+        synchronized (mFrames) {
+            if (mShutdown) return;
+            mLastRequestMs = SystemClock.elapsedRealtime();
+            enable = !mEnabled;
+            mEnabled = true;
+        }
+        if (enable) switchOn();
+    }
+
+    /**
+     * Asks for the sharpest frame of the window, or the next frame if the tap was off. Main thread.
+     */
+    public void requestFrame(FrameListener listener) {
+        Frame ready = null;
+        boolean enable = false;
+        synchronized (mFrames) {
+            if (mShutdown) return;
+            long now = SystemClock.elapsedRealtime();
+            mLastRequestMs = now;
+            Frame newest = mCandidates.peekLast();
+            if (newest != null && now - newest.mTimeMs <= FRESH_MS) {
+                expireCandidates(now);
+                ready = mCandidates.peekFirst();
+                ready.mPins++;
+            } else {
+                mWaiting.add(listener);
+                enable = !mEnabled;
+                mEnabled = true;
+            }
+        }
+        if (enable) switchOn();
+        if (ready != null) listener.onFrame(ready);
+    }
+
+    /**
+     * Withdraws a request that has not been served yet.
+     *
+     * @return true if it was still waiting and will not be called now
+     */
+    public boolean cancel(FrameListener listener) {
+        synchronized (mFrames) {
+            return mWaiting.remove(listener);
+        }
+    }
+
+    public void release(Frame frame) {
+        synchronized (mFrames) {
+            frame.mPins--;
+        }
+    }
+
+    /**
+     * Switches YUV output off for good; frames still pinned stay readable until released.
+     */
+    public void shutdown() {
+        synchronized (mFrames) {
+            mShutdown = true;
+            mWaiting.clear();
+        }
+        mMainHandler.removeCallbacks(mDisableIfIdle);
+        mDisableIfIdle.run();
+    }
+
+    private void switchOn() {
+        mSwitch.setYuvEnabled(true);
+        mMainHandler.postDelayed(mDisableIfIdle, HOLD_MS);
+    }
+
+    @Override
+    public void onYuvDataReceived(MediaFormat format, ByteBuffer yuvFrame, int dataSize, int width, int height) {
+        Frame target = null;
+        synchronized (mFrames) {
+            if (!mEnabled) return;
+            for (Frame f : mFrames) {
+                if (!f.mCandidate && f.mPins == 0) {
+                    target = f;
+                    break;
+                }
+            }
+            if (target == null && mFrames.size() < MAX_FRAMES) {
+                target = new Frame();
+                mFrames.add(target);
+            }
+            if (target == null) return;   // every buffer held: skip this frame
+        }
+
+        if (target.mBuffer == null || target.mBuffer.capacity() < dataSize) {
+            target.mBuffer = ByteBuffer.allocateDirect(dataSize);
+        }
+        ByteBuffer src = yuvFrame.duplicate();
+        src.position(0).limit(dataSize);
+        target.mBuffer.clear();
+        target.mBuffer.put(src);
+        target.mSize        = dataSize;
+        target.mWidth       = width;
+        target.mHeight      = height;
+        target.mStride      = Math.max(width, intOrZero(format, KEY_STRIDE));
+        target.mSliceHeight = Math.max(height, intOrZero(format, KEY_SLICE_HEIGHT));
+        target.mColorFormat = intOrZero(format, MediaFormat.KEY_COLOR_FORMAT);
+        target.mTimeMs      = SystemClock.elapsedRealtime();
+        target.mSharpness   = score(target);
+
+        ArrayList<FrameListener> waiting = null;
+        synchronized (mFrames) {
+            addCandidate(target);
+            if (!mWaiting.isEmpty()) {
+                // First frame after switching on: nothing better to choose from yet
+                waiting = new ArrayList<>(mWaiting);
+                mWaiting.clear();
+                target.mPins += waiting.size();
+            }
+        }
+        if (waiting != null) {
+            for (FrameListener listener : waiting) listener.onFrame(target);
+        }
+    }
+
+    // Decoder thread
+    private double score(Frame frame) {
+        int scaled = mScorer.scaledWidth(frame.mWidth) * mScorer.scaledHeight(frame.mWidth, frame.mHeight);
+        if (mScoreScratch.length < scaled) mScoreScratch = new byte[scaled];
+        // The Y plane comes first in every layout handled here
+        return mScorer.score(frame.mBuffer.duplicate(), frame.mStride, frame.mWidth, frame.mHeight,
+            mScoreScratch, 0);
+    }
+
+    // With mFrames held. Keeps the sliding-window maximum: a frame with a sharper one after it
+    // can never be the pick again, so it stops being a candidate and its buffer is reused.
+    private void addCandidate(Frame frame) {
+        while (!mCandidates.isEmpty() && mCandidates.peekLast().mSharpness <= frame.mSharpness) {
+            mCandidates.pollLast().mCandidate = false;
+        }
+        frame.mCandidate = true;
+        mCandidates.addLast(frame);
+        expireCandidates(frame.mTimeMs);
+        if (mCandidates.size() > MAX_CANDIDATES) {
+            // Out of buffers: the oldest is the first to leave the window anyway
+            mCandidates.pollFirst().mCandidate = false;
+        }
+    }
+
+    // With mFrames held; the newest candidate always stays
+    private void expireCandidates(long nowMs) {
+        while (mCandidates.size() > 1 && mCandidates.peekFirst().mTimeMs < nowMs - mWindowMs) {
+            mCandidates.pollFirst().mCandidate = false;
+        }
+    }
+
+    // With mFrames held
+    private void clearCandidates() {
+        for (Frame f : mCandidates) f.mCandidate = false;
+        mCandidates.clear();
+    }
+
+    /**
+     * {@link PerceptualHash} of a frame's luma, reading every {@code step}-th pixel and row. Only
+     * while the frame is held.
+     */
+    public long perceptualHash(Frame frame, int step) {
+        return PerceptualHash.ofLuma(frame.mBuffer.duplicate(), frame.mStride,
+            frame.mWidth, frame.mHeight, step);
+    }
+
+    /**
+     * Encodes a pinned frame as JPEG at its full size. Call from one thread at a time.
+     *
+     * @return false if the frame could not be encoded
+     */
+    public boolean writeJpeg(Frame frame, int quality, OutputStream out) {
+        int width  = frame.mWidth & ~1;
+        int height = frame.mHeight & ~1;
+        int stride = frame.mStride;
+        int ySize  = stride * frame.mSliceHeight;
+        int chromaStride = stride / 2;
+        int vPlane = ySize + chromaStride * (frame.mSliceHeight / 2);
+        boolean planar = frame.mColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar
+            || frame.mColorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar;
+        // Where the last chroma byte read lies; the padding after it may be cut off
+        int needed = planar
+            ? vPlane + (height / 2 - 1) * chromaStride + width / 2
+            : ySize + (height / 2 - 1) * stride + width;
+        if (width == 0 || height == 0 || frame.mSize < needed) {
+            Log.w(TAG, "Frame " + frame.mWidth + "x" + frame.mHeight + " (" + frame.mSize
+                + " bytes) does not match its format " + frame.mColorFormat);
+            return false;
+        }
+
+        int frameSize = width * height;
+        if (mNv21 == null || mNv21.length != frameSize * 3 / 2) {
+            mNv21 = new byte[frameSize * 3 / 2];
+        }
+        if (mRowU == null || mRowU.length < chromaStride) {
+            mRowU = new byte[chromaStride];
+            mRowV = new byte[chromaStride];
+        }
+        byte[] nv21 = mNv21;
+        ByteBuffer src = frame.mBuffer.duplicate();
+
+        // Luma, row by row to drop the padding
+        for (int row = 0; row < height; row++) {
+            src.position(row * stride);
+            src.get(nv21, row * width, width);
+        }
+
+        // Chroma, as NV21's interleaved V/U
+        int chromaWidth = width / 2;
+        int pos = frameSize;
+        if (planar) {
+            // I420: a U plane, then a V plane, each half the stride
+            int uPlane = ySize;
+            for (int row = 0; row < height / 2; row++) {
+                src.position(uPlane + row * chromaStride);
+                src.get(mRowU, 0, chromaWidth);
+                src.position(vPlane + row * chromaStride);
+                src.get(mRowV, 0, chromaWidth);
+                for (int col = 0; col < chromaWidth; col++) {
+                    nv21[pos++] = mRowV[col];
+                    nv21[pos++] = mRowU[col];
+                }
+            }
+        } else {
+            // NV12 (and, as a best guess, any vendor semi-planar format): U/V pairs to swap
+            for (int row = 0; row < height / 2; row++) {
+                src.position(ySize + row * stride);
+                src.get(nv21, pos, width);
+                for (int i = pos; i < pos + width; i += 2) {
+                    byte u = nv21[i];
+                    nv21[i] = nv21[i + 1];
+                    nv21[i + 1] = u;
+                }
+                pos += width;
+            }
+        }
+
+        YuvImage image = new YuvImage(nv21, ImageFormat.NV21, width, height, null);
+        return image.compressToJpeg(new Rect(0, 0, width, height), quality, out);
+    }
+
+    private static int intOrZero(MediaFormat format, String key) {
+        return format != null && format.containsKey(key) ? format.getInteger(key) : 0;
+    }
+}